@@ -0,0 +1,65 @@
+package de.iltisauge.transport.benchmarks;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import de.iltisauge.transport.Transport;
+import de.iltisauge.transport.network.ISession;
+import de.iltisauge.transport.network.Session;
+import de.iltisauge.transport.utils.ConsoleLoggingFormatter;
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.ReferenceCountUtil;
+
+/**
+ * Shared setup of the benchmarks.
+ *
+ * @author Daniel Ziegler
+ *
+ */
+final class BenchmarkSupport {
+
+	private static final InetSocketAddress ADDRESS = new InetSocketAddress("127.0.0.1", 8917);
+	private static final AtomicInteger LAST_SESSION_ID = new AtomicInteger();
+
+	private BenchmarkSupport() {
+	}
+
+	/**
+	 * Sets a {@link Logger} that only prints warnings, so logging does not distort the results.
+	 */
+	static void initLogger() {
+		final Logger logger = Logger.getLogger("transport-benchmarks");
+		logger.setUseParentHandlers(false);
+		if (logger.getHandlers().length == 0) {
+			logger.addHandler(new ConsoleLoggingFormatter());
+		}
+		logger.setLevel(Level.WARNING);
+		Transport.setLogger(logger);
+	}
+
+	/**
+	 *
+	 * @return a {@link ISession} whose channel releases every written message immediately.
+	 */
+	static ISession newDiscardingSession() {
+		return new Session(new EmbeddedChannel(DiscardHandler.INSTANCE), ADDRESS, ADDRESS, LAST_SESSION_ID.incrementAndGet());
+	}
+
+	@Sharable
+	private static final class DiscardHandler extends ChannelOutboundHandlerAdapter {
+
+		private static final DiscardHandler INSTANCE = new DiscardHandler();
+
+		@Override
+		public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+			ReferenceCountUtil.release(msg);
+			promise.setSuccess();
+		}
+	}
+}
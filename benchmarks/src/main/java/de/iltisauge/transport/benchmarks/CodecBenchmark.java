@@ -0,0 +1,113 @@
+package de.iltisauge.transport.benchmarks;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.iltisauge.transport.Transport;
+import de.iltisauge.transport.client.ClientNetworkManager;
+import de.iltisauge.transport.client.NetworkClient;
+import de.iltisauge.transport.messages.HandleSubscriptionsMessage;
+import de.iltisauge.transport.messages.HandleSubscriptionsMessage.HandleSubscriptionType;
+import de.iltisauge.transport.messages.TextMessage;
+import de.iltisauge.transport.network.IMessage;
+import de.iltisauge.transport.network.MessageDecoder;
+import de.iltisauge.transport.network.MessageEncoder;
+import de.iltisauge.transport.network.NetworkManager;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.ReferenceCountUtil;
+
+/**
+ * Measures the {@link MessageEncoder} and {@link MessageDecoder} for {@link TextMessage} and {@link HandleSubscriptionsMessage}.<br>
+ * The decoder takes the messages from a pool if <code>recycleMessages</code> is set, see {@link de.iltisauge.transport.network.NetworkConfig#isRecycleMessages()}.
+ *
+ * @author Daniel Ziegler
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = { "-Xms2g", "-Xmx2g", "-XX:+AlwaysPreTouch", "-Dio.netty.leakDetectionLevel=disabled" })
+@State(Scope.Thread)
+public class CodecBenchmark {
+
+	@Param({ "TextMessage", "HandleSubscriptionsMessage" })
+	private String messageType;
+
+	@Param({ "64" })
+	private int textLength;
+
+	@Param({ "false", "true" })
+	private boolean recycleMessages;
+
+	private final ByteBufAllocator allocator = UnpooledByteBufAllocator.DEFAULT;
+	private ClientNetworkManager networkManager;
+	private IMessage message;
+	private ByteBuf frame;
+	private EmbeddedChannel decoderChannel;
+
+	@Setup
+	public void setup() {
+		BenchmarkSupport.initLogger();
+		networkManager = new ClientNetworkManager();
+		networkManager.registerDefaultCodecs();
+		networkManager.registerCodec(TextMessage.class, TextMessage.CODEC);
+		networkManager.bindCodecId(TextMessage.class.getName(), NetworkManager.FIRST_DYNAMIC_CODEC_ID);
+		Transport.setNetworkManager(networkManager);
+		final StringBuilder text = new StringBuilder(textLength);
+		for (int i = 0; i < textLength; i++) {
+			text.append((char) ('a' + i % 26));
+		}
+		if (messageType.equals("TextMessage")) {
+			message = new TextMessage(text.toString());
+			message.addChannels("text-message");
+		} else {
+			message = new HandleSubscriptionsMessage(HandleSubscriptionType.ADD, "channel-1", "channel-2", "channel-3");
+			message.addChannels("handle-subscriptions");
+		}
+		frame = MessageEncoder.encodeFrame(networkManager, allocator, message);
+		final NetworkClient client = new NetworkClient(networkManager, new InetSocketAddress("127.0.0.1", 8917));
+		client.getConfig().setRecycleMessages(recycleMessages);
+		decoderChannel = new EmbeddedChannel(new MessageDecoder(client));
+	}
+
+	@TearDown
+	public void tearDown() {
+		frame.release();
+		decoderChannel.finish();
+	}
+
+	@Benchmark
+	public int encode() {
+		final ByteBuf encoded = MessageEncoder.encodeFrame(networkManager, allocator, message);
+		final int length = encoded.readableBytes();
+		encoded.release();
+		return length;
+	}
+
+	@Benchmark
+	public Object decode() {
+		final ByteBuf body = frame.slice(MessageEncoder.LENGTH_FIELD_SIZE, frame.readableBytes() - MessageEncoder.LENGTH_FIELD_SIZE);
+		decoderChannel.writeInbound(body.retain());
+		final Object decoded = decoderChannel.readInbound();
+		// Returns a recycled message to its pool, like the inbound handler does after dispatching it
+		ReferenceCountUtil.release(decoded);
+		return decoded;
+	}
+}
@@ -0,0 +1,75 @@
+package de.iltisauge.transport.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.iltisauge.transport.messages.TextMessage;
+import de.iltisauge.transport.network.IMessage;
+import de.iltisauge.transport.network.IMessageEvent;
+import de.iltisauge.transport.network.NetworkManager;
+
+/**
+ * Measures {@link NetworkManager#fireInboundMessageEvents(de.iltisauge.transport.network.Sendable)} with N listeners.<br>
+ * Half of the listeners are bound to the message class, the other half is not bound to a class.
+ *
+ * @author Daniel Ziegler
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = { "-Xms2g", "-Xmx2g", "-XX:+AlwaysPreTouch", "-Dio.netty.leakDetectionLevel=disabled" })
+@State(Scope.Benchmark)
+public class EventDispatchBenchmark {
+
+	@Param({ "1", "8", "64" })
+	private int listeners;
+
+	private NetworkManager networkManager;
+	private TextMessage message;
+
+	@Setup
+	public void setup(Blackhole blackhole) {
+		BenchmarkSupport.initLogger();
+		networkManager = new NetworkManager();
+		for (int i = 0; i < listeners; i++) {
+			if (i % 2 == 0) {
+				networkManager.registerEvent(TextMessage.class, new IMessageEvent<TextMessage>() {
+
+					@Override
+					public void onReceived(TextMessage message) {
+						blackhole.consume(message);
+					}
+				});
+			} else {
+				networkManager.registerEvent(new IMessageEvent<IMessage>() {
+
+					@Override
+					public void onReceived(IMessage message) {
+						blackhole.consume(message);
+					}
+				});
+			}
+		}
+		message = new TextMessage("benchmark");
+		message.addChannels("text-message");
+	}
+
+	@Benchmark
+	public void fireInboundMessageEvents() {
+		networkManager.fireInboundMessageEvents(message);
+	}
+}
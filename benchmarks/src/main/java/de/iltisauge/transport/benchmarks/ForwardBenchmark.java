@@ -0,0 +1,90 @@
+package de.iltisauge.transport.benchmarks;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.iltisauge.transport.Transport;
+import de.iltisauge.transport.network.ISession;
+import de.iltisauge.transport.network.ServerMessageWrapper;
+import de.iltisauge.transport.server.NetworkServer;
+import de.iltisauge.transport.server.ServerNetworkManager;
+import de.iltisauge.transport.server.SubscriptionManager;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+/**
+ * Measures {@link NetworkServer#forwardMessage(ServerMessageWrapper)} with N sessions and a message that targets M channels.<br>
+ * Every session subscribes exactly one of the channels, so every session receives the message once.
+ * The sessions write into channels that discard everything, so only the server-side cost is measured.
+ *
+ * @author Daniel Ziegler
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = { "-Xms2g", "-Xmx2g", "-XX:+AlwaysPreTouch", "-Dio.netty.leakDetectionLevel=disabled" })
+@State(Scope.Benchmark)
+public class ForwardBenchmark {
+
+	@Param({ "10", "1000" })
+	private int sessions;
+
+	@Param({ "1", "8" })
+	private int channels;
+
+	@Param({ "64" })
+	private int payloadSize;
+
+	private NetworkServer server;
+	private ServerMessageWrapper message;
+	private ByteBuf payload;
+
+	@Setup
+	public void setup() {
+		BenchmarkSupport.initLogger();
+		final SubscriptionManager subscriptionManager = new SubscriptionManager();
+		final ServerNetworkManager networkManager = new ServerNetworkManager(subscriptionManager);
+		networkManager.registerDefaultCodecs();
+		Transport.setNetworkManager(networkManager);
+		server = new NetworkServer(networkManager, subscriptionManager, new InetSocketAddress("127.0.0.1", 8917));
+		server.setLogTraffic(false);
+		final String[] channelNames = new String[channels];
+		for (int i = 0; i < channels; i++) {
+			channelNames[i] = "benchmark.channel." + i;
+		}
+		for (int i = 0; i < sessions; i++) {
+			final ISession session = BenchmarkSupport.newDiscardingSession();
+			networkManager.registerSession(session);
+			subscriptionManager.addSubscriptions(session, channelNames[i % channels]);
+		}
+		payload = Unpooled.buffer(payloadSize).writeZero(payloadSize);
+		message = new ServerMessageWrapper(networkManager.assignCodecIds(new String[] { "de.iltisauge.transport.benchmarks.Unknown" })[0], payload);
+		message.setFrom(BenchmarkSupport.newDiscardingSession());
+		message.addChannels(channelNames);
+	}
+
+	@TearDown
+	public void tearDown() {
+		payload.release();
+	}
+
+	@Benchmark
+	public void forwardMessage() {
+		server.forwardMessage(message);
+	}
+}
@@ -0,0 +1,76 @@
+package de.iltisauge.transport.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.iltisauge.transport.utils.PacketUtil;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.UnpooledByteBufAllocator;
+
+/**
+ * Measures {@link PacketUtil#writeString(ByteBuf, String)} and {@link PacketUtil#readString(ByteBuf)}.
+ *
+ * @author Daniel Ziegler
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = { "-Xms2g", "-Xmx2g", "-XX:+AlwaysPreTouch", "-Dio.netty.leakDetectionLevel=disabled" })
+@State(Scope.Thread)
+public class PacketUtilBenchmark {
+
+	@Param({ "8", "64", "1024" })
+	private int length;
+
+	@Param({ "true", "false" })
+	private boolean ascii;
+
+	private String string;
+	private ByteBuf writeBuffer;
+	private ByteBuf readBuffer;
+
+	@Setup
+	public void setup() {
+		final StringBuilder builder = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			builder.append(ascii ? (char) ('a' + i % 26) : (char) ('ä' + i % 3));
+		}
+		string = builder.toString();
+		writeBuffer = UnpooledByteBufAllocator.DEFAULT.heapBuffer(length * 4 + 16);
+		readBuffer = UnpooledByteBufAllocator.DEFAULT.heapBuffer(length * 4 + 16);
+		PacketUtil.writeString(readBuffer, string);
+	}
+
+	@TearDown
+	public void tearDown() {
+		writeBuffer.release();
+		readBuffer.release();
+	}
+
+	@Benchmark
+	public ByteBuf writeString() {
+		writeBuffer.clear();
+		PacketUtil.writeString(writeBuffer, string);
+		return writeBuffer;
+	}
+
+	@Benchmark
+	public String readString() {
+		readBuffer.readerIndex(0);
+		return PacketUtil.readString(readBuffer);
+	}
+}
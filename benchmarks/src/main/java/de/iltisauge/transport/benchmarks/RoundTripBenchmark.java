@@ -0,0 +1,156 @@
+package de.iltisauge.transport.benchmarks;
+
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.iltisauge.transport.client.ClientNetworkManager;
+import de.iltisauge.transport.client.NetworkClient;
+import de.iltisauge.transport.network.IMessageCodec;
+import de.iltisauge.transport.network.IMessageEvent;
+import de.iltisauge.transport.network.Message;
+import de.iltisauge.transport.server.NetworkServer;
+import de.iltisauge.transport.server.ServerNetworkManager;
+import de.iltisauge.transport.server.SubscriptionManager;
+import de.iltisauge.transport.utils.PacketUtil;
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Measures the latency of a message that a {@link NetworkClient} sends to a {@link NetworkServer} over the loopback interface and receives back.<br>
+ * The server and the client run in the same JVM. The client subscribes the channel it sends to and sets {@link Message#setReceiveSelf(boolean)},
+ * so the measured time is the encoding and decoding on both sides, the routing of the server and two socket hops.
+ *
+ * @author Daniel Ziegler
+ *
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = { "-Xms2g", "-Xmx2g", "-XX:+AlwaysPreTouch", "-Dio.netty.leakDetectionLevel=disabled" })
+@State(Scope.Benchmark)
+public class RoundTripBenchmark {
+
+	private static final String CHANNEL = "benchmark.round-trip";
+
+	@Param({ "64", "4096" })
+	private int payloadSize;
+
+	@Param({ "false", "true" })
+	private boolean batchWrites;
+
+	private final BlockingQueue<RoundTripMessage> received = new LinkedBlockingQueue<>();
+	private NetworkServer server;
+	private NetworkClient client;
+	private RoundTripMessage message;
+
+	@Setup
+	public void setup() throws Exception {
+		BenchmarkSupport.initLogger();
+		final int port;
+		try (ServerSocket socket = new ServerSocket(0)) {
+			port = socket.getLocalPort();
+		}
+		final InetSocketAddress address = new InetSocketAddress("127.0.0.1", port);
+		final SubscriptionManager subscriptionManager = new SubscriptionManager();
+		server = new NetworkServer(new ServerNetworkManager(subscriptionManager), subscriptionManager, address);
+		server.getConfig().setBatchWrites(batchWrites);
+		server.initialize();
+		if (!server.start(false)) {
+			throw new IllegalStateException("Could not start the NetworkServer on " + address);
+		}
+		client = new NetworkClient(new ClientNetworkManager(), address);
+		client.getConfig().setBatchWrites(batchWrites);
+		client.getConfig().setReconnect(false);
+		client.initialize();
+		final ClientNetworkManager networkManager = client.getNetworkManager();
+		networkManager.registerCodec(RoundTripMessage.class, RoundTripMessage.CODEC);
+		networkManager.registerEvent(RoundTripMessage.class, new IMessageEvent<RoundTripMessage>() {
+
+			@Override
+			public void onReceived(RoundTripMessage message) {
+				received.offer(message);
+			}
+		});
+		if (!client.start(false)) {
+			throw new IllegalStateException("Could not connect the NetworkClient to " + address);
+		}
+		// The session of the client is set once the channel is active, which can be after the connect has completed.
+		while (!client.isConnected()) {
+			Thread.sleep(1);
+		}
+		networkManager.addSubscriptions(CHANNEL);
+		message = new RoundTripMessage(new byte[payloadSize]);
+		message.setReceiveSelf(true);
+		message.addChannels(CHANNEL);
+		// The subscription is handled asynchronously, so wait until the first message comes back.
+		while (true) {
+			client.sendAsync(message).syncUninterruptibly();
+			if (received.poll(100, TimeUnit.MILLISECONDS) != null) {
+				break;
+			}
+		}
+		Thread.sleep(100);
+		received.clear();
+	}
+
+	@TearDown
+	public void tearDown() {
+		client.shutdown();
+		server.shutdown();
+		received.clear();
+	}
+
+	@Benchmark
+	public int roundTrip() throws InterruptedException {
+		client.sendAsync(message);
+		return received.take().getPayload().length;
+	}
+
+	/**
+	 * The message of the benchmark, which carries an opaque payload.
+	 */
+	public static class RoundTripMessage extends Message {
+
+		private final byte[] payload;
+
+		public RoundTripMessage(byte[] payload) {
+			this.payload = payload;
+		}
+
+		public byte[] getPayload() {
+			return payload;
+		}
+
+		public static final IMessageCodec<RoundTripMessage> CODEC = new IMessageCodec<RoundTripMessage>() {
+
+			@Override
+			public void write(ByteBuf byteBuf, RoundTripMessage obj) {
+				PacketUtil.writeVarInt(byteBuf, obj.getPayload().length);
+				byteBuf.writeBytes(obj.getPayload());
+			}
+
+			@Override
+			public RoundTripMessage read(ByteBuf byteBuf) {
+				final byte[] payload = new byte[PacketUtil.readVarInt(byteBuf)];
+				byteBuf.readBytes(payload);
+				return new RoundTripMessage(payload);
+			}
+		};
+	}
+}
@@ -7,6 +7,9 @@ import de.iltisauge.transport.network.NetworkManager;
 import de.iltisauge.transport.server.NetworkServer;
 
 /**
+ * This class contains the default client, server, {@link NetworkManager} and {@link Logger} of the JVM.<br>
+ * The devices themselves do not depend on these fields, every device uses its own {@link TransportContext}.
+ * They are the default for code that has no device at hand, such as {@link de.iltisauge.transport.network.Message#send(String...)}.
  * 
  * @author Daniel Ziegler
  *
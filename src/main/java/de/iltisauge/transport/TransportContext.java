@@ -0,0 +1,73 @@
+package de.iltisauge.transport;
+
+import de.iltisauge.transport.network.NetworkConfig;
+import de.iltisauge.transport.network.NetworkDevice;
+import de.iltisauge.transport.network.NetworkManager;
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * This class is the runtime of a single {@link NetworkDevice}. Every device owns its own context, see {@link NetworkDevice#getContext()}.<br>
+ * The context is bound to every channel of the device by the {@link #CONTEXT} attribute, so the pipeline and the sessions use the {@link NetworkManager}
+ * of the device that owns the channel instead of the static one of {@link Transport}. That way several servers and clients can run in the same JVM.<br>
+ * The static fields of {@link Transport} remain the default for code that has neither a device nor a channel at hand.
+ *
+ * @author Daniel Ziegler
+ *
+ */
+@RequiredArgsConstructor
+@Getter
+public class TransportContext {
+
+	/**
+	 * The attribute that refers to the {@link TransportContext} of the device that owns a channel.
+	 */
+	public static final AttributeKey<TransportContext> CONTEXT = AttributeKey.valueOf("transport-context");
+
+	private final NetworkDevice device;
+
+	/**
+	 *
+	 * @return the {@link NetworkManager} of the device.
+	 */
+	public NetworkManager getNetworkManager() {
+		return device.getNetworkManager();
+	}
+
+	/**
+	 *
+	 * @return the {@link NetworkConfig} of the device.
+	 */
+	public NetworkConfig getConfig() {
+		return device.getConfig();
+	}
+
+	/**
+	 * Binds the context to a new channel of the device.
+	 * @param channel
+	 */
+	public void bind(Channel channel) {
+		channel.attr(CONTEXT).set(this);
+	}
+
+	/**
+	 *
+	 * @param channel
+	 * @return the {@link TransportContext} that the channel has been bound to, or null.
+	 */
+	public static TransportContext of(Channel channel) {
+		return channel.attr(CONTEXT).get();
+	}
+
+	/**
+	 *
+	 * @param channel
+	 * @return the {@link NetworkManager} of the device that owns the channel, or {@link Transport#getNetworkManager()} if the channel has not been bound to a context.
+	 */
+	public static NetworkManager getNetworkManager(Channel channel) {
+		final TransportContext context = of(channel);
+		return context == null ? Transport.getNetworkManager() : context.getNetworkManager();
+	}
+}
@@ -2,17 +2,34 @@ package de.iltisauge.transport.client;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.logging.Level;
 
+import de.iltisauge.transport.Transport;
+import de.iltisauge.transport.messages.CodecHandshakeMessage;
 import de.iltisauge.transport.messages.HandleSubscriptionsMessage;
 import de.iltisauge.transport.messages.HandleSubscriptionsMessage.HandleSubscriptionType;
+import de.iltisauge.transport.messages.ReplaySubscriptionMessage;
+import de.iltisauge.transport.network.ChannelPattern;
+import de.iltisauge.transport.network.CompressionAlgorithm;
+import de.iltisauge.transport.network.IMessage;
+import de.iltisauge.transport.network.IMessageCodec;
+import de.iltisauge.transport.network.ISession;
+import de.iltisauge.transport.network.NetworkConfig;
 import de.iltisauge.transport.network.NetworkManager;
+import de.iltisauge.transport.network.Sendable;
+import lombok.AllArgsConstructor;
+import lombok.Setter;
 
 /**
  * This class extends {@link NetworkManager} and contains channel subscription management.<br>
- * The subscription cache is accessed in a thread-safe manner.
+ * The subscription cache is accessed in a thread-safe manner.<br>
+ * Durable channels that have been subscribed with a replay are kept apart from the other subscriptions, together with the offset behind the last message that has been received on them.
+ * After a reconnect they are replayed from there, so no message that has been sent while the client was disconnected is missed.
  * 
  * @author Daniel Ziegler
  *
@@ -20,51 +37,239 @@ import de.iltisauge.transport.network.NetworkManager;
 public class ClientNetworkManager extends NetworkManager {
 
 	private final Set<String> subscriptions = new HashSet<>();
+	/**
+	 * The durable subscriptions mapped to the position their replay continues from. It is guarded by the lock of {@link #subscriptions}.
+	 */
+	private final Map<String, ReplayPosition> durableSubscriptions = new HashMap<>();
+	/**
+	 * The client that this network manager belongs to. It is set by {@link NetworkClient#initialize()}.
+	 */
+	@Setter
+	private NetworkClient client;
+	
+	/**
+	 * Registers the {@link IMessageCodec} and asks the server for a codec id if the client is already connected.
+	 */
+	@Override
+	public void registerCodec(Class<?> clazz, IMessageCodec<?> codec) {
+		super.registerCodec(clazz, codec);
+		final NetworkClient client = this.client;
+		if (client != null && client.isConnected() && getCodecId(clazz) == CODEC_ID_BY_NAME) {
+			final CodecHandshakeMessage handshake = new CodecHandshakeMessage(clazz.getName());
+			client.sendAsync(handshake, CodecHandshakeMessage.CHANNEL);
+		}
+	}
+	
+	/**
+	 * Sends a {@link CodecHandshakeMessage} containing all registered codecs through the given session.<br>
+	 * This is the first message a client sends after the connection has been established.
+	 * It also offers the given compression algorithms to the server.
+	 * @param session
+	 * @param compressionAlgorithms the algorithms of the client, see {@link NetworkConfig#getCompressionAlgorithms()}.
+	 */
+	public void sendCodecHandshake(ISession session, CompressionAlgorithm[] compressionAlgorithms) {
+		final CodecHandshakeMessage handshake = createCodecHandshake();
+		final String[] names = new String[compressionAlgorithms.length];
+		for (int i = 0; i < names.length; i++) {
+			names[i] = compressionAlgorithms[i].name();
+		}
+		handshake.setCompressionAlgorithms(names);
+		handshake.addChannels(CodecHandshakeMessage.CHANNEL);
+		session.sendAsync(handshake);
+	}
+	
+	/**
+	 * Uses the compression algorithm that the server has chosen in its answer to {@link #sendCodecHandshake(ISession, CompressionAlgorithm[])}.
+	 * @param message
+	 * @param compressionAlgorithms the algorithms of the client, see {@link NetworkConfig#getCompressionAlgorithms()}.
+	 */
+	public void bindCompression(CodecHandshakeMessage message, CompressionAlgorithm[] compressionAlgorithms) {
+		if (message.getCompressionAlgorithms().length == 0) {
+			return;
+		}
+		final CompressionAlgorithm compression = CompressionAlgorithm.choose(compressionAlgorithms, message.getCompressionAlgorithms());
+		message.getFrom().getChannel().attr(CompressionAlgorithm.NEGOTIATED).set(compression);
+		Transport.getLogger().log(Level.INFO, "Compressing payloads with " + (compression == null ? "no algorithm" : compression));
+	}
+
+	/**
+	 * Removes the channel ids and the codec ids that have been assigned by the server, because they are only valid for the server that has assigned them.
+	 * A restarted server may assign them differently, so they are written by name until the server has assigned them again.
+	 */
+	@Override
+	public void onSessionInactive(ISession session) {
+		getChannelRegistry().clear();
+		clearDynamicCodecIds();
+	}
+
+	/**
+	 * Subscribes all current channels again in a single {@link HandleSubscriptionsMessage}, after the client has reconnected.<br>
+	 * Durable subscriptions are sent as {@link ReplaySubscriptionMessage}s that continue behind the last message that has been received on them.
+	 * @param session
+	 */
+	public void resendSubscriptions(ISession session) {
+		final String[] channels;
+		final List<ReplaySubscriptionMessage> replays = new ArrayList<>();
+		synchronized (subscriptions) {
+			channels = subscriptions.toArray(new String[subscriptions.size()]);
+			for (Map.Entry<String, ReplayPosition> entry : durableSubscriptions.entrySet()) {
+				final ReplayPosition position = entry.getValue();
+				replays.add(new ReplaySubscriptionMessage(entry.getKey(), position.offset, position.timestampMillis));
+			}
+		}
+		if (channels.length > 0) {
+			final HandleSubscriptionsMessage packet = new HandleSubscriptionsMessage(HandleSubscriptionType.ADD, channels);
+			packet.addChannels("handle-subscriptions");
+			session.sendAsync(packet);
+		}
+		for (ReplaySubscriptionMessage replay : replays) {
+			replay.addChannels(ReplaySubscriptionMessage.CHANNEL);
+			session.sendAsync(replay);
+		}
+	}
+
+	/**
+	 * Remembers the offset of a received message, so the durable subscription of its channel continues behind it after a reconnect.<br>
+	 * A message only carries the offset of its first durable channel, so the offset is attributed to the first of its channels that has a durable subscription.
+	 * @param message a message with an offset, after its {@link de.iltisauge.transport.network.IMessageEvent}s have been called.
+	 */
+	public void onOffsetReceived(Sendable message) {
+		synchronized (subscriptions) {
+			if (durableSubscriptions.isEmpty()) {
+				return;
+			}
+			for (String channel : message.getChannels()) {
+				final ReplayPosition position = durableSubscriptions.get(channel);
+				if (position != null) {
+					// Messages that are sent while a replay catches up may be received twice and out of order
+					position.offset = Math.max(position.offset, message.getOffset() + 1);
+					return;
+				}
+			}
+		}
+	}
 	
 	/**
 	 * 
 	 * @param channel
-	 * @return true if the {@link NetworkClient} is subscribed to the given channel, otherwise false. 
+	 * @return true if the {@link NetworkClient} is subscribed to the given channel or a pattern that matches it, otherwise false. 
 	 */
 	public boolean isSubscribed(String channel) {
 		synchronized (subscriptions) {
-			return subscriptions.contains(channel);
+			if (subscriptions.contains(channel) || durableSubscriptions.containsKey(channel)) {
+				return true;
+			}
+			for (String subscription : subscriptions) {
+				if (ChannelPattern.isPattern(subscription) && ChannelPattern.matches(subscription, channel)) {
+					return true;
+				}
+			}
+			return false;
 		}
 	}
 	
 	/**
 	 * 
-	 * @return a {@link ArrayList} containing all current channel subscriptions.
+	 * @return a {@link ArrayList} containing all current channel subscriptions, including the durable ones.
 	 */
 	public List<String> getSubscriptions() {
 		synchronized (subscriptions) {
-			return new ArrayList<>(subscriptions);
+			final List<String> channels = new ArrayList<>(subscriptions);
+			channels.addAll(durableSubscriptions.keySet());
+			return channels;
 		}
 	}
 	
 	/**
 	 * Sends a {@link HandleSubscriptionsMessage} message to the server to subscribe the given channels.<br>
-	 * The message will be sent through the <code>handle-subscriptions</code> channel.
+	 * The message will be sent through the <code>handle-subscriptions</code> channel.<br>
+	 * A channel can also be a pattern such as <code>match.*.score</code> or <code>match.&gt;</code>, see {@link ChannelPattern}.
 	 * @param channels
+	 * @throws IllegalArgumentException if a pattern is invalid.
 	 */
 	public void addSubscriptions(String... channels) {
+		for (String channel : channels) {
+			if (!ChannelPattern.isValid(channel)) {
+				throw new IllegalArgumentException("Invalid channel pattern " + channel);
+			}
+		}
 		synchronized (subscriptions) {
 			subscriptions.addAll(Arrays.asList(channels));
+			durableSubscriptions.keySet().removeAll(Arrays.asList(channels));
 		}
 		final HandleSubscriptionsMessage packet = new HandleSubscriptionsMessage(HandleSubscriptionType.ADD, channels);
-		packet.send("handle-subscriptions");
+		send(packet, "handle-subscriptions");
 	}
 	
 	/**
-	 * Sends a {@link HandleSubscriptionsMessage} message to the server to subscribe the given channels.<br>
+	 * Subscribes a durable channel and lets the server replay its messages from the given offset on.<br>
+	 * Replayed messages carry their offset, see {@link Sendable#getOffset()}, so the next subscription can continue behind the last one that has been received.
+	 * A message that is sent while the replay catches up may be received twice.
+	 * @param channel a channel that is not a pattern.
+	 * @param offset
+	 * @throws IllegalArgumentException if the offset is negative or the channel is a pattern.
+	 */
+	public void addSubscriptionFromOffset(String channel, long offset) {
+		if (offset < 0) {
+			throw new IllegalArgumentException("Invalid offset " + offset);
+		}
+		addReplaySubscription(channel, offset, 0);
+	}
+
+	/**
+	 * Subscribes a durable channel and lets the server replay its messages that have been sent at or after the given time.
+	 * @param channel a channel that is not a pattern.
+	 * @param timestampMillis
+	 * @see #addSubscriptionFromOffset(String, long)
+	 */
+	public void addSubscriptionFromTimestamp(String channel, long timestampMillis) {
+		addReplaySubscription(channel, Sendable.NO_OFFSET, timestampMillis);
+	}
+
+	private void addReplaySubscription(String channel, long offset, long timestampMillis) {
+		if (ChannelPattern.isPattern(channel)) {
+			throw new IllegalArgumentException("Channel patterns cannot be replayed: " + channel);
+		}
+		synchronized (subscriptions) {
+			subscriptions.remove(channel);
+			durableSubscriptions.put(channel, new ReplayPosition(offset, timestampMillis));
+		}
+		final ReplaySubscriptionMessage packet = new ReplaySubscriptionMessage(channel, offset, timestampMillis);
+		send(packet, ReplaySubscriptionMessage.CHANNEL);
+	}
+
+	/**
+	 * Sends a {@link HandleSubscriptionsMessage} message to the server to unsubscribe the given channels.<br>
 	 * The message will be sent through the <code>handle-subscriptions</code> channel.
 	 * @param channels
 	 */
 	public void removeSubscriptions(String... channels) {
 		synchronized (subscriptions) {
 			subscriptions.removeAll(Arrays.asList(channels));
+			durableSubscriptions.keySet().removeAll(Arrays.asList(channels));
 		}
 		final HandleSubscriptionsMessage packet = new HandleSubscriptionsMessage(HandleSubscriptionType.REMOVE, channels);
-		packet.send("handle-subscriptions");
+		send(packet, "handle-subscriptions");
+	}
+
+	/*
+	 * Subscriptions are sent by the client of this network manager, or by the default client if it has not been initialized yet.
+	 */
+	private void send(IMessage message, String channel) {
+		if (client != null) {
+			client.send(message, channel);
+		} else {
+			message.send(channel);
+		}
+	}
+
+	/**
+	 * The position a durable subscription is replayed from. The time is only used until the first message has been received.
+	 */
+	@AllArgsConstructor
+	private static final class ReplayPosition {
+
+		private long offset;
+		private long timestampMillis;
 	}
 }
@@ -7,26 +7,38 @@ import java.net.ConnectException;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.util.Arrays;
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.*;
 import java.util.stream.Collectors;
 
 import de.iltisauge.transport.Transport;
+import de.iltisauge.transport.messages.ChannelIdsMessage;
+import de.iltisauge.transport.messages.CodecHandshakeMessage;
+import de.iltisauge.transport.messages.SessionIdMessage;
 import de.iltisauge.transport.messages.TextMessage;
 import de.iltisauge.transport.network.*;
 import de.iltisauge.transport.server.NetworkServer;
 import de.iltisauge.transport.utils.ConsoleLoggingFormatter;
 import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelOption;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.channel.EventLoopGroup;
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.GenericFutureListener;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import io.netty.util.concurrent.Promise;
+import io.netty.util.ResourceLeakDetector;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 
 /**
  * This class represents a {@link NetworkClient} and extends {@link NetworkDevice}.
- * It connects to the {@link NetworkServer} to allow communication between the server and other {@link NetworkClient}s.
+ * It connects to the {@link NetworkServer} to allow communication between the server and other {@link NetworkClient}s.<br>
+ * If the connection is lost, the client reconnects after a random delay that grows with every failed attempt, see {@link NetworkConfig#isReconnect()}.
+ * Once it has reconnected, it subscribes all of its channels again in a single message. Messages that are sent in the meantime are kept in an {@link OutboundBuffer}.
  * 
  * @author Daniel Ziegler
  *
@@ -48,6 +60,14 @@ public class NetworkClient extends NetworkDevice {
 		final Integer port = Integer.valueOf(System.getProperty("server-port", "8917"));
 		final NetworkClient client = new NetworkClient(new ClientNetworkManager(), new InetSocketAddress(address, port));
 		Transport.setClient(client);
+		client.getConfig().setBatchWrites(Boolean.getBoolean("batch-writes"));
+		client.getConfig().setCompressionAlgorithms(CompressionAlgorithm.parse(System.getProperty("compression", "")));
+		client.getConfig().setTransportType(TransportType.valueOf(System.getProperty("transport-type", "AUTO")));
+		client.getConfig().setDispatchThreads(Integer.getInteger("dispatch-threads", 0));
+		client.getConfig().setVirtualThreadDispatch(Boolean.getBoolean("virtual-thread-dispatch"));
+		if (System.getProperty("leak-detection") != null) {
+			client.getConfig().setLeakDetectionLevel(ResourceLeakDetector.Level.valueOf(System.getProperty("leak-detection")));
+		}
 		client.initialize();
 		if (!client.start(true)) {
 			logger.log(Level.SEVERE, "Could not start NetworkClient.");
@@ -61,6 +81,13 @@ public class NetworkClient extends NetworkDevice {
 				while ((line = reader.readLine()) != null) {
 					if (line.startsWith("stop")) {
 						System.exit(0);
+					} else if (line.startsWith("metrics")) {
+						logger.log(Level.INFO, client.getMetrics().toString());
+					} else if (line.startsWith("session")) {
+						logger.log(Level.INFO, "Session id: " + client.getSessionId());
+					} else if (line.startsWith("to ") && line.indexOf(' ', 3) > 0) {
+						final int separator = line.indexOf(' ', 3);
+						client.sendTo(Integer.parseInt(line.substring(3, separator)), new TextMessage(line.substring(separator + 1)));
 					} else {
 						final TextMessage textMessage = new TextMessage(line);
 						textMessage.setReceiveSelf(true);
@@ -79,24 +106,55 @@ public class NetworkClient extends NetworkDevice {
 	 * Represents the address of the server that the client tires to connect to.
 	 */
 	private final SocketAddress address;
-	private NioEventLoopGroup eventLoopGroup = null;
+	private EventLoopGroup eventLoopGroup = null;
 	private Bootstrap bootstrap = null;
-	private boolean isRunning;
-	private ISession session;
+	private volatile boolean isRunning;
+	private volatile ISession session;
+	/**
+	 * The id that the server has assigned to the current session, or {@link Sendable#NO_SESSION_ID} until the server has told it, see {@link SessionIdMessage}.<br>
+	 * The server assigns a new id whenever the client reconnects.
+	 */
+	private volatile int sessionId = Sendable.NO_SESSION_ID;
+	/**
+	 * The messages that have been sent while the client is not connected, see {@link #onSessionActive(ISession)}.
+	 */
+	private OutboundBuffer outboundBuffer = null;
+	/**
+	 * The amount of attempts to reconnect since the server has last answered the codec handshake.
+	 */
+	private volatile int reconnectAttempts;
+	/**
+	 * The requests that wait for their reply, see {@link #request(IMessage, String, long, TimeUnit)}.
+	 */
+	@Getter
+	private final PendingRequests pendingRequests = new PendingRequests(getTimer());
 	
 	/**
 	 * Initializes the NetworkClient.<br>
-	 * This method also registers the default message codecs. See {@link NetworkManager#registerDefaultCodecs()}.
+	 * This method also registers the default message codecs and the generated codecs. See {@link NetworkManager#registerDefaultCodecs()} and {@link NetworkManager#registerGeneratedCodecs()}.
 	 */
 	@Override
 	public void initialize() {
-		Transport.setNetworkManager(networkManager);
+		// The first device of the JVM provides the default network manager, it is not replaced by the devices that follow
+		if (Transport.getNetworkManager() == null) {
+			Transport.setNetworkManager(networkManager);
+		}
+		networkManager.setClient(this);
 		networkManager.registerDefaultCodecs();
-		eventLoopGroup = new NioEventLoopGroup();
+		final NetworkConfig config = getConfig();
+		if (config.isRegisterGeneratedCodecs()) {
+			networkManager.registerGeneratedCodecs();
+		}
+		getMetrics().setMaxKeys(config.getMaxMetricKeys());
+		outboundBuffer = new OutboundBuffer(config, config.isRecordMetrics() ? getMetrics() : null);
+		initializeDispatcher();
+		final TransportType transportType = config.getTransportType().resolve();
+		eventLoopGroup = transportType.newEventLoopGroup(config.getWorkerThreads(), config.getIoRatio());
 		bootstrap = new Bootstrap();
 		bootstrap.group(eventLoopGroup);
-		bootstrap.channel(NioSocketChannel.class);
+		bootstrap.channel(transportType.getSocketChannelClass());
 		bootstrap.option(ChannelOption.TCP_NODELAY, true).option(ChannelOption.SO_KEEPALIVE, true);
+		bootstrap.option(ChannelOption.ALLOCATOR, initializeAllocator());
 		final ChannelInitializer channelInitializer = new ChannelInitializer(this);
 		bootstrap.handler(channelInitializer);
 	}
@@ -167,6 +225,39 @@ public class NetworkClient extends NetworkDevice {
 		});
 	}
 	
+	/**
+	 * Binds the codec ids and the compression of a {@link CodecHandshakeMessage}, the channel ids of a {@link ChannelIdsMessage}
+	 * and the session id of a {@link SessionIdMessage}, which the following frames of the server are decoded with.
+	 * Channel ids that the server has released are unbound and sent back to the server.
+	 */
+	@Override
+	public void applyBindings(Sendable object) {
+		if (object instanceof CodecHandshakeMessage) {
+			final CodecHandshakeMessage message = (CodecHandshakeMessage) object;
+			reconnectAttempts = 0;
+			networkManager.bindCodecIds(message);
+			networkManager.bindCompression(message, getConfig().getCompressionAlgorithms());
+		} else if (object instanceof ChannelIdsMessage) {
+			final ChannelIdsMessage message = (ChannelIdsMessage) object;
+			networkManager.getChannelRegistry().bind(message);
+			if (message.getReleasedIds().length > 0) {
+				// The server only assigns the released ids again once it knows that the following frames of this client do not use them
+				final ChannelIdsMessage answer = new ChannelIdsMessage(new String[0], new int[0]);
+				answer.setReleasedIds(message.getReleasedIds());
+				answer.addChannels(ChannelIdsMessage.CHANNEL);
+				message.getFrom().sendAsync(answer);
+			}
+		} else if (object instanceof SessionIdMessage) {
+			final SessionIdMessage message = (SessionIdMessage) object;
+			if (message.getFrom().equals(session)) {
+				sessionId = message.getSessionId();
+			}
+			if (isLogTraffic()) {
+				Transport.getLogger().log(Level.INFO, "The NetworkServer has assigned the session id " + message.getSessionId());
+			}
+		}
+	}
+	
 	/**
 	 * This method is called when the client has established a connection to the server.
 	 */
@@ -192,25 +283,196 @@ public class NetworkClient extends NetworkDevice {
 		this.session = session;
 	}
 
+	/**
+	 * This method is called when the connection to the server has been established.<br>
+	 * It sends the codec handshake, subscribes all channels of the {@link ClientNetworkManager} again and sends the buffered messages, in this order.
+	 * The session is set while the {@link OutboundBuffer} is locked, so no message can overtake the buffered ones.
+	 * @param session
+	 */
+	public void onSessionActive(ISession session) {
+		networkManager.sendCodecHandshake(session, getConfig().getCompressionAlgorithms());
+		networkManager.resendSubscriptions(session);
+		synchronized (outboundBuffer) {
+			outboundBuffer.flush(session);
+			this.session = session;
+		}
+	}
+
+	/**
+	 * This method is called when the connection to the server has been lost.<br>
+	 * The pending requests fail, because the server cannot route their replies to the new connection.
+	 * The client reconnects unless it has been shut down or {@link NetworkConfig#isReconnect()} is disabled.
+	 * @param session
+	 */
+	public void onSessionInactive(ISession session) {
+		this.session = null;
+		sessionId = Sendable.NO_SESSION_ID;
+		pendingRequests.failAll(new ClosedChannelException());
+		if (isReconnecting()) {
+			scheduleReconnect();
+		} else {
+			outboundBuffer.failAll(new ClosedChannelException());
+		}
+	}
+
+	/**
+	 * 
+	 * @return true, if messages are buffered while the client is not connected.
+	 */
+	private boolean isReconnecting() {
+		return isRunning && getConfig().isReconnect();
+	}
+
+	private void scheduleReconnect() {
+		final long delay = getReconnectDelay(reconnectAttempts++);
+		if (isLogTraffic()) {
+			Transport.getLogger().log(Level.INFO, "Reconnecting to NetworkServer on " + address.toString() + " in " + delay + " ms");
+		}
+		getTimer().newTimeout(timeout -> reconnect(), delay, TimeUnit.MILLISECONDS);
+	}
+
+	/*
+	 * The delay is chosen at random below a limit that doubles with every attempt, which spreads the reconnects of many clients evenly.
+	 */
+	private long getReconnectDelay(int attempt) {
+		final NetworkConfig config = getConfig();
+		final long limit = Math.min(config.getReconnectMaxDelayMillis(), config.getReconnectInitialDelayMillis() << Math.min(attempt, 30));
+		return ThreadLocalRandom.current().nextLong(Math.max(limit, 1));
+	}
+
+	private void reconnect() {
+		if (!isReconnecting()) {
+			return;
+		}
+		try {
+			bootstrap.connect(address).addListener((ChannelFutureListener) future -> {
+				if (future.isSuccess()) {
+					getMetrics().getReconnects().increment();
+					Transport.getLogger().log(Level.INFO, "Reconnected to NetworkServer on " + address.toString());
+				} else if (isReconnecting()) {
+					if (reconnectAttempts == 1) {
+						Transport.getLogger().log(Level.WARNING, "Could not reconnect to NetworkServer on " + address.toString() + ", retrying: " + future.cause().getMessage());
+					}
+					scheduleReconnect();
+				}
+			});
+		} catch (RuntimeException exception) {
+			// The event loops are shutting down
+		}
+	}
+
+	/**
+	 * Sends the message through the current session or buffers it while the client reconnects.
+	 * @param message
+	 * @return the {@link Future} of the write, which fails if the client is neither connected nor reconnecting.
+	 */
+	private Future<Void> sendOrBuffer(IMessage message) {
+		ISession session = this.session;
+		if (session == null) {
+			synchronized (outboundBuffer) {
+				session = this.session;
+				if (session == null) {
+					if (!isReconnecting()) {
+						return ImmediateEventExecutor.INSTANCE.newFailedFuture(new IllegalStateException("The NetworkClient is not connected"));
+					}
+					return outboundBuffer.add(message);
+				}
+			}
+		}
+		return session.sendAsync(message);
+	}
+
 	/**
 	 * Sends a {@link IMessage} to all given channels.<br>
+	 * While the client reconnects, the message is buffered and this method returns without waiting.<br>
 	 * <b>You do not need to add the channels to the message object!</b>
 	 * @param message
 	 * @param channels
-	 * @return true, if the message has been sent successfully, otherwise false.
+	 * @return true, if the message has been sent successfully or buffered, otherwise false.
 	 */
 	public boolean send(IMessage message, String... channels) {
 		message.addChannels(channels);
+		final ISession session = this.session;
+		if (session == null) {
+			final Future<Void> future = sendOrBuffer(message);
+			return !future.isDone() || future.isSuccess();
+		}
 		return session.send(message);
 	}
 	
 	/**
-	 * Shuts down the {@link NioEventLoopGroup} and calls {@link #onShutdown()}.
+	 * Sends a {@link IMessage} to all given channels without blocking the caller.<br>
+	 * While the client reconnects, the message is buffered until it can be sent.<br>
+	 * <b>You do not need to add the channels to the message object!</b>
+	 * @param message
+	 * @param channels
+	 * @return a {@link Future} that is completed when the message has been written.
+	 */
+	public Future<Void> sendAsync(IMessage message, String... channels) {
+		message.addChannels(channels);
+		return sendOrBuffer(message);
+	}
+	
+	/**
+	 * Sends a {@link IMessage} straight to the session with the given id on the server, without blocking the caller.<br>
+	 * The server looks the session up by its id and does not send the message to any channel. The receiver can answer with another direct message
+	 * to {@link Sendable#getSourceSessionId()}. The client learns the id of its own session from the server, see {@link #getSessionId()}.<br>
+	 * A message to a session that is not connected is dropped by the server.
+	 * While the client reconnects, the message is buffered until it can be sent.
+	 * @param sessionId
+	 * @param message
+	 * @return a {@link Future} that is completed when the message has been written to the server.
+	 */
+	public Future<Void> sendTo(int sessionId, IMessage message) {
+		if (sessionId <= Sendable.NO_SESSION_ID) {
+			throw new IllegalArgumentException("Invalid session id " + sessionId);
+		}
+		message.setTargetSessionId(sessionId);
+		return sendOrBuffer(message);
+	}
+	
+	/**
+	 * Sends a request to the given channel without blocking the caller and waits for the first reply.<br>
+	 * The client that receives the request answers it with {@link Sendable#reply(IMessage)} from within an {@link IMessageEvent}.
+	 * <b>You do not need to add the channel to the message object!</b>
+	 * @param message
+	 * @param channel
+	 * @param timeout
+	 * @param unit
+	 * @return a {@link Future} that is completed with the reply. It fails with a {@link TimeoutException} if there is no reply in time
+	 * or with the cause why the request could not be sent. A request that is buffered while the client reconnects keeps its timeout.
+	 */
+	public <R extends IMessage> Future<R> request(IMessage message, String channel, long timeout, TimeUnit unit) {
+		message.addChannels(channel);
+		if (session == null && !isReconnecting()) {
+			return ImmediateEventExecutor.INSTANCE.newFailedFuture(new IllegalStateException("The NetworkClient is not connected"));
+		}
+		final Promise<R> promise = pendingRequests.register(message, timeout, unit);
+		final long correlationId = message.getCorrelationId();
+		sendOrBuffer(message).addListener(future -> {
+			if (!future.isSuccess()) {
+				pendingRequests.fail(correlationId, future.cause());
+			}
+		});
+		return promise;
+	}
+
+	/**
+	 * @see #request(IMessage, String, long, TimeUnit)
+	 */
+	public <R extends IMessage> Future<R> request(IMessage message, String channel, long timeoutMillis) {
+		return request(message, channel, timeoutMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Shuts down the {@link EventLoopGroup} and calls {@link #onShutdown()}.
 	 */
 	@Override
 	public void shutdown() {
-		eventLoopGroup.shutdownGracefully();
 		isRunning = false;
+		eventLoopGroup.shutdownGracefully();
+		shutdownDispatcher();
+		outboundBuffer.failAll(new ClosedChannelException());
 		onShutdown();
 	}
 	
@@ -223,7 +485,7 @@ public class NetworkClient extends NetworkDevice {
 	}
 
 	/**
-	 * Sets the {@link NioEventLoopGroup} and {@link Bootstrap} object to null.<br>
+	 * Sets the {@link EventLoopGroup} and {@link Bootstrap} object to null.<br>
 	 * Calls {@link #shutdown()} if the method was not called.
 	 */
 	@Override
@@ -231,6 +493,7 @@ public class NetworkClient extends NetworkDevice {
 		if (isRunning()) {
 			shutdown();
 		}
+		getTimer().stop();
 		eventLoopGroup = null;
 		bootstrap = null;
 	}
@@ -0,0 +1,108 @@
+package de.iltisauge.transport.client;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+
+import de.iltisauge.transport.network.IMessage;
+import de.iltisauge.transport.network.ISession;
+import de.iltisauge.transport.network.NetworkConfig;
+import de.iltisauge.transport.network.NetworkMetrics;
+import de.iltisauge.transport.network.OverflowPolicy;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import io.netty.util.concurrent.Promise;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * This class buffers the messages that are sent while a {@link NetworkClient} is not connected, so they can be sent once it has reconnected.<br>
+ * The buffer holds at most {@link NetworkConfig#getMaxBufferedMessages()} messages. If it is full, {@link NetworkConfig#getBufferOverflowPolicy()}
+ * decides whether the new or the oldest message is dropped. The future of a dropped message fails and the drop is recorded in the {@link NetworkMetrics}.<br>
+ * The buffer is guarded by its own lock. The client holds it while it replaces its session, so buffered messages are sent before any message that is sent afterwards.
+ *
+ * @author Daniel Ziegler
+ *
+ */
+@RequiredArgsConstructor
+public class OutboundBuffer {
+
+	private static final IOException DROPPED = new IOException("The message has been dropped, because the buffer of the disconnected client is full");
+
+	static {
+		DROPPED.setStackTrace(new StackTraceElement[0]);
+	}
+
+	private final NetworkConfig config;
+	private final NetworkMetrics metrics;
+	private final ArrayDeque<BufferedMessage> queue = new ArrayDeque<>();
+
+	/**
+	 * Adds the message to the buffer.
+	 * @param message
+	 * @return a {@link Future} that is completed when the message has been written after the client has reconnected.
+	 */
+	public synchronized Future<Void> add(IMessage message) {
+		final Promise<Void> promise = ImmediateEventExecutor.INSTANCE.newPromise();
+		if (queue.size() >= config.getMaxBufferedMessages()) {
+			if (config.getBufferOverflowPolicy() != OverflowPolicy.DROP_OLDEST || queue.isEmpty()) {
+				drop(promise, DROPPED);
+				return promise;
+			}
+			while (queue.size() >= config.getMaxBufferedMessages()) {
+				drop(queue.poll().promise, DROPPED);
+			}
+		}
+		queue.add(new BufferedMessage(message, promise));
+		return promise;
+	}
+
+	/**
+	 * Sends all buffered messages through the given session in the order they have been added.
+	 * @param session
+	 */
+	public synchronized void flush(ISession session) {
+		BufferedMessage bufferedMessage;
+		while ((bufferedMessage = queue.poll()) != null) {
+			final Promise<Void> promise = bufferedMessage.promise;
+			session.sendAsync(bufferedMessage.message).addListener(future -> {
+				if (future.isSuccess()) {
+					promise.trySuccess(null);
+				} else {
+					promise.tryFailure(future.cause());
+				}
+			});
+		}
+	}
+
+	/**
+	 * Removes all buffered messages and fails their futures, because the client will not reconnect anymore.
+	 * @param cause
+	 */
+	public synchronized void failAll(Throwable cause) {
+		BufferedMessage bufferedMessage;
+		while ((bufferedMessage = queue.poll()) != null) {
+			bufferedMessage.promise.tryFailure(cause);
+		}
+	}
+
+	/**
+	 *
+	 * @return the amount of buffered messages.
+	 */
+	public synchronized int size() {
+		return queue.size();
+	}
+
+	private void drop(Promise<Void> promise, IOException cause) {
+		promise.tryFailure(cause);
+		if (metrics != null) {
+			metrics.getOverflowDrops().increment();
+		}
+	}
+
+	@RequiredArgsConstructor
+	private static final class BufferedMessage {
+
+		private final IMessage message;
+		private final Promise<Void> promise;
+	}
+}
@@ -0,0 +1,123 @@
+package de.iltisauge.transport.client;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.iltisauge.transport.network.IMessage;
+import de.iltisauge.transport.network.Sendable;
+import de.iltisauge.transport.utils.CastUtil;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import io.netty.util.concurrent.Promise;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * This class contains the requests of a {@link NetworkClient} that wait for their reply.<br>
+ * Every request gets a new correlation id, which is carried back by its reply.
+ * The timeouts of all requests are scheduled on the {@link Timer} of the client, so there is no thread per request.
+ *
+ * @author Daniel Ziegler
+ *
+ */
+@RequiredArgsConstructor
+public class PendingRequests {
+
+	private final Timer timer;
+	private final AtomicLong nextCorrelationId = new AtomicLong();
+	private final Map<Long, PendingRequest> requests = new ConcurrentHashMap<>();
+
+	/**
+	 * Assigns a new correlation id to the request and waits for its reply.
+	 * @param request
+	 * @param timeout
+	 * @param unit
+	 * @return a {@link Promise} that is completed with the reply or fails with a {@link TimeoutException}.
+	 */
+	public <R extends IMessage> Promise<R> register(IMessage request, long timeout, TimeUnit unit) {
+		final long correlationId = nextCorrelationId.incrementAndGet();
+		final Promise<R> promise = ImmediateEventExecutor.INSTANCE.newPromise();
+		final PendingRequest pendingRequest = new PendingRequest(correlationId, timeout, unit, CastUtil.cast(promise));
+		request.setCorrelationId(correlationId);
+		request.setReply(false);
+		requests.put(correlationId, pendingRequest);
+		pendingRequest.timeout = timer.newTimeout(pendingRequest, timeout, unit);
+		return promise;
+	}
+
+	/**
+	 * Completes the request that the reply belongs to.
+	 * @param reply
+	 * @return true, if the request has been waiting for the reply, false if it has already been answered or timed out.
+	 */
+	public boolean complete(Sendable reply) {
+		final PendingRequest pendingRequest = requests.remove(reply.getCorrelationId());
+		if (pendingRequest == null) {
+			return false;
+		}
+		pendingRequest.cancelTimeout();
+		return pendingRequest.promise.trySuccess((IMessage) reply);
+	}
+
+	/**
+	 * Fails the request with the given correlation id, for example because it could not be sent.
+	 * @param correlationId
+	 * @param cause
+	 */
+	public void fail(long correlationId, Throwable cause) {
+		final PendingRequest pendingRequest = requests.remove(correlationId);
+		if (pendingRequest != null) {
+			pendingRequest.cancelTimeout();
+			pendingRequest.promise.tryFailure(cause);
+		}
+	}
+
+	/**
+	 * Fails all requests, because their replies cannot arrive anymore.
+	 * @param cause
+	 */
+	public void failAll(Throwable cause) {
+		for (Long correlationId : requests.keySet()) {
+			fail(correlationId, cause);
+		}
+	}
+
+	/**
+	 *
+	 * @return the amount of requests that wait for their reply.
+	 */
+	public int size() {
+		return requests.size();
+	}
+
+	@RequiredArgsConstructor
+	private final class PendingRequest implements TimerTask {
+
+		private final long correlationId;
+		private final long timeoutValue;
+		private final TimeUnit unit;
+		private final Promise<IMessage> promise;
+		/**
+		 * Null until the timeout has been scheduled, so a reply that arrives before cannot cancel it and it expires without effect.
+		 */
+		private volatile Timeout timeout;
+
+		@Override
+		public void run(Timeout timeout) {
+			if (requests.remove(correlationId, this)) {
+				promise.tryFailure(new TimeoutException("No reply to request " + correlationId + " within " + timeoutValue + " " + unit.name().toLowerCase()));
+			}
+		}
+
+		private void cancelTimeout() {
+			final Timeout timeout = this.timeout;
+			if (timeout != null) {
+				timeout.cancel();
+			}
+		}
+	}
+}
@@ -0,0 +1,37 @@
+package de.iltisauge.transport.codec;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Annotate a field of a class with {@link GenerateCodec} with this to change how it is written by the generated codec.
+ *
+ * @author Daniel Ziegler
+ *
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.FIELD)
+public @interface CodecField {
+
+	/**
+	 * The position of the field in the encoding. Fields with a lower order are written first,
+	 * fields with the same order are written in the order they are declared.
+	 */
+	int order() default Integer.MAX_VALUE;
+
+	/**
+	 * How the <code>int</code> and <code>long</code> values of the field are written. It applies to the elements of arrays and collections as well.
+	 */
+	IntEncoding encoding() default IntEncoding.VARINT;
+
+	/**
+	 * Whether the field may be null. If not, the generated codec throws a <code>NullPointerException</code> when it writes null
+	 * and a <code>CorruptedFrameException</code> when it reads null, so the message never has to be checked afterwards.
+	 * It applies to the elements of arrays and collections as well. The encoding is the same either way.
+	 */
+	boolean nullable() default true;
+}
@@ -0,0 +1,34 @@
+package de.iltisauge.transport.codec;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import de.iltisauge.transport.network.IMessageCodec;
+import de.iltisauge.transport.network.NetworkManager;
+
+/**
+ * Annotate a {@link de.iltisauge.transport.network.Message} with this to have its {@link IMessageCodec} generated at compile time,
+ * see {@link de.iltisauge.transport.codec.processor.CodecProcessor}.<br>
+ * The codec is named after the class with the suffix <code>Codec</code>, e.g. <code>ChatMessageCodec</code> for <code>ChatMessage</code>,
+ * and its instance is kept in the static field <code>INSTANCE</code>. All instance fields that are not <code>transient</code> are written
+ * in the order of their {@link CodecField#order()}, or in the order they are declared, starting with the fields of the superclasses.<br>
+ * Other classes can be annotated as well to be used as the type of a field in a message.<br>
+ * The codecs of messages are registered by {@link NetworkManager#registerGeneratedCodecs()}.
+ *
+ * @author Daniel Ziegler
+ *
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface GenerateCodec {
+
+	/**
+	 * Set this to false to keep the codec from being registered by {@link NetworkManager#registerGeneratedCodecs()},
+	 * e.g. for a message that is registered with a fixed codec id.
+	 */
+	boolean register() default true;
+}
@@ -0,0 +1,19 @@
+package de.iltisauge.transport.codec;
+
+import de.iltisauge.transport.network.IMessageCodec;
+
+/**
+ * This interface is implemented by the codecs that are generated for classes with {@link GenerateCodec}.
+ *
+ * @author Daniel Ziegler
+ *
+ * @param <T>
+ */
+public interface GeneratedCodec<T> extends IMessageCodec<T> {
+
+	/**
+	 *
+	 * @return the class that is written and read by the codec.
+	 */
+	Class<T> getType();
+}
@@ -0,0 +1,114 @@
+package de.iltisauge.transport.codec;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.logging.Level;
+
+import de.iltisauge.transport.Transport;
+import de.iltisauge.transport.utils.PacketUtil;
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.CorruptedFrameException;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+/**
+ * This class contains the methods that generated codecs are written with, in addition to {@link PacketUtil}, and finds the generated codecs at runtime.<br>
+ * Arrays, collections and maps are written as their size plus one and enums as their ordinal plus one, so null is written as 0 and does not take an extra byte.
+ * Every count is checked against the readable bytes, so a broken count can never cause a bigger allocation than the frame itself.
+ *
+ * @author Daniel Ziegler
+ *
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public final class GeneratedCodecs {
+
+	/**
+	 * Writes the size of an array, collection or map that may be null.
+	 * @param byteBuf
+	 * @param count the size, or -1 if the value is null.
+	 */
+	public static void writeCount(ByteBuf byteBuf, int count) {
+		PacketUtil.writeVarInt(byteBuf, count + 1);
+	}
+
+	/**
+	 * Reads a size that was written by {@link #writeCount(ByteBuf, int)}.
+	 * @param byteBuf
+	 * @param elementSize the minimum amount of bytes of every element.
+	 * @return the size, or -1 if the value is null.
+	 * @throws CorruptedFrameException if the elements cannot fit into the readable bytes.
+	 */
+	public static int readCount(ByteBuf byteBuf, int elementSize) {
+		final int count = PacketUtil.readVarInt(byteBuf) - 1;
+		if (count < -1 || count > byteBuf.readableBytes() / elementSize) {
+			throw new CorruptedFrameException("Invalid count " + count + " (maximum is " + byteBuf.readableBytes() / elementSize + ")");
+		}
+		return count;
+	}
+
+	/**
+	 * Writes the ordinal of an enum constant that may be null.
+	 * @param byteBuf
+	 * @param value
+	 */
+	public static void writeEnum(ByteBuf byteBuf, Enum<?> value) {
+		PacketUtil.writeVarInt(byteBuf, value == null ? 0 : value.ordinal() + 1);
+	}
+
+	/**
+	 * Reads an enum constant that was written by {@link #writeEnum(ByteBuf, Enum)}.
+	 * @param byteBuf
+	 * @param values the constants of the enum, which the generated codec keeps in a static field.
+	 * @return the constant or null.
+	 * @throws CorruptedFrameException if the enum has no constant with the ordinal.
+	 */
+	public static <E extends Enum<E>> E readEnum(ByteBuf byteBuf, E[] values) {
+		final int ordinal = PacketUtil.readVarInt(byteBuf) - 1;
+		if (ordinal == -1) {
+			return null;
+		}
+		if (ordinal < 0 || ordinal >= values.length) {
+			throw new CorruptedFrameException("Invalid ordinal " + ordinal + " of " + values.getClass().getComponentType().getName());
+		}
+		return values[ordinal];
+	}
+
+	/**
+	 * Checks a value that has been read for a field with {@link CodecField#nullable()} set to false.
+	 * @param value
+	 * @param field the name of the field.
+	 * @throws CorruptedFrameException if the value is null.
+	 */
+	public static void checkNotNull(Object value, String field) {
+		if (value == null) {
+			throw new CorruptedFrameException("The field " + field + " must not be null");
+		}
+	}
+
+	/**
+	 * Finds the generated codecs of all messages that can be registered, see {@link GenerateCodec#register()}.<br>
+	 * The annotation processor lists them in <code>META-INF/services</code>, so they are found by a {@link ServiceLoader} without scanning the class path.
+	 * A codec that cannot be loaded is skipped with a warning.
+	 * @param classLoader
+	 * @return the codecs that have been found.
+	 */
+	@SuppressWarnings("rawtypes")
+	public static List<GeneratedCodec<?>> load(ClassLoader classLoader) {
+		final List<GeneratedCodec<?>> codecs = new ArrayList<>();
+		final Iterator<GeneratedCodec> iterator = ServiceLoader.load(GeneratedCodec.class, classLoader).iterator();
+		while (true) {
+			try {
+				if (!iterator.hasNext()) {
+					break;
+				}
+				codecs.add(iterator.next());
+			} catch (ServiceConfigurationError error) {
+				Transport.getLogger().log(Level.WARNING, "Could not load a generated codec", error);
+			}
+		}
+		return codecs;
+	}
+}
@@ -0,0 +1,27 @@
+package de.iltisauge.transport.codec;
+
+import de.iltisauge.transport.utils.PacketUtil;
+
+/**
+ * This enum contains the encodings of <code>int</code> and <code>long</code> fields in a generated codec, see {@link CodecField#encoding()}.
+ *
+ * @author Daniel Ziegler
+ *
+ */
+public enum IntEncoding {
+
+	/**
+	 * An unsigned variable-length value, see {@link PacketUtil#writeVarInt(io.netty.buffer.ByteBuf, int)}.
+	 * Small positive values take a single byte, negative values take the most bytes.
+	 */
+	VARINT,
+	/**
+	 * A zigzag-encoded variable-length value, see {@link PacketUtil#writeSignedVarInt(io.netty.buffer.ByteBuf, int)}.
+	 * Values that are close to zero take a single byte, whether they are positive or negative.
+	 */
+	SIGNED_VARINT,
+	/**
+	 * A value of fixed width, which is smaller than a variable-length value for large values such as hashes or timestamps in nanoseconds.
+	 */
+	FIXED;
+}
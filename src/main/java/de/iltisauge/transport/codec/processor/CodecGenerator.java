@@ -0,0 +1,828 @@
+package de.iltisauge.transport.codec.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic.Kind;
+
+/**
+ * This class generates the source of the codec of a single class with <code>GenerateCodec</code>.<br>
+ * The codec writes the fields straight into the buffer with the primitives of <code>PacketUtil</code> and <code>GeneratedCodecs</code>:
+ * <code>int</code> and <code>long</code> as variable-length values unless <code>CodecField#encoding()</code> says otherwise, enums as their ordinal,
+ * Strings, arrays, collections and maps with their length plus one, so null does not take an extra byte, and other classes with a generated codec by that codec.
+ * Boxed primitives, UUIDs and nested classes are preceded by a boolean that tells whether they are present.
+ * Strings are read with at most <code>NetworkConfig#DEFAULT_MAX_STRING_LENGTH</code> characters.
+ * A field with <code>CodecField#nullable()</code> set to false is written the same way, but null is rejected when it is written and read.<br>
+ * The message is created by the constructor whose parameters match the written fields, otherwise by its no-arg constructor and setters.
+ * In the latter case the codec of a message also implements <code>IRecyclableMessageCodec</code>, since every field that is read is overwritten, see <code>NetworkConfig#isRecycleMessages()</code>.
+ * Fields that the codec cannot access are read by their getter and written by their setter, which may be generated by Lombok.
+ *
+ * @author Daniel Ziegler
+ *
+ */
+final class CodecGenerator {
+
+	private final ProcessingEnvironment env;
+	private final Elements elements;
+	private final Types types;
+	private final TypeElement type;
+	private final String packageName;
+	/**
+	 * The static fields of the codec, which hold the constants of the enums that are read.
+	 */
+	private final Map<String, String> enumValues = new HashMap<>();
+	private int variables;
+	private boolean valid = true;
+
+	CodecGenerator(ProcessingEnvironment env, TypeElement type) {
+		this.env = env;
+		this.elements = env.getElementUtils();
+		this.types = env.getTypeUtils();
+		this.type = type;
+		this.packageName = elements.getPackageOf(type).getQualifiedName().toString();
+	}
+
+	/**
+	 *
+	 * @param elements
+	 * @param type
+	 * @return the qualified name of the codec of the type. The codecs of nested classes are named after all enclosing classes, e.g. <code>Outer_InnerCodec</code>.
+	 */
+	static String getCodecName(Elements elements, TypeElement type) {
+		final String packageName = elements.getPackageOf(type).getQualifiedName().toString();
+		return packageName.isEmpty() ? getSimpleCodecName(type) : packageName + "." + getSimpleCodecName(type);
+	}
+
+	private static String getSimpleCodecName(TypeElement type) {
+		final Deque<String> names = new ArrayDeque<>();
+		Element element = type;
+		while (element instanceof TypeElement) {
+			names.addFirst(element.getSimpleName().toString());
+			element = element.getEnclosingElement();
+		}
+		return String.join("_", names) + "Codec";
+	}
+
+	/**
+	 * Writes the source of the codec.
+	 * @return true, if the codec has been generated, otherwise false and the errors have been reported.
+	 */
+	boolean generate() {
+		if (type.getModifiers().contains(Modifier.ABSTRACT)) {
+			error("A class with a generated codec must not be abstract", type);
+		}
+		if (!type.getTypeParameters().isEmpty()) {
+			error("A class with a generated codec must not have type parameters", type);
+		}
+		if (type.getModifiers().contains(Modifier.PRIVATE)) {
+			error("A class with a generated codec must not be private", type);
+		}
+		if (type.getNestingKind() == NestingKind.MEMBER && !type.getModifiers().contains(Modifier.STATIC)) {
+			error("A nested class with a generated codec must be static", type);
+		}
+		final List<Field> fields = getFields();
+		final boolean useConstructor = hasMatchingConstructor(fields);
+		if (!useConstructor && !hasNoArgsConstructor()) {
+			error("A class with a generated codec needs a constructor with the parameters "
+					+ fields.stream().map(field -> field.type.toString()).collect(Collectors.joining(", ", "(", ")")) + " or a constructor without parameters", type);
+		}
+		final String className = type.getQualifiedName().toString();
+		final Code write = new Code(2);
+		for (Field field : fields) {
+			writeValue(write, field.type, getValue(field, useConstructor), field.encoding, field.nullable, field.element);
+		}
+		final Code read = new Code(2);
+		final List<String> values = new ArrayList<>();
+		for (Field field : fields) {
+			values.add(readValue(read, field.type, field.encoding, field.nullable, field.element));
+		}
+		if (useConstructor) {
+			read.line("return new " + className + "(" + String.join(", ", values) + ");");
+		} else {
+			for (int i = 0; i < fields.size(); i++) {
+				setValue(read, fields.get(i), values.get(i));
+			}
+		}
+		final boolean recyclable = !useConstructor && types.isAssignable(type.asType(), elements.getTypeElement(CodecProcessor.MESSAGE).asType());
+		if (!valid) {
+			return false;
+		}
+		final String codecName = getSimpleCodecName(type);
+		final Code source = new Code(0);
+		if (!packageName.isEmpty()) {
+			source.line("package " + packageName + ";");
+			source.line("");
+		}
+		source.line("/**");
+		source.line(" * The codec of {@link " + className + "}, which has been generated by {@code " + CodecProcessor.class.getName() + "}.");
+		source.line(" */");
+		source.open("public final class " + codecName + " implements " + CodecProcessor.GENERATED_CODEC + "<" + className + ">"
+				+ (recyclable ? ", " + CodecProcessor.RECYCLABLE_MESSAGE_CODEC + "<" + className + ">" : "") + " {");
+		source.line("");
+		source.line("public static final " + codecName + " INSTANCE = new " + codecName + "();");
+		for (Map.Entry<String, String> entry : enumValues.entrySet()) {
+			source.line("private static final " + entry.getKey() + "[] " + entry.getValue() + " = " + entry.getKey() + ".values();");
+		}
+		source.line("");
+		source.line("@Override");
+		source.open("public Class<" + className + "> getType() {");
+		source.line("return " + className + ".class;");
+		source.close();
+		source.line("");
+		source.line("@Override");
+		source.open("public void write(io.netty.buffer.ByteBuf byteBuf, " + className + " obj) {");
+		source.append(write);
+		source.close();
+		source.line("");
+		if (useConstructor) {
+			source.line("@Override");
+			source.line("@SuppressWarnings(\"unchecked\")");
+			source.open("public " + className + " read(io.netty.buffer.ByteBuf byteBuf) {");
+			source.append(read);
+			source.close();
+		} else {
+			if (recyclable) {
+				source.line("@Override");
+			}
+			source.open("public " + className + " newMessage() {");
+			source.line("return new " + className + "();");
+			source.close();
+			source.line("");
+			source.line("@Override");
+			source.open("public " + className + " read(io.netty.buffer.ByteBuf byteBuf) {");
+			source.line("final " + className + " obj = newMessage();");
+			source.line("read(byteBuf, obj);");
+			source.line("return obj;");
+			source.close();
+			source.line("");
+			if (recyclable) {
+				source.line("@Override");
+			}
+			source.line("@SuppressWarnings(\"unchecked\")");
+			source.open("public void read(io.netty.buffer.ByteBuf byteBuf, " + className + " obj) {");
+			source.append(read);
+			source.close();
+		}
+		source.close();
+		try (Writer writer = env.getFiler().createSourceFile(getCodecName(elements, type), type).openWriter()) {
+			writer.write(source.toString());
+		} catch (IOException exception) {
+			error("Could not write the codec: " + exception.getMessage(), type);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 *
+	 * @return the fields that are written, sorted by their order. The fields of superclasses come first, the fields of <code>Message</code> belong to the frame header.
+	 */
+	private List<Field> getFields() {
+		final Deque<TypeElement> hierarchy = new ArrayDeque<>();
+		TypeElement current = type;
+		while (current != null && !current.getQualifiedName().contentEquals(CodecProcessor.MESSAGE) && !current.getQualifiedName().contentEquals("java.lang.Object")) {
+			hierarchy.addFirst(current);
+			final TypeMirror superclass = current.getSuperclass();
+			current = superclass.getKind() == TypeKind.DECLARED ? (TypeElement) ((DeclaredType) superclass).asElement() : null;
+		}
+		final List<Field> fields = new ArrayList<>();
+		for (TypeElement declaringType : hierarchy) {
+			for (VariableElement element : ElementFilter.fieldsIn(declaringType.getEnclosedElements())) {
+				final Set<Modifier> modifiers = element.getModifiers();
+				if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT)) {
+					continue;
+				}
+				final Field field = new Field(element, types.asMemberOf((DeclaredType) type.asType(), element));
+				final AnnotationMirror codecField = getAnnotation(element, CodecProcessor.CODEC_FIELD);
+				if (codecField != null) {
+					for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : elements.getElementValuesWithDefaults(codecField).entrySet()) {
+						final String name = entry.getKey().getSimpleName().toString();
+						if (name.equals("order")) {
+							field.order = (Integer) entry.getValue().getValue();
+						} else if (name.equals("encoding")) {
+							field.encoding = ((VariableElement) entry.getValue().getValue()).getSimpleName().toString();
+						} else if (name.equals("nullable")) {
+							field.nullable = (Boolean) entry.getValue().getValue();
+						}
+					}
+				}
+				fields.add(field);
+			}
+		}
+		// The sort is stable, so fields with the same order stay in the order they are declared
+		fields.sort((field, otherField) -> Integer.compare(field.order, otherField.order));
+		return fields;
+	}
+
+	/**
+	 *
+	 * @param fields
+	 * @return true, if the class has a constructor whose parameters are the fields in their order.
+	 */
+	private boolean hasMatchingConstructor(List<Field> fields) {
+		for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+			if (constructor.getModifiers().contains(Modifier.PRIVATE) || constructor.getParameters().size() != fields.size()) {
+				continue;
+			}
+			boolean matches = true;
+			for (int i = 0; i < fields.size() && matches; i++) {
+				matches = types.isSameType(constructor.getParameters().get(i).asType(), fields.get(i).type);
+			}
+			if (matches) {
+				return true;
+			}
+		}
+		// Lombok generates the constructor later, with all fields of the class in the order they are declared
+		if (getAnnotation(type, "lombok.AllArgsConstructor") != null || getAnnotation(type, "lombok.Value") != null) {
+			final List<VariableElement> ownFields = ElementFilter.fieldsIn(type.getEnclosedElements()).stream()
+					.filter(field -> !field.getModifiers().contains(Modifier.STATIC))
+					.collect(Collectors.toList());
+			if (ownFields.size() != fields.size()) {
+				return false;
+			}
+			for (int i = 0; i < fields.size(); i++) {
+				if (ownFields.get(i) != fields.get(i).element) {
+					return false;
+				}
+			}
+			return true;
+		}
+		return false;
+	}
+
+	private boolean hasNoArgsConstructor() {
+		final List<ExecutableElement> constructors = ElementFilter.constructorsIn(type.getEnclosedElements());
+		for (ExecutableElement constructor : constructors) {
+			if (!constructor.getModifiers().contains(Modifier.PRIVATE) && constructor.getParameters().isEmpty()) {
+				return true;
+			}
+		}
+		if (getAnnotation(type, "lombok.NoArgsConstructor") != null) {
+			return true;
+		}
+		// The default constructor only exists if no other constructor is declared, also not by Lombok
+		return constructors.isEmpty() && getAnnotation(type, "lombok.AllArgsConstructor") == null
+				&& getAnnotation(type, "lombok.RequiredArgsConstructor") == null && getAnnotation(type, "lombok.Value") == null;
+	}
+
+	/**
+	 *
+	 * @param field
+	 * @param useConstructor
+	 * @return the expression that gets the value of the field from <code>obj</code>.
+	 */
+	private String getValue(Field field, boolean useConstructor) {
+		if (isAccessible(field.element)) {
+			return "obj." + field.element.getSimpleName();
+		}
+		final String getter = getGetterName(field);
+		if (!hasMethod(field, getter, 0, "lombok.Getter", "lombok.Data", "lombok.Value")) {
+			error("The field " + field.element.getSimpleName() + " cannot be accessed by the generated codec and has no getter " + getter + "()", field.element);
+		}
+		return "obj." + getter + "()";
+	}
+
+	private void setValue(Code code, Field field, String value) {
+		if (field.element.getModifiers().contains(Modifier.FINAL)) {
+			error("The final field " + field.element.getSimpleName() + " can only be read by a constructor", field.element);
+			return;
+		}
+		if (isAccessible(field.element)) {
+			code.line("obj." + field.element.getSimpleName() + " = " + value + ";");
+			return;
+		}
+		final String setter = getSetterName(field);
+		if (!hasMethod(field, setter, 1, "lombok.Setter", "lombok.Data")) {
+			error("The field " + field.element.getSimpleName() + " cannot be accessed by the generated codec and has no setter " + setter + "(...)", field.element);
+		}
+		code.line("obj." + setter + "(" + value + ");");
+	}
+
+	/**
+	 * The codec is in the package of the class, so it can access every field that is neither private nor declared in another package.
+	 */
+	private boolean isAccessible(VariableElement field) {
+		final Set<Modifier> modifiers = field.getModifiers();
+		if (modifiers.contains(Modifier.PRIVATE)) {
+			return false;
+		}
+		return modifiers.contains(Modifier.PUBLIC) || elements.getPackageOf(field).getQualifiedName().contentEquals(packageName);
+	}
+
+	/*
+	 * The accessors are named like the ones that Lombok generates.
+	 */
+	private String getGetterName(Field field) {
+		final String name = field.element.getSimpleName().toString();
+		if (field.type.getKind() == TypeKind.BOOLEAN) {
+			return hasIsPrefix(name) ? name : "is" + capitalize(name);
+		}
+		return "get" + capitalize(name);
+	}
+
+	private String getSetterName(Field field) {
+		final String name = field.element.getSimpleName().toString();
+		if (field.type.getKind() == TypeKind.BOOLEAN && hasIsPrefix(name)) {
+			return "set" + name.substring(2);
+		}
+		return "set" + capitalize(name);
+	}
+
+	private static boolean hasIsPrefix(String name) {
+		return name.length() > 2 && name.startsWith("is") && Character.isUpperCase(name.charAt(2));
+	}
+
+	private static String capitalize(String name) {
+		return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+	}
+
+	/**
+	 *
+	 * @return true, if the class has a method with the name and amount of parameters that is not private,
+	 * or if the field or the class that declares it has one of the Lombok annotations that generate it.
+	 */
+	private boolean hasMethod(Field field, String name, int parameters, String... lombokAnnotations) {
+		for (ExecutableElement method : ElementFilter.methodsIn(elements.getAllMembers(type))) {
+			if (method.getSimpleName().contentEquals(name) && method.getParameters().size() == parameters && !method.getModifiers().contains(Modifier.PRIVATE)) {
+				return true;
+			}
+		}
+		for (String lombokAnnotation : lombokAnnotations) {
+			if (getAnnotation(field.element, lombokAnnotation) != null || getAnnotation(field.element.getEnclosingElement(), lombokAnnotation) != null) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Writes the statements that write the value of the expression.
+	 * @param code
+	 * @param valueType
+	 * @param value an expression, which is evaluated once.
+	 * @param encoding
+	 * @param nullable false, if a null value must not be written.
+	 * @param field the field that is reported if the type is not supported.
+	 */
+	private void writeValue(Code code, TypeMirror valueType, String value, String encoding, boolean nullable, Element field) {
+		if (!nullable && (valueType.getKind() == TypeKind.ARRAY || valueType.getKind() == TypeKind.DECLARED)) {
+			value = "java.util.Objects.requireNonNull(" + value + ", \"" + field.getSimpleName() + "\")";
+		}
+		switch (valueType.getKind()) {
+		case BOOLEAN:
+			code.line("byteBuf.writeBoolean(" + value + ");");
+			return;
+		case BYTE:
+			code.line("byteBuf.writeByte(" + value + ");");
+			return;
+		case SHORT:
+			code.line("byteBuf.writeShort(" + value + ");");
+			return;
+		case CHAR:
+			code.line("byteBuf.writeChar(" + value + ");");
+			return;
+		case FLOAT:
+			code.line("byteBuf.writeFloat(" + value + ");");
+			return;
+		case DOUBLE:
+			code.line("byteBuf.writeDouble(" + value + ");");
+			return;
+		case INT:
+			code.line(encoding.equals("FIXED") ? "byteBuf.writeInt(" + value + ");"
+					: CodecProcessor.PACKET_UTIL + (encoding.equals("SIGNED_VARINT") ? ".writeSignedVarInt" : ".writeVarInt") + "(byteBuf, " + value + ");");
+			return;
+		case LONG:
+			code.line(encoding.equals("FIXED") ? "byteBuf.writeLong(" + value + ");"
+					: CodecProcessor.PACKET_UTIL + (encoding.equals("SIGNED_VARINT") ? ".writeSignedVarLong" : ".writeVarLong") + "(byteBuf, " + value + ");");
+			return;
+		case ARRAY: {
+			final TypeMirror componentType = ((ArrayType) valueType).getComponentType();
+			final String variable = declare(code, valueType, value);
+			writeCount(code, variable, variable + ".length", nullable);
+			if (componentType.getKind() == TypeKind.BYTE) {
+				code.line("byteBuf.writeBytes(" + variable + ");");
+			} else {
+				final String element = "e" + variables++;
+				code.open("for (" + componentType + " " + element + " : " + variable + ") {");
+				writeValue(code, componentType, element, encoding, nullable, field);
+				code.close();
+			}
+			closeCount(code, nullable);
+			return;
+		}
+		case DECLARED:
+			writeDeclared(code, (DeclaredType) valueType, value, encoding, nullable, field);
+			return;
+		default:
+			error("The type " + valueType + " is not supported by generated codecs", field);
+		}
+	}
+
+	private void writeDeclared(Code code, DeclaredType valueType, String value, String encoding, boolean nullable, Element field) {
+		final TypeElement element = (TypeElement) valueType.asElement();
+		final String name = element.getQualifiedName().toString();
+		if (name.equals("java.lang.String")) {
+			code.line(CodecProcessor.PACKET_UTIL + ".writeNullableString(byteBuf, " + value + ");");
+		} else if (element.getKind() == ElementKind.ENUM) {
+			code.line(CodecProcessor.GENERATED_CODECS + ".writeEnum(byteBuf, " + value + ");");
+		} else if (isCollection(valueType) || isMap(valueType)) {
+			final List<? extends TypeMirror> typeArguments = getTypeArguments(valueType, isMap(valueType) ? 2 : 1, field);
+			if (typeArguments == null) {
+				return;
+			}
+			final String variable = declare(code, valueType, value);
+			writeCount(code, variable, variable + ".size()", nullable);
+			final String entry = "e" + variables++;
+			if (isMap(valueType)) {
+				code.open("for (java.util.Map.Entry<" + typeArguments.get(0) + ", " + typeArguments.get(1) + "> " + entry + " : " + variable + ".entrySet()) {");
+				writeValue(code, typeArguments.get(0), entry + ".getKey()", encoding, nullable, field);
+				writeValue(code, typeArguments.get(1), entry + ".getValue()", encoding, nullable, field);
+			} else {
+				code.open("for (" + typeArguments.get(0) + " " + entry + " : " + variable + ") {");
+				writeValue(code, typeArguments.get(0), entry, encoding, nullable, field);
+			}
+			code.close();
+			closeCount(code, nullable);
+		} else if (isBoxed(valueType) || name.equals("java.util.UUID") || getAnnotation(element, CodecProcessor.GENERATE_CODEC) != null) {
+			final String variable = declare(code, valueType, value);
+			code.line("byteBuf.writeBoolean(" + variable + " != null);");
+			code.open("if (" + variable + " != null) {");
+			if (isBoxed(valueType)) {
+				writeValue(code, types.unboxedType(valueType), variable, encoding, nullable, field);
+			} else if (name.equals("java.util.UUID")) {
+				code.line(CodecProcessor.PACKET_UTIL + ".writeUUID(byteBuf, " + variable + ");");
+			} else {
+				code.line(getCodecName(elements, element) + ".INSTANCE.write(byteBuf, " + variable + ");");
+			}
+			code.close();
+		} else {
+			error("The type " + valueType + " is not supported by generated codecs, annotate " + name + " with @GenerateCodec", field);
+		}
+	}
+
+	/**
+	 * Writes the count of an array, collection or map. If it may be null, the statements that write its elements follow in a block that {@link #closeCount(Code, boolean)} ends.
+	 */
+	private static void writeCount(Code code, String variable, String count, boolean nullable) {
+		if (nullable) {
+			code.open("if (" + variable + " == null) {");
+			code.line(CodecProcessor.GENERATED_CODECS + ".writeCount(byteBuf, -1);");
+			code.close("} else {");
+		}
+		code.line(CodecProcessor.GENERATED_CODECS + ".writeCount(byteBuf, " + count + ");");
+	}
+
+	private static void closeCount(Code code, boolean nullable) {
+		if (nullable) {
+			code.close();
+		}
+	}
+
+	/**
+	 * Writes the statements that read a value.
+	 * @param code
+	 * @param valueType
+	 * @param encoding
+	 * @param nullable false, if a null value is rejected.
+	 * @param field the field that is reported if the type is not supported.
+	 * @return the name of the variable that holds the value.
+	 */
+	private String readValue(Code code, TypeMirror valueType, String encoding, boolean nullable, Element field) {
+		final String variable = "v" + variables++;
+		final String declaration = "final " + valueType + " " + variable;
+		switch (valueType.getKind()) {
+		case BOOLEAN:
+			code.line(declaration + " = byteBuf.readBoolean();");
+			break;
+		case BYTE:
+			code.line(declaration + " = byteBuf.readByte();");
+			break;
+		case SHORT:
+			code.line(declaration + " = byteBuf.readShort();");
+			break;
+		case CHAR:
+			code.line(declaration + " = byteBuf.readChar();");
+			break;
+		case FLOAT:
+			code.line(declaration + " = byteBuf.readFloat();");
+			break;
+		case DOUBLE:
+			code.line(declaration + " = byteBuf.readDouble();");
+			break;
+		case INT:
+			code.line(declaration + " = " + (encoding.equals("FIXED") ? "byteBuf.readInt()"
+					: CodecProcessor.PACKET_UTIL + (encoding.equals("SIGNED_VARINT") ? ".readSignedVarInt" : ".readVarInt") + "(byteBuf)") + ";");
+			break;
+		case LONG:
+			code.line(declaration + " = " + (encoding.equals("FIXED") ? "byteBuf.readLong()"
+					: CodecProcessor.PACKET_UTIL + (encoding.equals("SIGNED_VARINT") ? ".readSignedVarLong" : ".readVarLong") + "(byteBuf)") + ";");
+			break;
+		case ARRAY: {
+			final TypeMirror componentType = ((ArrayType) valueType).getComponentType();
+			final String count = "n" + variables++;
+			code.line("final int " + count + " = " + CodecProcessor.GENERATED_CODECS + ".readCount(byteBuf, " + getMinimumSize(componentType, encoding) + ");");
+			code.line(declaration + " = " + count + " == -1 ? null : " + newArray(valueType, count) + ";");
+			if (componentType.getKind() == TypeKind.BYTE) {
+				code.open("if (" + variable + " != null) {");
+				code.line("byteBuf.readBytes(" + variable + ");");
+				code.close();
+			} else {
+				final String index = "i" + variables++;
+				code.open("for (int " + index + " = 0; " + index + " < " + count + "; " + index + "++) {");
+				code.line(variable + "[" + index + "] = " + readValue(code, componentType, encoding, nullable, field) + ";");
+				code.close();
+			}
+			break;
+		}
+		case DECLARED:
+			readDeclared(code, (DeclaredType) valueType, variable, encoding, nullable, field);
+			break;
+		default:
+			error("The type " + valueType + " is not supported by generated codecs", field);
+		}
+		if (!nullable && (valueType.getKind() == TypeKind.ARRAY || valueType.getKind() == TypeKind.DECLARED)) {
+			code.line(CodecProcessor.GENERATED_CODECS + ".checkNotNull(" + variable + ", \"" + field.getSimpleName() + "\");");
+		}
+		return variable;
+	}
+
+	private void readDeclared(Code code, DeclaredType valueType, String variable, String encoding, boolean nullable, Element field) {
+		final TypeElement element = (TypeElement) valueType.asElement();
+		final String name = element.getQualifiedName().toString();
+		final String declaration = "final " + valueType + " " + variable;
+		if (name.equals("java.lang.String")) {
+			code.line(declaration + " = " + CodecProcessor.PACKET_UTIL + ".readNullableString(byteBuf, " + CodecProcessor.NETWORK_CONFIG + ".DEFAULT_MAX_STRING_LENGTH);");
+		} else if (element.getKind() == ElementKind.ENUM) {
+			String values = enumValues.get(name);
+			if (values == null) {
+				values = "VALUES_" + enumValues.size();
+				enumValues.put(name, values);
+			}
+			code.line(declaration + " = " + CodecProcessor.GENERATED_CODECS + ".readEnum(byteBuf, " + values + ");");
+		} else if (isCollection(valueType) || isMap(valueType)) {
+			final boolean map = isMap(valueType);
+			final List<? extends TypeMirror> typeArguments = getTypeArguments(valueType, map ? 2 : 1, field);
+			final String implementation = getImplementation(valueType, map, field);
+			if (typeArguments == null || implementation == null) {
+				return;
+			}
+			final String count = "n" + variables++;
+			final int minimumSize = map ? getMinimumSize(typeArguments.get(0), encoding) + getMinimumSize(typeArguments.get(1), encoding)
+					: getMinimumSize(typeArguments.get(0), encoding);
+			code.line("final int " + count + " = " + CodecProcessor.GENERATED_CODECS + ".readCount(byteBuf, " + minimumSize + ");");
+			final String arguments = typeArguments.stream().map(TypeMirror::toString).collect(Collectors.joining(", ", "<", ">"));
+			final String capacity = implementation.equals("java.util.ArrayList") || implementation.equals("java.util.ArrayDeque") ? count : "";
+			code.line(declaration + " = " + count + " == -1 ? null : new " + implementation + arguments + "(" + capacity + ");");
+			final String index = "i" + variables++;
+			code.open("for (int " + index + " = 0; " + index + " < " + count + "; " + index + "++) {");
+			if (map) {
+				final String key = readValue(code, typeArguments.get(0), encoding, nullable, field);
+				final String value = readValue(code, typeArguments.get(1), encoding, nullable, field);
+				code.line(variable + ".put(" + key + ", " + value + ");");
+			} else {
+				code.line(variable + ".add(" + readValue(code, typeArguments.get(0), encoding, nullable, field) + ");");
+			}
+			code.close();
+		} else if (isBoxed(valueType)) {
+			code.line("final " + valueType + " " + variable + ";");
+			code.open("if (byteBuf.readBoolean()) {");
+			code.line(variable + " = " + readValue(code, types.unboxedType(valueType), encoding, nullable, field) + ";");
+			code.close("} else {");
+			code.line(variable + " = null;");
+			code.close();
+		} else if (name.equals("java.util.UUID")) {
+			code.line(declaration + " = byteBuf.readBoolean() ? " + CodecProcessor.PACKET_UTIL + ".readUUID(byteBuf) : null;");
+		} else if (getAnnotation(element, CodecProcessor.GENERATE_CODEC) != null) {
+			code.line(declaration + " = byteBuf.readBoolean() ? " + getCodecName(elements, element) + ".INSTANCE.read(byteBuf) : null;");
+		} else {
+			error("The type " + valueType + " is not supported by generated codecs, annotate " + name + " with @GenerateCodec", field);
+		}
+	}
+
+	/**
+	 *
+	 * @return the class that is created for a collection or map of the given type, or null if there is none.
+	 */
+	private String getImplementation(DeclaredType valueType, boolean map, Element field) {
+		final TypeElement element = (TypeElement) valueType.asElement();
+		final String name = element.getQualifiedName().toString();
+		switch (name) {
+		case "java.util.Collection":
+		case "java.util.List":
+			return "java.util.ArrayList";
+		case "java.util.Set":
+			return "java.util.LinkedHashSet";
+		case "java.util.SortedSet":
+		case "java.util.NavigableSet":
+			return "java.util.TreeSet";
+		case "java.util.Queue":
+		case "java.util.Deque":
+			return "java.util.ArrayDeque";
+		case "java.util.Map":
+			return "java.util.LinkedHashMap";
+		case "java.util.SortedMap":
+		case "java.util.NavigableMap":
+			return "java.util.TreeMap";
+		case "java.util.concurrent.ConcurrentMap":
+			return "java.util.concurrent.ConcurrentHashMap";
+		default:
+			if (element.getKind() == ElementKind.INTERFACE || element.getModifiers().contains(Modifier.ABSTRACT)) {
+				error("The generated codec does not know which class to create for " + valueType + ", use one of the interfaces of java.util or a concrete class", field);
+				return null;
+			}
+			return name;
+		}
+	}
+
+	private boolean isCollection(DeclaredType valueType) {
+		return types.isAssignable(types.erasure(valueType), types.erasure(elements.getTypeElement("java.util.Collection").asType()));
+	}
+
+	private boolean isMap(DeclaredType valueType) {
+		return types.isAssignable(types.erasure(valueType), types.erasure(elements.getTypeElement("java.util.Map").asType()));
+	}
+
+	private boolean isBoxed(TypeMirror valueType) {
+		try {
+			types.unboxedType(valueType);
+			return true;
+		} catch (IllegalArgumentException exception) {
+			return false;
+		}
+	}
+
+	/**
+	 *
+	 * @return the type arguments of a collection or map, or null if they are missing or not supported.
+	 */
+	private List<? extends TypeMirror> getTypeArguments(DeclaredType valueType, int count, Element field) {
+		final List<? extends TypeMirror> typeArguments = valueType.getTypeArguments();
+		if (typeArguments.size() != count) {
+			error("The generated codec needs the type arguments of " + valueType, field);
+			return null;
+		}
+		for (TypeMirror typeArgument : typeArguments) {
+			if (typeArgument.getKind() != TypeKind.DECLARED && typeArgument.getKind() != TypeKind.ARRAY) {
+				error("The type argument " + typeArgument + " is not supported by generated codecs", field);
+				return null;
+			}
+		}
+		return typeArguments;
+	}
+
+	/**
+	 *
+	 * @return the minimum amount of bytes a value of the type is written with, which limits the counts that are accepted while reading.
+	 */
+	private static int getMinimumSize(TypeMirror valueType, String encoding) {
+		switch (valueType.getKind()) {
+		case SHORT:
+		case CHAR:
+			return 2;
+		case FLOAT:
+			return 4;
+		case DOUBLE:
+			return 8;
+		case INT:
+			return encoding.equals("FIXED") ? 4 : 1;
+		case LONG:
+			return encoding.equals("FIXED") ? 8 : 1;
+		default:
+			return 1;
+		}
+	}
+
+	/**
+	 *
+	 * @return the expression that creates an array of the type, whose length is the given variable.
+	 */
+	private String newArray(TypeMirror arrayType, String length) {
+		TypeMirror componentType = ((ArrayType) arrayType).getComponentType();
+		final StringBuilder dimensions = new StringBuilder();
+		while (componentType.getKind() == TypeKind.ARRAY) {
+			dimensions.append("[]");
+			componentType = ((ArrayType) componentType).getComponentType();
+		}
+		final String creation = "new " + types.erasure(componentType) + "[" + length + "]" + dimensions;
+		// Arrays of generic types can only be created by their erasure
+		return types.isSameType(types.erasure(arrayType), arrayType) ? creation : "(" + arrayType + ") " + creation;
+	}
+
+	/**
+	 * Declares a variable with the value of the expression, so it is evaluated once.
+	 * @return the name of the variable.
+	 */
+	private String declare(Code code, TypeMirror valueType, String value) {
+		final String variable = "v" + variables++;
+		code.line("final " + valueType + " " + variable + " = " + value + ";");
+		return variable;
+	}
+
+	private static AnnotationMirror getAnnotation(Element element, String annotation) {
+		for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+			if (((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(annotation)) {
+				return mirror;
+			}
+		}
+		return null;
+	}
+
+	private void error(String message, Element element) {
+		valid = false;
+		env.getMessager().printMessage(Kind.ERROR, message, element);
+	}
+
+	private static final class Field {
+
+		private final VariableElement element;
+		/**
+		 * The type of the field as a member of the class with the codec, so the type parameters of generic superclasses are resolved.
+		 */
+		private final TypeMirror type;
+		private int order = Integer.MAX_VALUE;
+		private String encoding = "VARINT";
+		private boolean nullable = true;
+
+		private Field(VariableElement element, TypeMirror type) {
+			this.element = element;
+			this.type = type;
+		}
+	}
+
+	/**
+	 * Collects the lines of the generated source with their indentation.
+	 */
+	private static final class Code {
+
+		private final StringBuilder builder = new StringBuilder();
+		private int indentation;
+
+		private Code(int indentation) {
+			this.indentation = indentation;
+		}
+
+		private void line(String line) {
+			if (!line.isEmpty()) {
+				for (int i = 0; i < indentation; i++) {
+					builder.append('\t');
+				}
+				builder.append(line);
+			}
+			builder.append('\n');
+		}
+
+		private void open(String line) {
+			line(line);
+			indentation++;
+		}
+
+		private void close() {
+			close("}");
+		}
+
+		/**
+		 * Ends a block with the given line, which may open the next block, e.g. <code>} else {</code>.
+		 */
+		private void close(String line) {
+			indentation--;
+			line(line);
+			if (line.endsWith("{")) {
+				indentation++;
+			}
+		}
+
+		private void append(Code code) {
+			builder.append(code.builder);
+		}
+
+		@Override
+		public String toString() {
+			return builder.toString();
+		}
+	}
+}
@@ -0,0 +1,124 @@
+package de.iltisauge.transport.codec.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic.Kind;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * This class is the annotation processor that generates the codecs of all classes with <code>de.iltisauge.transport.codec.GenerateCodec</code>, see {@link CodecGenerator}.<br>
+ * The codecs of messages that may be registered are listed in <code>META-INF/services</code>, so they are found at runtime without reflection on their fields.
+ * The list only contains the codecs of the current compilation, so codecs of classes that have been removed or no longer register their codec are not listed anymore.
+ * The project therefore has to be compiled as a whole, as Maven does whenever a source file has changed.<br>
+ * The processor is compiled before the rest of the project, so it only refers to the classes of the project by their names.
+ * It runs next to Lombok and does not claim the annotation.
+ *
+ * @author Daniel Ziegler
+ *
+ */
+@SupportedAnnotationTypes(CodecProcessor.GENERATE_CODEC)
+public class CodecProcessor extends AbstractProcessor {
+
+	static final String GENERATE_CODEC = "de.iltisauge.transport.codec.GenerateCodec";
+	static final String CODEC_FIELD = "de.iltisauge.transport.codec.CodecField";
+	static final String GENERATED_CODEC = "de.iltisauge.transport.codec.GeneratedCodec";
+	static final String GENERATED_CODECS = "de.iltisauge.transport.codec.GeneratedCodecs";
+	static final String PACKET_UTIL = "de.iltisauge.transport.utils.PacketUtil";
+	static final String NETWORK_CONFIG = "de.iltisauge.transport.network.NetworkConfig";
+	static final String MESSAGE = "de.iltisauge.transport.network.Message";
+	static final String I_MESSAGE = "de.iltisauge.transport.network.IMessage";
+	static final String RECYCLABLE_MESSAGE_CODEC = "de.iltisauge.transport.network.IRecyclableMessageCodec";
+	private static final String SERVICE_FILE = "META-INF/services/" + GENERATED_CODEC;
+
+	/**
+	 * The codecs of all messages that are registered by <code>NetworkManager#registerGeneratedCodecs()</code>.
+	 */
+	private final Set<String> registeredCodecs = new TreeSet<>();
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		if (roundEnv.processingOver()) {
+			writeServiceFile();
+			return false;
+		}
+		final TypeElement annotation = processingEnv.getElementUtils().getTypeElement(GENERATE_CODEC);
+		if (annotation == null) {
+			return false;
+		}
+		for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+			if (element.getKind() != ElementKind.CLASS) {
+				processingEnv.getMessager().printMessage(Kind.ERROR, "Only classes can have a generated codec", element);
+				continue;
+			}
+			final TypeElement type = (TypeElement) element;
+			final CodecGenerator generator = new CodecGenerator(processingEnv, type);
+			if (generator.generate() && isRegistered(type)) {
+				registeredCodecs.add(CodecGenerator.getCodecName(processingEnv.getElementUtils(), type));
+			}
+		}
+		return false;
+	}
+
+	/**
+	 *
+	 * @param type
+	 * @return true, if the type is a message whose codec is registered, see <code>GenerateCodec#register()</code>.
+	 */
+	private boolean isRegistered(TypeElement type) {
+		final TypeMirror message = processingEnv.getElementUtils().getTypeElement(I_MESSAGE).asType();
+		if (!processingEnv.getTypeUtils().isAssignable(processingEnv.getTypeUtils().erasure(type.asType()), message)) {
+			return false;
+		}
+		for (AnnotationMirror mirror : type.getAnnotationMirrors()) {
+			if (!((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(GENERATE_CODEC)) {
+				continue;
+			}
+			for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : processingEnv.getElementUtils().getElementValuesWithDefaults(mirror).entrySet()) {
+				if (entry.getKey().getSimpleName().contentEquals("register")) {
+					return (Boolean) entry.getValue().getValue();
+				}
+			}
+		}
+		return true;
+	}
+
+	private void writeServiceFile() {
+		if (registeredCodecs.isEmpty()) {
+			return;
+		}
+		final Filer filer = processingEnv.getFiler();
+		try {
+			final FileObject file = filer.createResource(StandardLocation.CLASS_OUTPUT, "", SERVICE_FILE);
+			try (Writer writer = file.openWriter()) {
+				for (String codec : registeredCodecs) {
+					writer.write(codec);
+					writer.write('\n');
+				}
+			}
+		} catch (IOException exception) {
+			processingEnv.getMessager().printMessage(Kind.ERROR, "Could not write " + SERVICE_FILE + ": " + exception.getMessage());
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package de.iltisauge.transport.messages;
+
+import de.iltisauge.transport.network.ChannelRegistry;
+import de.iltisauge.transport.network.IMessageCodec;
+import de.iltisauge.transport.network.Message;
+import de.iltisauge.transport.network.NetworkConfig;
+import de.iltisauge.transport.utils.PacketUtil;
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.CorruptedFrameException;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * This {@link Message} is sent by the server to tell a client the ids of channels, see {@link ChannelRegistry}.<br>
+ * Once the client has received it, frames in both directions reference these channels by id instead of by name.<br>
+ * It also tells the client which ids the server has released. The client unbinds them and sends them back in a ChannelIdsMessage of its own,
+ * after which the server may assign them to other channels.
+ *
+ * @author Daniel Ziegler
+ *
+ */
+@Getter
+@Setter
+public class ChannelIdsMessage extends Message {
+
+	/**
+	 * The channel through which the channel ids are sent.
+	 */
+	public static final String CHANNEL = "channel-ids";
+
+	private String[] channelNames;
+	private int[] channelIds;
+	/**
+	 * The ids that the server has released, or the ids that the client has unbound if the message is sent by a client.
+	 */
+	private int[] releasedIds = new int[0];
+
+	public ChannelIdsMessage(String[] channelNames, int[] channelIds) {
+		this.channelNames = channelNames;
+		this.channelIds = channelIds;
+	}
+
+	public static final IMessageCodec<ChannelIdsMessage> CODEC = new IMessageCodec<ChannelIdsMessage>() {
+
+		@Override
+		public void write(ByteBuf byteBuf, ChannelIdsMessage obj) {
+			PacketUtil.writeStringArray(byteBuf, obj.getChannelNames());
+			for (int channelId : obj.getChannelIds()) {
+				PacketUtil.writeVarInt(byteBuf, channelId);
+			}
+			PacketUtil.writeVarInt(byteBuf, obj.getReleasedIds().length);
+			for (int releasedId : obj.getReleasedIds()) {
+				PacketUtil.writeVarInt(byteBuf, releasedId);
+			}
+		}
+
+		@Override
+		public ChannelIdsMessage read(ByteBuf byteBuf) {
+			return read(byteBuf, NetworkConfig.DEFAULT_MAX_STRING_LENGTH);
+		}
+
+		@Override
+		public ChannelIdsMessage read(ByteBuf byteBuf, NetworkConfig config) {
+			return read(byteBuf, config.getMaxStringLength());
+		}
+
+		/*
+		 * The amount of channels is only limited by the frame, because a subscription may announce more channels than a frame may be addressed to
+		 */
+		private ChannelIdsMessage read(ByteBuf byteBuf, int maxStringLength) {
+			final String[] channelNames = PacketUtil.readStringArray(byteBuf, Integer.MAX_VALUE, maxStringLength);
+			final int[] channelIds = new int[channelNames.length];
+			for (int i = 0; i < channelIds.length; i++) {
+				channelIds[i] = PacketUtil.readVarInt(byteBuf);
+				if (channelIds[i] <= ChannelRegistry.NO_ID) {
+					throw new CorruptedFrameException("Invalid channel id " + channelIds[i]);
+				}
+			}
+			final int count = PacketUtil.readVarInt(byteBuf);
+			if (count < 0 || count > byteBuf.readableBytes()) {
+				throw new CorruptedFrameException("Invalid released channel id count " + count);
+			}
+			final int[] releasedIds = new int[count];
+			for (int i = 0; i < releasedIds.length; i++) {
+				releasedIds[i] = PacketUtil.readVarInt(byteBuf);
+				if (releasedIds[i] <= ChannelRegistry.NO_ID) {
+					throw new CorruptedFrameException("Invalid channel id " + releasedIds[i]);
+				}
+			}
+			final ChannelIdsMessage message = new ChannelIdsMessage(channelNames, channelIds);
+			message.setReleasedIds(releasedIds);
+			return message;
+		}
+	};
+}
@@ -0,0 +1,90 @@
+package de.iltisauge.transport.messages;
+
+import de.iltisauge.transport.network.CompressionAlgorithm;
+import de.iltisauge.transport.network.IMessageCodec;
+import de.iltisauge.transport.network.Message;
+import de.iltisauge.transport.network.NetworkConfig;
+import de.iltisauge.transport.network.NetworkManager;
+import de.iltisauge.transport.utils.PacketUtil;
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.CorruptedFrameException;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * This {@link Message} is used to agree on the numeric codec ids that are written to the wire instead of class names.<br>
+ * The client sends the class names of its registered codecs when it connects or registers a new codec,
+ * the server answers with the same class names and the ids it has assigned to them.<br>
+ * The handshake also negotiates the {@link CompressionAlgorithm} of the connection:
+ * the client offers the algorithms it supports and the server answers with the one it has chosen.
+ *
+ * @author Daniel Ziegler
+ *
+ */
+@Getter
+@Setter
+public class CodecHandshakeMessage extends Message {
+
+	/**
+	 * The channel through which the handshake is sent.
+	 */
+	public static final String CHANNEL = "codec-handshake";
+
+	private String[] classNames;
+	/**
+	 * Empty if the message is sent by a client.
+	 */
+	private int[] codecIds;
+	/**
+	 * The names of the {@link CompressionAlgorithm}s the client supports, or the name of the algorithm the server has chosen.<br>
+	 * Empty if the compression is not negotiated by this handshake.
+	 */
+	private String[] compressionAlgorithms = new String[0];
+
+	public CodecHandshakeMessage(String[] classNames, int[] codecIds) {
+		this.classNames = classNames;
+		this.codecIds = codecIds;
+	}
+
+	public CodecHandshakeMessage(String... classNames) {
+		this(classNames, new int[0]);
+	}
+
+	public static final IMessageCodec<CodecHandshakeMessage> CODEC = new IMessageCodec<CodecHandshakeMessage>() {
+
+		@Override
+		public void write(ByteBuf byteBuf, CodecHandshakeMessage obj) {
+			PacketUtil.writeStringArray(byteBuf, obj.getClassNames());
+			PacketUtil.writeVarInt(byteBuf, obj.getCodecIds().length);
+			for (int codecId : obj.getCodecIds()) {
+				PacketUtil.writeVarInt(byteBuf, codecId);
+			}
+			PacketUtil.writeStringArray(byteBuf, obj.getCompressionAlgorithms());
+		}
+
+		@Override
+		public CodecHandshakeMessage read(ByteBuf byteBuf) {
+			return read(byteBuf, NetworkConfig.DEFAULT_MAX_STRING_LENGTH);
+		}
+
+		@Override
+		public CodecHandshakeMessage read(ByteBuf byteBuf, NetworkConfig config) {
+			return read(byteBuf, config.getMaxStringLength());
+		}
+
+		private CodecHandshakeMessage read(ByteBuf byteBuf, int maxStringLength) {
+			final String[] classNames = PacketUtil.readStringArray(byteBuf, NetworkManager.MAX_CODEC_ID, maxStringLength);
+			final int count = PacketUtil.readVarInt(byteBuf);
+			if (count < 0 || count > NetworkManager.MAX_CODEC_ID || count > byteBuf.readableBytes()) {
+				throw new CorruptedFrameException("Invalid codec count " + count);
+			}
+			final int[] codecIds = new int[count];
+			for (int i = 0; i < codecIds.length; i++) {
+				codecIds[i] = PacketUtil.readVarInt(byteBuf);
+			}
+			final CodecHandshakeMessage message = new CodecHandshakeMessage(classNames, codecIds);
+			message.setCompressionAlgorithms(PacketUtil.readStringArray(byteBuf, 16, 64));
+			return message;
+		}
+	};
+}
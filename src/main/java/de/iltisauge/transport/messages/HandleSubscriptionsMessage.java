@@ -1,9 +1,9 @@
 package de.iltisauge.transport.messages;
 
+import de.iltisauge.transport.codec.CodecField;
+import de.iltisauge.transport.codec.GenerateCodec;
 import de.iltisauge.transport.network.IMessageCodec;
 import de.iltisauge.transport.network.Message;
-import de.iltisauge.transport.utils.PacketUtil;
-import io.netty.buffer.ByteBuf;
 import lombok.Getter;
 import lombok.Setter;
 
@@ -15,9 +15,12 @@ import lombok.Setter;
  */
 @Getter
 @Setter
+@GenerateCodec(register = false)
 public class HandleSubscriptionsMessage extends Message {
 	
+	@CodecField(nullable = false)
 	private HandleSubscriptionType handleSubscriptionType;
+	@CodecField(nullable = false)
 	private String[] channelsToSubscribe;
 	
 	public HandleSubscriptionsMessage(HandleSubscriptionType handleSubscriptionType, String... channels) {
@@ -25,28 +28,10 @@ public class HandleSubscriptionsMessage extends Message {
 		this.channelsToSubscribe = channels;
 	}
 
-	public static final IMessageCodec<HandleSubscriptionsMessage> CODEC = new IMessageCodec<HandleSubscriptionsMessage>() {
-		
-		@Override
-		public void write(ByteBuf byteBuf, HandleSubscriptionsMessage obj) {
-			PacketUtil.writeString(byteBuf, obj.getHandleSubscriptionType().name());
-			byteBuf.writeInt(obj.getChannelsToSubscribe().length);
-			for (String channel : obj.getChannelsToSubscribe()) {
-				PacketUtil.writeString(byteBuf, channel);
-			}
-		}
-		
-		@Override
-		public HandleSubscriptionsMessage read(ByteBuf byteBuf) {
-			final HandleSubscriptionType handleSubscriptionType = HandleSubscriptionType.valueOf(PacketUtil.readString(byteBuf));
-			final int length = byteBuf.readInt();
-			final String[] channels = new String[length];
-			for (int i = 0; i < channels.length; i++) {
-				channels[i] = PacketUtil.readString(byteBuf);
-			}
-			return new HandleSubscriptionsMessage(handleSubscriptionType, channels);
-		}
-	};
+	/**
+	 * The codec is generated, so the type is written as its ordinal. Neither the type nor a channel may be null.
+	 */
+	public static final IMessageCodec<HandleSubscriptionsMessage> CODEC = HandleSubscriptionsMessageCodec.INSTANCE;
 	
 	public enum HandleSubscriptionType {
 		
@@ -0,0 +1,48 @@
+package de.iltisauge.transport.messages;
+
+import de.iltisauge.transport.network.IMessageCodec;
+import de.iltisauge.transport.network.Message;
+import de.iltisauge.transport.server.Federation;
+import de.iltisauge.transport.utils.PacketUtil;
+import io.netty.buffer.ByteBuf;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * This {@link Message} is exchanged by two servers when they link up, see {@link Federation}.<br>
+ * The server that has connected sends it first and the other server answers with its own node id.
+ *
+ * @author Daniel Ziegler
+ *
+ */
+@Getter
+@Setter
+public class PeerHelloMessage extends Message {
+
+	/**
+	 * The channel through which the hello is sent.
+	 */
+	public static final String CHANNEL = "peer-hello";
+
+	/**
+	 * The id of the server that has sent the hello, see {@link de.iltisauge.transport.network.NetworkConfig#getNodeId()}.
+	 */
+	private String nodeId;
+
+	public PeerHelloMessage(String nodeId) {
+		this.nodeId = nodeId;
+	}
+
+	public static final IMessageCodec<PeerHelloMessage> CODEC = new IMessageCodec<PeerHelloMessage>() {
+
+		@Override
+		public void write(ByteBuf byteBuf, PeerHelloMessage obj) {
+			PacketUtil.writeString(byteBuf, obj.getNodeId());
+		}
+
+		@Override
+		public PeerHelloMessage read(ByteBuf byteBuf) {
+			return new PeerHelloMessage(PacketUtil.readString(byteBuf, 256));
+		}
+	};
+}
@@ -0,0 +1,68 @@
+package de.iltisauge.transport.messages;
+
+import de.iltisauge.transport.network.IMessageCodec;
+import de.iltisauge.transport.network.Message;
+import de.iltisauge.transport.network.NetworkConfig;
+import de.iltisauge.transport.network.Sendable;
+import de.iltisauge.transport.server.MessageLog;
+import de.iltisauge.transport.utils.PacketUtil;
+import io.netty.buffer.ByteBuf;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * This {@link Message} subscribes a durable channel from an earlier offset or time, see {@link MessageLog}.<br>
+ * The server first replays the logged messages of the channel and then subscribes it like a {@link HandleSubscriptionsMessage}.
+ *
+ * @author Daniel Ziegler
+ *
+ */
+@Getter
+@Setter
+public class ReplaySubscriptionMessage extends Message {
+
+	/**
+	 * The channel through which the subscription is sent.
+	 */
+	public static final String CHANNEL = "replay-subscription";
+
+	private String channelToSubscribe;
+	/**
+	 * The offset of the first message to replay or {@link Sendable#NO_OFFSET} if the messages are replayed from {@link #fromTimestamp}.
+	 */
+	private long fromOffset;
+	/**
+	 * The time in milliseconds after which the messages to replay have been sent. It is only used if there is no {@link #fromOffset}.
+	 */
+	private long fromTimestamp;
+
+	public ReplaySubscriptionMessage(String channelToSubscribe, long fromOffset, long fromTimestamp) {
+		this.channelToSubscribe = channelToSubscribe;
+		this.fromOffset = fromOffset;
+		this.fromTimestamp = fromTimestamp;
+	}
+
+	public static final IMessageCodec<ReplaySubscriptionMessage> CODEC = new IMessageCodec<ReplaySubscriptionMessage>() {
+
+		@Override
+		public void write(ByteBuf byteBuf, ReplaySubscriptionMessage obj) {
+			PacketUtil.writeString(byteBuf, obj.getChannelToSubscribe());
+			byteBuf.writeLong(obj.getFromOffset());
+			byteBuf.writeLong(obj.getFromTimestamp());
+		}
+
+		@Override
+		public ReplaySubscriptionMessage read(ByteBuf byteBuf) {
+			return read(byteBuf, NetworkConfig.DEFAULT_MAX_STRING_LENGTH);
+		}
+
+		@Override
+		public ReplaySubscriptionMessage read(ByteBuf byteBuf, NetworkConfig config) {
+			return read(byteBuf, config.getMaxStringLength());
+		}
+
+		private ReplaySubscriptionMessage read(ByteBuf byteBuf, int maxStringLength) {
+			return new ReplaySubscriptionMessage(PacketUtil.readString(byteBuf, maxStringLength), byteBuf.readLong(), byteBuf.readLong());
+		}
+	};
+}
@@ -0,0 +1,51 @@
+package de.iltisauge.transport.messages;
+
+import de.iltisauge.transport.network.IMessageCodec;
+import de.iltisauge.transport.network.ISession;
+import de.iltisauge.transport.network.Message;
+import de.iltisauge.transport.network.Sendable;
+import de.iltisauge.transport.utils.PacketUtil;
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.CorruptedFrameException;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * This {@link Message} is sent by the server to tell a client the id of its session, see {@link ISession#getId()}.<br>
+ * Other clients can send messages straight to the session by this id.
+ *
+ * @author Daniel Ziegler
+ *
+ */
+@Getter
+@Setter
+public class SessionIdMessage extends Message {
+
+	/**
+	 * The channel through which the session id is sent.
+	 */
+	public static final String CHANNEL = "session-id";
+
+	private int sessionId;
+
+	public SessionIdMessage(int sessionId) {
+		this.sessionId = sessionId;
+	}
+
+	public static final IMessageCodec<SessionIdMessage> CODEC = new IMessageCodec<SessionIdMessage>() {
+
+		@Override
+		public void write(ByteBuf byteBuf, SessionIdMessage obj) {
+			PacketUtil.writeVarInt(byteBuf, obj.getSessionId());
+		}
+
+		@Override
+		public SessionIdMessage read(ByteBuf byteBuf) {
+			final int sessionId = PacketUtil.readVarInt(byteBuf);
+			if (sessionId <= Sendable.NO_SESSION_ID) {
+				throw new CorruptedFrameException("Invalid session id " + sessionId);
+			}
+			return new SessionIdMessage(sessionId);
+		}
+	};
+}
@@ -1,11 +1,13 @@
 package de.iltisauge.transport.messages;
 
 import de.iltisauge.transport.network.IMessageCodec;
+import de.iltisauge.transport.network.IRecyclableMessageCodec;
 import de.iltisauge.transport.network.Message;
 import de.iltisauge.transport.utils.PacketUtil;
 import io.netty.buffer.ByteBuf;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
+import lombok.NoArgsConstructor;
 import lombok.Setter;
 
 /**
@@ -15,13 +17,14 @@ import lombok.Setter;
  *
  */
 @AllArgsConstructor
+@NoArgsConstructor
 @Getter
 @Setter
 public class TextMessage extends Message {
 	
 	private String text;
 	
-	public static IMessageCodec<TextMessage> CODEC = new IMessageCodec<TextMessage>() {
+	public static IMessageCodec<TextMessage> CODEC = new IRecyclableMessageCodec<TextMessage>() {
 		
 		@Override
 		public void write(ByteBuf byteBuf, TextMessage obj) {
@@ -29,8 +32,13 @@ public class TextMessage extends Message {
 		}
 		
 		@Override
-		public TextMessage read(ByteBuf byteBuf) {
-			return new TextMessage(PacketUtil.readString(byteBuf));
+		public TextMessage newMessage() {
+			return new TextMessage();
+		}
+		
+		@Override
+		public void read(ByteBuf byteBuf, TextMessage obj) {
+			obj.setText(PacketUtil.readString(byteBuf));
 		}
 	};
 }
@@ -0,0 +1,141 @@
+package de.iltisauge.transport.network;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.logging.Level;
+
+import de.iltisauge.transport.Transport;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.ReferenceCountUtil;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * This class extends {@link ChannelDuplexHandler} and keeps a slow session from buffering an unlimited amount of frames.<br>
+ * Frames are passed on as long as the channel is writable, which depends on the water marks of {@link NetworkConfig#getWriteBufferHighWaterMark()}
+ * and {@link NetworkConfig#getWriteBufferLowWaterMark()}. Otherwise they are queued until the channel becomes writable again.
+ * If the queue exceeds {@link NetworkConfig#getMaxQueuedMessages()} or {@link NetworkConfig#getMaxQueuedBytes()},
+ * the {@link OverflowPolicy} of the config decides which frame is dropped or whether the session is disconnected.<br>
+ * Dropped frames are released and their write fails. Every overflow is recorded in the {@link NetworkMetrics} of the device.
+ * All state is only accessed on the event loop of the channel, so a slow session never blocks the threads that write to other sessions.
+ *
+ * @author Daniel Ziegler
+ *
+ */
+@RequiredArgsConstructor
+public class BackpressureHandler extends ChannelDuplexHandler {
+
+	private static final IOException DROPPED = new IOException("The message has been dropped, because the session is too slow");
+	private static final IOException DISCONNECTED = new IOException("The session has been disconnected, because it is too slow");
+
+	static {
+		DROPPED.setStackTrace(new StackTraceElement[0]);
+		DISCONNECTED.setStackTrace(new StackTraceElement[0]);
+	}
+
+	private final NetworkConfig config;
+	private final NetworkMetrics metrics;
+	private final ArrayDeque<PendingWrite> queue = new ArrayDeque<>();
+	private long queuedBytes;
+
+	@Override
+	public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+		// A closed channel fails the write itself, so there is nothing to queue
+		if (queue.isEmpty() && ctx.channel().isWritable() || !ctx.channel().isActive()) {
+			ctx.write(msg, promise);
+			return;
+		}
+		final int size = msg instanceof ByteBuf ? ((ByteBuf) msg).readableBytes() : 0;
+		if (queue.size() >= config.getMaxQueuedMessages() || queuedBytes + size > config.getMaxQueuedBytes()) {
+			switch (config.getOverflowPolicy()) {
+			case DROP_NEWEST:
+				drop(msg, promise, DROPPED);
+				return;
+			case DROP_OLDEST:
+				while (!queue.isEmpty() && (queue.size() >= config.getMaxQueuedMessages() || queuedBytes + size > config.getMaxQueuedBytes())) {
+					final PendingWrite oldest = queue.poll();
+					queuedBytes -= oldest.size;
+					drop(oldest.msg, oldest.promise, DROPPED);
+				}
+				break;
+			case DISCONNECT:
+				drop(msg, promise, DISCONNECTED);
+				discardQueue();
+				if (metrics != null) {
+					metrics.getOverflowDisconnects().increment();
+				}
+				Transport.getLogger().log(Level.WARNING, "Disconnecting " + ctx.channel().remoteAddress() + ", because its outbound queue is full");
+				ctx.close();
+				return;
+			}
+		}
+		queue.add(new PendingWrite(msg, promise, size));
+		queuedBytes += size;
+		if (metrics != null) {
+			metrics.getMaxQueuedMessages().accumulate(queue.size());
+		}
+	}
+
+	@Override
+	public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+		if (ctx.channel().isWritable() && !queue.isEmpty()) {
+			boolean written = false;
+			while (!queue.isEmpty() && ctx.channel().isWritable()) {
+				final PendingWrite pendingWrite = queue.poll();
+				queuedBytes -= pendingWrite.size;
+				ctx.write(pendingWrite.msg, pendingWrite.promise);
+				written = true;
+			}
+			if (written) {
+				ctx.flush();
+			}
+		}
+		ctx.fireChannelWritabilityChanged();
+	}
+
+	@Override
+	public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+		discardQueue();
+		ctx.fireChannelInactive();
+	}
+
+	@Override
+	public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+		discardQueue();
+	}
+
+	private void discardQueue() {
+		PendingWrite pendingWrite;
+		while ((pendingWrite = queue.poll()) != null) {
+			ReferenceCountUtil.release(pendingWrite.msg);
+			pendingWrite.promise.tryFailure(DISCONNECTED);
+		}
+		queuedBytes = 0;
+	}
+
+	private void drop(Object msg, ChannelPromise promise, IOException cause) {
+		ReferenceCountUtil.release(msg);
+		promise.tryFailure(cause);
+		if (metrics != null) {
+			metrics.getOverflowDrops().increment();
+		}
+	}
+
+	/**
+	 *
+	 * @return the amount of frames that are currently queued.
+	 */
+	public int getQueuedMessages() {
+		return queue.size();
+	}
+
+	@RequiredArgsConstructor
+	private static final class PendingWrite {
+
+		private final Object msg;
+		private final ChannelPromise promise;
+		private final int size;
+	}
+}
@@ -6,6 +6,8 @@ import de.iltisauge.transport.server.NetworkServer;
 import de.iltisauge.transport.utils.Util;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.DecoderException;
+import io.netty.util.ReferenceCountUtil;
 import lombok.RequiredArgsConstructor;
 
 import java.io.IOException;
@@ -33,12 +35,11 @@ public class ChannelInboundHandler extends SimpleChannelInboundHandler<Sendable>
 			return;
 		}
 		final ISession session = Util.getSession(ctx, networkDevice);
-		if (Transport.getServer() != null) {
-			Transport.getServer().getNetworkManager().registerSession(session);
+		if (networkDevice instanceof NetworkServer) {
+			((NetworkServer) networkDevice).getNetworkManager().registerSession(session);
 		}
-		final NetworkClient networkClient = Transport.getClient();
-		if (networkClient != null) {
-			networkClient.setSession(session);
+		if (networkDevice instanceof NetworkClient) {
+			((NetworkClient) networkDevice).onSessionActive(session);
 		}
 		if (networkDevice.isLogTraffic()) {
 			Transport.getLogger().log(Level.INFO, "[<->] Connection established with " + ctx.channel().remoteAddress());
@@ -46,18 +47,19 @@ public class ChannelInboundHandler extends SimpleChannelInboundHandler<Sendable>
 	}
 	
 	/**
-	 * This method is called when the connection between a {@link NetworkClient} and the {@link NetworkServer} has been interrupted. 
+	 * This method is called when the connection between a {@link NetworkClient} and the {@link NetworkServer} has been interrupted.<br>
+	 * The client reconnects, see {@link NetworkClient#onSessionInactive(ISession)}.
 	 */
 	@Override
 	public void channelInactive(ChannelHandlerContext ctx) throws Exception {
 		final ISession session = Util.getSession(ctx, networkDevice);
-		if (Transport.getServer() != null) {
-			Transport.getServer().getNetworkManager().unregisterSession(session);
+		if (networkDevice instanceof NetworkServer) {
+			((NetworkServer) networkDevice).getNetworkManager().unregisterSession(session);
 		}
-		if (Transport.getClient() != null) {
-			Transport.getClient().setSession(null);
+		networkDevice.getNetworkManager().onSessionInactive(session);
+		if (networkDevice instanceof NetworkClient) {
+			((NetworkClient) networkDevice).onSessionInactive(session);
 		}
-		Transport.getNetworkManager().onSessionInactive(session);
 		if (networkDevice.isLogTraffic()) {
 			Transport.getLogger().log(Level.INFO, "[<-/->] Connection interrupted with " + ctx.channel().remoteAddress());
 		}
@@ -71,16 +73,65 @@ public class ChannelInboundHandler extends SimpleChannelInboundHandler<Sendable>
 					|| cause.getMessage().equals("Eine vorhandene Verbindung wurde vom Remotehost geschlossen"))) {
 			return;
 		}
+		if (cause instanceof DecoderException) {
+			// The stream cannot be trusted after a malformed frame, so the connection is closed and the frame is only logged once
+			if (ctx.channel().isActive()) {
+				Transport.getLogger().log(Level.WARNING, "Closed the connection to " + ctx.channel().remoteAddress() + " after a malformed frame: " + cause.getMessage());
+				ctx.close();
+			}
+			return;
+		}
 		cause.printStackTrace();
 	}
 	
 	/**
 	 * This method is called when a {@link Sendable} was decoded.<br>
-	 * If the {@link #networkDevice} is not a {@link NetworkServer} and the object is not a {@link ServerMessageWrapper} the registered {@link IMessageEvent}s get called.
+	 * If the {@link #networkDevice} is not a {@link NetworkServer} and the object is not a {@link ServerMessageWrapper} the registered {@link IMessageEvent}s get called.<br>
+	 * A reply is not dispatched to any {@link IMessageEvent}, the server routes it back to the sender of the request
+	 * and the client completes the request it belongs to, see {@link NetworkClient#request(IMessage, String, long, java.util.concurrent.TimeUnit)}.<br>
+	 * If the device has a {@link MessageDispatcher}, all of this happens on its executor and the event loop only hands the message over.
+	 * The ids that a message binds are applied on the event loop beforehand, because the following frames are decoded with them, see {@link NetworkDevice#applyBindings(Sendable)}.<br>
+	 * Every received message is released after it has been dispatched, which releases the payload of a {@link ServerMessageWrapper}
+	 * and returns a recycled message to its pool, see {@link Message}.
 	 */
 	@Override
 	protected void channelRead0(ChannelHandlerContext ctx, Sendable object) throws Exception {
-		Transport.getNetworkManager().fireInboundMessageEvents(object);
+		networkDevice.applyBindings(object);
+		final MessageDispatcher dispatcher = networkDevice.getDispatcher();
+		if (dispatcher == null) {
+			dispatch(object);
+			return;
+		}
+		ReferenceCountUtil.retain(object);
+		dispatcher.dispatch(ctx.channel(), () -> {
+			try {
+				dispatch(object);
+			} finally {
+				ReferenceCountUtil.release(object);
+			}
+		});
+	}
+
+	private void dispatch(Sendable object) {
+		final long startNanos = System.nanoTime();
+		if (object.isReply()) {
+			if (networkDevice instanceof NetworkServer) {
+				((NetworkServer) networkDevice).forwardReply(object);
+			} else if (networkDevice instanceof NetworkClient) {
+				((NetworkClient) networkDevice).getPendingRequests().complete(object);
+			}
+			if (networkDevice.getConfig().isRecordMetrics()) {
+				networkDevice.getMetrics().getDispatchTime().recordSince(startNanos);
+			}
+			return;
+		}
+		networkDevice.getNetworkManager().fireInboundMessageEvents(object);
+		if (networkDevice instanceof NetworkClient && object.getOffset() != Sendable.NO_OFFSET) {
+			((NetworkClient) networkDevice).getNetworkManager().onOffsetReceived(object);
+		}
+		if (networkDevice.getConfig().isRecordMetrics()) {
+			networkDevice.getMetrics().getDispatchTime().recordSince(startNanos);
+		}
 		if (networkDevice instanceof NetworkServer && object instanceof ServerMessageWrapper) {
 			((NetworkServer) networkDevice).forwardMessage((ServerMessageWrapper) object);
 		}
@@ -1,10 +1,19 @@
 package de.iltisauge.transport.network;
 
+import de.iltisauge.transport.TransportContext;
+import de.iltisauge.transport.server.Federation;
+import de.iltisauge.transport.server.NetworkServer;
 import io.netty.channel.Channel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
 import lombok.RequiredArgsConstructor;
 
 /**
- * This class uses a {@link io.netty.channel.ChannelInitializer} to add a {@link MessageEncoder}, {@link MessageDecoder} and the {@link ChannelInboundHandler} to a new channel's pipeline.
+ * This class uses a {@link io.netty.channel.ChannelInitializer} to add a {@link MessageEncoder}, {@link MessageDecoder} and the {@link ChannelInboundHandler} to a new channel's pipeline.<br>
+ * Every frame on the wire is prefixed with its length, so the {@link MessageDecoder} only gets called once a whole frame has arrived.<br>
+ * The channel is bound to the {@link TransportContext} of the device and to its {@link NetworkMetrics}, unless recording metrics is disabled.
+ * On the server it also gets the {@link KnownChannelIds} of its client, unless it is a link to another server, see {@link Federation}.<br>
+ * The write buffer water marks of the {@link NetworkConfig} are applied to the channel and the {@link BackpressureHandler} is added right behind the frame decoder, so it queues the encoded frames of a slow session.
+ * If write batching is enabled a {@link FlushBatchingHandler} is added between the {@link BackpressureHandler} and the {@link MessageEncoder}, so it sees the encoded frames.
  * 
  * @author Daniel Ziegler
  *
@@ -16,6 +25,25 @@ public class ChannelInitializer extends io.netty.channel.ChannelInitializer<Chan
 	
 	@Override
 	protected void initChannel(Channel ch) throws Exception {
-		ch.pipeline().addLast(new MessageEncoder(), new MessageDecoder(networkDevice), new ChannelInboundHandler(networkDevice));
+		final NetworkConfig config = networkDevice.getConfig();
+		networkDevice.getContext().bind(ch);
+		if (config.isRecordMetrics()) {
+			networkDevice.getMetrics().bind(ch);
+		}
+		if (networkDevice instanceof NetworkServer && !Federation.isPeer(ch)) {
+			ch.attr(KnownChannelIds.KNOWN_CHANNEL_IDS).set(new KnownChannelIds());
+		}
+		final LengthFieldBasedFrameDecoder frameDecoder = new LengthFieldBasedFrameDecoder(config.getMaxFrameLength(),
+				0, MessageEncoder.LENGTH_FIELD_SIZE, 0, MessageEncoder.LENGTH_FIELD_SIZE);
+		// Lowering the low water mark first keeps it below the high water mark in every order of the new values
+		ch.config().setWriteBufferLowWaterMark(0);
+		ch.config().setWriteBufferHighWaterMark(config.getWriteBufferHighWaterMark());
+		ch.config().setWriteBufferLowWaterMark(config.getWriteBufferLowWaterMark());
+		ch.pipeline().addLast(frameDecoder);
+		ch.pipeline().addLast(new BackpressureHandler(config, config.isRecordMetrics() ? networkDevice.getMetrics() : null));
+		if (config.isBatchWrites()) {
+			ch.pipeline().addLast(new FlushBatchingHandler(config, networkDevice.getFlushStatistics()));
+		}
+		ch.pipeline().addLast(new MessageEncoder(networkDevice.getContext()), new MessageDecoder(networkDevice), new ChannelInboundHandler(networkDevice));
 	}
-}
\ No newline at end of file
+}
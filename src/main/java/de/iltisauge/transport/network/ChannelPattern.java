@@ -0,0 +1,98 @@
+package de.iltisauge.transport.network;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class contains the rules of channel patterns, which subscribe many channels at once.<br>
+ * Channel names are divided into segments by dots, such as <code>match.123.score</code>.
+ * In a pattern <code>*</code> matches exactly one segment and <code>&gt;</code> matches one or more segments at the end of the channel name,
+ * so <code>match.*.score</code> and <code>match.&gt;</code> both match <code>match.123.score</code>.<br>
+ * Published channel names are never patterns, their segments are compared literally.
+ *
+ * @author Daniel Ziegler
+ *
+ */
+public class ChannelPattern {
+
+	/**
+	 * The character that divides the segments of a channel name.
+	 */
+	public static final char SEPARATOR = '.';
+
+	/**
+	 * The segment that matches exactly one segment.
+	 */
+	public static final String ANY_SEGMENT = "*";
+
+	/**
+	 * The last segment of a pattern that matches one or more segments.
+	 */
+	public static final String REMAINING_SEGMENTS = ">";
+
+	/**
+	 *
+	 * @param channel
+	 * @return true, if one of the segments of the channel is a wildcard.
+	 */
+	public static boolean isPattern(String channel) {
+		for (String segment : getSegments(channel)) {
+			if (segment.equals(ANY_SEGMENT) || segment.equals(REMAINING_SEGMENTS)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 *
+	 * @param pattern
+	 * @return true, if {@link #REMAINING_SEGMENTS} is only used as the last segment of the pattern.
+	 */
+	public static boolean isValid(String pattern) {
+		final String[] segments = getSegments(pattern);
+		for (int i = 0; i < segments.length - 1; i++) {
+			if (segments[i].equals(REMAINING_SEGMENTS)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 *
+	 * @param pattern
+	 * @param channel
+	 * @return true, if the pattern matches the channel. A channel that is not a pattern only matches itself.
+	 */
+	public static boolean matches(String pattern, String channel) {
+		final String[] patternSegments = getSegments(pattern);
+		final String[] channelSegments = getSegments(channel);
+		for (int i = 0; i < patternSegments.length; i++) {
+			if (patternSegments[i].equals(REMAINING_SEGMENTS)) {
+				return i == patternSegments.length - 1 && channelSegments.length > i;
+			}
+			if (i >= channelSegments.length || !patternSegments[i].equals(ANY_SEGMENT) && !patternSegments[i].equals(channelSegments[i])) {
+				return false;
+			}
+		}
+		return patternSegments.length == channelSegments.length;
+	}
+
+	/**
+	 *
+	 * @param channel
+	 * @return the segments of the channel name. An empty segment is kept, so every name has at least one segment.
+	 */
+	public static String[] getSegments(String channel) {
+		final List<String> segments = new ArrayList<>();
+		int start = 0;
+		int end;
+		while ((end = channel.indexOf(SEPARATOR, start)) >= 0) {
+			segments.add(channel.substring(start, end));
+			start = end + 1;
+		}
+		segments.add(channel.substring(start));
+		return segments.toArray(new String[segments.size()]);
+	}
+}
@@ -0,0 +1,241 @@
+package de.iltisauge.transport.network;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+
+import de.iltisauge.transport.Transport;
+import de.iltisauge.transport.messages.ChannelIdsMessage;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * This class maps channel names to compact numeric ids, so frames can reference a channel by its id instead of repeating its name.<br>
+ * The server assigns the ids with {@link #resolve(String)} when a channel is subscribed,
+ * and tells every client about the ids it uses with a {@link ChannelIdsMessage}. The client binds them with {@link #bind(String, int)}.<br>
+ * Ids start at 1. The id 0 means that the channel has no id, so its name has to be written.<br>
+ * Once a channel has no subscribers left, the server releases its id with {@link #release(String)} and the clients that know it unbind it with {@link #unbind(int)}.
+ * The name of a released id is kept, so frames that have used the id before it has been unbound can still be decoded, see {@link #getReleasedName(int)}.
+ * The server reuses the id once every client has unbound it, see {@link #free(int)}.<br>
+ * Lookups do not lock, changes are serialized by a lock.
+ *
+ * @author Daniel Ziegler
+ *
+ */
+public class ChannelRegistry {
+
+	/**
+	 * The id that stands for a channel without id.
+	 */
+	public static final int NO_ID = 0;
+
+	/**
+	 * The maximum amount of ids that are assigned by {@link #resolve(String)}.
+	 * Channels that are subscribed while all ids are in use are written by name.
+	 */
+	@Getter
+	@Setter
+	private int maxChannelIds = 1 << 20;
+	private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+	/*
+	 * Contains the canonical channel name of every id. The array is replaced when it grows, so it can be read without locking.
+	 */
+	private volatile String[] names = new String[64];
+	/*
+	 * Contains the former channel name of every id that has been released or unbound and not been bound again.
+	 */
+	private final Map<Integer, String> releasedNames = new ConcurrentHashMap<>();
+	/*
+	 * The released ids that every client has unbound, which are assigned again before new ids.
+	 */
+	private final Deque<Integer> freeIds = new ArrayDeque<>();
+	private int highestId = NO_ID;
+	private boolean limitWarned;
+	private final Object lock = new Object();
+
+	/**
+	 * This method does not lock.
+	 * @param channel
+	 * @return the id of the channel or {@link #NO_ID}.
+	 */
+	public int getId(String channel) {
+		final Integer id = ids.get(channel);
+		return id == null ? NO_ID : id;
+	}
+
+	/**
+	 * This method does not lock.
+	 * @param id
+	 * @return the name of the channel with the given id or null.
+	 */
+	public String getName(int id) {
+		final String[] names = this.names;
+		return id <= NO_ID || id >= names.length ? null : names[id];
+	}
+
+	/**
+	 * This method does not lock.
+	 * @param id
+	 * @return the name that the channel with the given id had before the id has been released or unbound, or null.
+	 */
+	public String getReleasedName(int id) {
+		return releasedNames.get(id);
+	}
+
+	/**
+	 * Returns the id of the channel and assigns a free id if it has none yet.
+	 * @param channel
+	 * @return the id of the channel or {@link #NO_ID} if all ids are in use.
+	 */
+	public int resolve(String channel) {
+		final int id = getId(channel);
+		if (id != NO_ID) {
+			return id;
+		}
+		synchronized (lock) {
+			final Integer existingId = ids.get(channel);
+			if (existingId != null) {
+				return existingId;
+			}
+			final Integer freeId = freeIds.poll();
+			if (freeId != null) {
+				put(channel, freeId);
+				return freeId;
+			}
+			if (highestId >= maxChannelIds) {
+				if (!limitWarned) {
+					limitWarned = true;
+					Transport.getLogger().log(Level.WARNING, "Reached the limit of " + maxChannelIds + " channel ids, new channels are written by name until ids are released");
+				}
+				return NO_ID;
+			}
+			final int newId = highestId + 1;
+			put(channel, newId);
+			return newId;
+		}
+	}
+
+	/**
+	 * Releases the id of a channel, so the channel is written by name from now on.
+	 * The id is not assigned again until it is given to {@link #free(int)}.
+	 * @param channel
+	 * @return the released id or {@link #NO_ID} if the channel has no id.
+	 */
+	public int release(String channel) {
+		synchronized (lock) {
+			final Integer id = ids.remove(channel);
+			if (id == null) {
+				return NO_ID;
+			}
+			removeName(id, channel);
+			return id;
+		}
+	}
+
+	/**
+	 * Makes a released id available again, once no client uses it anymore.
+	 * @param id
+	 */
+	public void free(int id) {
+		synchronized (lock) {
+			if (releasedNames.remove(id) != null) {
+				freeIds.add(id);
+			}
+		}
+	}
+
+	/**
+	 * Unbinds an id that the server has released.
+	 * @param id
+	 */
+	public void unbind(int id) {
+		synchronized (lock) {
+			final String channel = getName(id);
+			if (channel != null) {
+				ids.remove(channel, id);
+				removeName(id, channel);
+			}
+		}
+	}
+
+	/**
+	 * Binds an id that has been assigned by the server.
+	 * @param channel
+	 * @param id
+	 */
+	public void bind(String channel, int id) {
+		if (id <= NO_ID) {
+			throw new IllegalArgumentException("Invalid channel id " + id + " for channel " + channel);
+		}
+		synchronized (lock) {
+			put(channel, id);
+		}
+	}
+
+	/**
+	 * Unbinds the released ids of a {@link ChannelIdsMessage} and binds its ids.
+	 * @param message
+	 */
+	public void bind(ChannelIdsMessage message) {
+		for (int id : message.getReleasedIds()) {
+			unbind(id);
+		}
+		final String[] channels = message.getChannelNames();
+		final int[] ids = message.getChannelIds();
+		if (channels.length != ids.length) {
+			Transport.getLogger().log(Level.WARNING, "Ignored channel ids with " + channels.length + " channels and " + ids.length + " ids");
+			return;
+		}
+		for (int i = 0; i < channels.length; i++) {
+			bind(channels[i], ids[i]);
+		}
+	}
+
+	private void put(String channel, int id) {
+		String[] names = this.names;
+		if (id >= names.length) {
+			names = Arrays.copyOf(names, Math.max(names.length * 2, id + 1));
+		}
+		final String previous = names[id];
+		if (previous != null && !previous.equals(channel)) {
+			ids.remove(previous, id);
+		}
+		names[id] = channel;
+		releasedNames.remove(id);
+		ids.put(channel, id);
+		highestId = Math.max(highestId, id);
+		this.names = names;
+	}
+
+	private void removeName(int id, String channel) {
+		// The released name is put first, so a reader that does not find the name can always find the released name
+		releasedNames.put(id, channel);
+		final String[] names = this.names;
+		names[id] = null;
+		this.names = names;
+	}
+
+	/**
+	 * Removes all ids. The client calls this when the connection to the server is lost, because the ids are only valid for that server.
+	 */
+	public void clear() {
+		synchronized (lock) {
+			ids.clear();
+			names = new String[64];
+			releasedNames.clear();
+			freeIds.clear();
+			highestId = NO_ID;
+		}
+	}
+
+	/**
+	 *
+	 * @return the amount of channels that have an id.
+	 */
+	public int size() {
+		return ids.size();
+	}
+}
@@ -0,0 +1,261 @@
+package de.iltisauge.transport.network;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import de.iltisauge.transport.messages.CodecHandshakeMessage;
+import de.iltisauge.transport.utils.PacketUtil;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.compression.Snappy;
+import io.netty.util.AttributeKey;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * This enum contains the algorithms that can compress the payload of a frame.<br>
+ * Every connection negotiates the algorithm that may be sent to it in the {@link CodecHandshakeMessage}, see {@link NetworkConfig#getCompressionAlgorithms()}.
+ * The algorithm of a compressed payload is written into the flags of its frame, so every frame can be decoded on its own.<br>
+ * Only the payload is compressed, so the server can read the header of a frame and forward a compressed payload without decompressing it.
+ * A compressed payload starts with its uncompressed length, followed by the compressed bytes.
+ *
+ * @author Daniel Ziegler
+ *
+ */
+@RequiredArgsConstructor
+public enum CompressionAlgorithm {
+
+	/**
+	 * The deflate algorithm of {@link Deflater}, which has a good compression ratio.
+	 */
+	DEFLATE(1) {
+
+		@Override
+		protected void compress(ByteBuf in, ByteBuf out) {
+			final Deflater deflater = DEFLATERS.get();
+			deflater.reset();
+			deflater.setInput(toArray(in));
+			deflater.finish();
+			final byte[] chunk = CHUNKS.get();
+			while (!deflater.finished()) {
+				out.writeBytes(chunk, 0, deflater.deflate(chunk));
+			}
+		}
+
+		@Override
+		protected void decompress(ByteBuf in, ByteBuf out) {
+			final Inflater inflater = INFLATERS.get();
+			inflater.reset();
+			inflater.setInput(toArray(in));
+			final byte[] chunk = CHUNKS.get();
+			try {
+				while (!inflater.finished()) {
+					final int length = inflater.inflate(chunk);
+					if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+						throw new CorruptedFrameException("Truncated deflate payload");
+					}
+					out.writeBytes(chunk, 0, length);
+				}
+			} catch (DataFormatException exception) {
+				throw new CorruptedFrameException(exception);
+			}
+		}
+	},
+	/**
+	 * The snappy algorithm of Netty, which is faster than {@link #DEFLATE} but compresses less.<br>
+	 * The payload is split into blocks like in the framed snappy format, each of them is written as its compressed length,
+	 * the checksum of its uncompressed content and the compressed content.
+	 */
+	SNAPPY(2) {
+
+		@Override
+		protected void compress(ByteBuf in, ByteBuf out) {
+			final Snappy snappy = new Snappy();
+			while (in.isReadable()) {
+				final int blockLength = Math.min(in.readableBytes(), SNAPPY_BLOCK_SIZE);
+				final int checksum = Snappy.calculateChecksum(in, in.readerIndex(), blockLength);
+				final ByteBuf block = out.alloc().buffer(blockLength);
+				try {
+					// The encoder does not move the reader index of its input
+					snappy.encode(in.slice(in.readerIndex(), blockLength), block, blockLength);
+					snappy.reset();
+					in.skipBytes(blockLength);
+					PacketUtil.writeVarInt(out, block.readableBytes());
+					out.writeInt(checksum);
+					out.writeBytes(block);
+				} finally {
+					block.release();
+				}
+			}
+		}
+
+		@Override
+		protected void decompress(ByteBuf in, ByteBuf out) {
+			final Snappy snappy = new Snappy();
+			while (in.isReadable()) {
+				final int blockLength = PacketUtil.readVarInt(in);
+				if (blockLength <= 0 || blockLength > in.readableBytes() - 4) {
+					throw new CorruptedFrameException("Invalid snappy block length " + blockLength);
+				}
+				final int checksum = in.readInt();
+				final int startIndex = out.writerIndex();
+				snappy.decode(in.readSlice(blockLength), out);
+				snappy.reset();
+				if (Snappy.calculateChecksum(out, startIndex, out.writerIndex() - startIndex) != checksum) {
+					throw new CorruptedFrameException("The checksum of a snappy block does not match");
+				}
+			}
+		}
+	};
+
+	/**
+	 * Contains the algorithm that may be used for the payloads that are written to a channel, or null if they are not compressed.
+	 */
+	public static final AttributeKey<CompressionAlgorithm> NEGOTIATED = AttributeKey.valueOf("negotiated-compression");
+
+	private static final CompressionAlgorithm[] BY_ID = new CompressionAlgorithm[8];
+	private static final ThreadLocal<Deflater> DEFLATERS = ThreadLocal.withInitial(Deflater::new);
+	private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(Inflater::new);
+	/**
+	 * The size of the blocks that are compressed with {@link #SNAPPY}. The snappy encoder of Netty does not support bigger inputs.
+	 */
+	private static final int SNAPPY_BLOCK_SIZE = 32 * 1024 - 1;
+	private static final ThreadLocal<byte[]> CHUNKS = ThreadLocal.withInitial(() -> new byte[8192]);
+
+	static {
+		for (CompressionAlgorithm algorithm : values()) {
+			BY_ID[algorithm.getId()] = algorithm;
+		}
+	}
+
+	/**
+	 * The id of the algorithm in the flags of a frame. 0 means that the payload is not compressed.
+	 */
+	@Getter
+	private final int id;
+
+	protected abstract void compress(ByteBuf in, ByteBuf out);
+
+	protected abstract void decompress(ByteBuf in, ByteBuf out);
+
+	/**
+	 * Compresses the payload between the given index and the writer index of the buffer, if it is at least <code>threshold</code> bytes long.<br>
+	 * The payload is left as it is if compressing it does not make it smaller.
+	 * @param out
+	 * @param payloadIndex
+	 * @param threshold
+	 * @return true, if the payload has been compressed.
+	 */
+	public boolean compressPayload(ByteBuf out, int payloadIndex, int threshold) {
+		final int length = out.writerIndex() - payloadIndex;
+		if (length < threshold) {
+			return false;
+		}
+		final ByteBuf compressed = out.alloc().buffer(length);
+		try {
+			PacketUtil.writeVarInt(compressed, length);
+			compress(out.slice(payloadIndex, length), compressed);
+			if (compressed.readableBytes() >= length) {
+				return false;
+			}
+			out.writerIndex(payloadIndex);
+			out.writeBytes(compressed);
+			return true;
+		} finally {
+			compressed.release();
+		}
+	}
+
+	/**
+	 * Reads a compressed payload.
+	 * @param payload the compressed payload, which is read completely.
+	 * @param allocator
+	 * @param maxLength the maximum uncompressed length in bytes.
+	 * @return a new buffer with the uncompressed payload. The caller owns it and has to release it.
+	 * @throws CorruptedFrameException if the payload is damaged or longer than <code>maxLength</code>.
+	 */
+	public ByteBuf decompressPayload(ByteBuf payload, ByteBufAllocator allocator, int maxLength) {
+		final int length = PacketUtil.readVarInt(payload);
+		if (length < 0 || length > maxLength) {
+			throw new CorruptedFrameException("Invalid uncompressed payload length " + length + " (maximum is " + maxLength + ")");
+		}
+		// The capacity is limited, so a damaged payload cannot inflate beyond the announced length
+		final ByteBuf out = allocator.buffer(length, length);
+		try {
+			decompress(payload, out);
+			if (out.readableBytes() != length) {
+				throw new CorruptedFrameException("Expected " + length + " uncompressed bytes, but got " + out.readableBytes());
+			}
+			return out;
+		} catch (RuntimeException exception) {
+			out.release();
+			if (exception instanceof CorruptedFrameException) {
+				throw exception;
+			}
+			throw new CorruptedFrameException(exception);
+		}
+	}
+
+	/**
+	 *
+	 * @param channel
+	 * @return the algorithm that may be used for payloads that are written to the channel, or null.
+	 */
+	public static CompressionAlgorithm of(Channel channel) {
+		return channel.attr(NEGOTIATED).get();
+	}
+
+	/**
+	 *
+	 * @param id
+	 * @return the algorithm with the given id or null if the id is 0.
+	 * @throws CorruptedFrameException if there is no algorithm with this id.
+	 */
+	public static CompressionAlgorithm byId(int id) {
+		if (id == 0) {
+			return null;
+		}
+		final CompressionAlgorithm algorithm = id < BY_ID.length ? BY_ID[id] : null;
+		if (algorithm == null) {
+			throw new CorruptedFrameException("Unknown compression algorithm " + id);
+		}
+		return algorithm;
+	}
+
+	/**
+	 * Picks the first of the preferred algorithms that is offered by the other side.
+	 * @param preferred
+	 * @param offered the names of the algorithms, unknown names are ignored.
+	 * @return the chosen algorithm or null if there is none in common.
+	 */
+	public static CompressionAlgorithm choose(CompressionAlgorithm[] preferred, String[] offered) {
+		for (CompressionAlgorithm algorithm : preferred) {
+			for (String name : offered) {
+				if (algorithm.name().equals(name)) {
+					return algorithm;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 *
+	 * @param names the comma separated names of the algorithms.
+	 * @return the algorithms in the given order.
+	 * @throws IllegalArgumentException if a name is unknown.
+	 */
+	public static CompressionAlgorithm[] parse(String names) {
+		return Arrays.stream(names.split(",")).map(String::trim).filter(name -> !name.isEmpty()).map(CompressionAlgorithm::valueOf).toArray(CompressionAlgorithm[]::new);
+	}
+
+	private static byte[] toArray(ByteBuf in) {
+		final byte[] bytes = new byte[in.readableBytes()];
+		in.readBytes(bytes);
+		return bytes;
+	}
+}
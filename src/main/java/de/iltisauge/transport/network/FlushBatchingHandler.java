@@ -0,0 +1,130 @@
+package de.iltisauge.transport.network;
+
+import java.util.concurrent.TimeUnit;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.concurrent.ScheduledFuture;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * This class extends {@link ChannelDuplexHandler} and coalesces the flushes of a channel, so many small frames share a single syscall.<br>
+ * Writes are passed on immediately, but a flush is delayed until one of the following happens:
+ * <ul>
+ * <li>the current event loop turn has finished, or the configured delay has passed if {@link NetworkConfig#getBatchMaxDelayMicros()} is set</li>
+ * <li>the channel has finished reading, if the flush was requested while reading</li>
+ * <li>the pending messages or bytes reach {@link NetworkConfig#getBatchMaxMessages()} or {@link NetworkConfig#getBatchMaxBytes()}</li>
+ * </ul>
+ * Every flush is recorded in the {@link FlushStatistics} of the {@link NetworkDevice}.<br>
+ * All state is only accessed on the event loop of the channel.
+ *
+ * @author Daniel Ziegler
+ *
+ */
+@RequiredArgsConstructor
+public class FlushBatchingHandler extends ChannelDuplexHandler {
+
+	private final NetworkConfig config;
+	private final FlushStatistics statistics;
+	private int pendingMessages;
+	private long pendingBytes;
+	private boolean reading;
+	private boolean flushScheduled;
+	private ScheduledFuture<?> delayedFlush;
+	private ChannelHandlerContext ctx;
+	private final Runnable flushTask = () -> {
+		flushScheduled = false;
+		delayedFlush = null;
+		if (ctx != null && pendingMessages > 0) {
+			flushNow(ctx);
+		}
+	};
+
+	@Override
+	public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+		this.ctx = ctx;
+	}
+
+	@Override
+	public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+		pendingMessages++;
+		if (msg instanceof ByteBuf) {
+			pendingBytes += ((ByteBuf) msg).readableBytes();
+		}
+		ctx.write(msg, promise);
+		if (pendingMessages >= config.getBatchMaxMessages() || pendingBytes >= config.getBatchMaxBytes()) {
+			flushNow(ctx);
+		}
+	}
+
+	@Override
+	public void flush(ChannelHandlerContext ctx) throws Exception {
+		if (pendingMessages == 0) {
+			ctx.flush();
+			return;
+		}
+		if (reading || flushScheduled) {
+			return;
+		}
+		flushScheduled = true;
+		final long delay = config.getBatchMaxDelayMicros();
+		if (delay > 0) {
+			delayedFlush = ctx.executor().schedule(flushTask, delay, TimeUnit.MICROSECONDS);
+		} else {
+			ctx.executor().execute(flushTask);
+		}
+	}
+
+	@Override
+	public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+		reading = true;
+		ctx.fireChannelRead(msg);
+	}
+
+	@Override
+	public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+		reading = false;
+		if (pendingMessages > 0) {
+			flushNow(ctx);
+		}
+		ctx.fireChannelReadComplete();
+	}
+
+	@Override
+	public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+		if (!ctx.channel().isWritable() && pendingMessages > 0) {
+			flushNow(ctx);
+		}
+		ctx.fireChannelWritabilityChanged();
+	}
+
+	@Override
+	public void close(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+		if (pendingMessages > 0) {
+			flushNow(ctx);
+		}
+		ctx.close(promise);
+	}
+
+	@Override
+	public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+		if (pendingMessages > 0) {
+			flushNow(ctx);
+		}
+		this.ctx = null;
+	}
+
+	private void flushNow(ChannelHandlerContext ctx) {
+		if (delayedFlush != null) {
+			delayedFlush.cancel(false);
+			delayedFlush = null;
+			flushScheduled = false;
+		}
+		statistics.record(pendingMessages, pendingBytes);
+		pendingMessages = 0;
+		pendingBytes = 0;
+		ctx.flush();
+	}
+}
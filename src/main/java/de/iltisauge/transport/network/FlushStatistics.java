@@ -0,0 +1,89 @@
+package de.iltisauge.transport.network;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class counts the flushes of all sessions of a {@link NetworkDevice} and the messages and bytes that each flush has carried.<br>
+ * It is filled by the {@link FlushBatchingHandler}, so it only contains data if write batching is enabled.
+ * All counters can be read from any thread.
+ *
+ * @author Daniel Ziegler
+ *
+ */
+public class FlushStatistics {
+
+	private final LongAdder flushes = new LongAdder();
+	private final LongAdder messages = new LongAdder();
+	private final LongAdder bytes = new LongAdder();
+	private final LongAccumulator maxMessagesPerFlush = new LongAccumulator(Math::max, 0);
+
+	/**
+	 * Records a single flush.
+	 * @param messages the amount of messages that have been written since the last flush.
+	 * @param bytes the amount of bytes that have been written since the last flush.
+	 */
+	public void record(int messages, long bytes) {
+		flushes.increment();
+		this.messages.add(messages);
+		this.bytes.add(bytes);
+		maxMessagesPerFlush.accumulate(messages);
+	}
+
+	/**
+	 *
+	 * @return the amount of flushes.
+	 */
+	public long getFlushes() {
+		return flushes.sum();
+	}
+
+	/**
+	 *
+	 * @return the amount of messages that have been flushed.
+	 */
+	public long getMessages() {
+		return messages.sum();
+	}
+
+	/**
+	 *
+	 * @return the amount of bytes that have been flushed.
+	 */
+	public long getBytes() {
+		return bytes.sum();
+	}
+
+	/**
+	 *
+	 * @return the highest amount of messages that a single flush has carried.
+	 */
+	public long getMaxMessagesPerFlush() {
+		return maxMessagesPerFlush.get();
+	}
+
+	/**
+	 *
+	 * @return the average amount of messages per flush or 0 if nothing has been flushed yet.
+	 */
+	public double getAverageMessagesPerFlush() {
+		final long flushes = getFlushes();
+		return flushes == 0 ? 0 : (double) getMessages() / flushes;
+	}
+
+	/**
+	 * Resets all counters.
+	 */
+	public void reset() {
+		flushes.reset();
+		messages.reset();
+		bytes.reset();
+		maxMessagesPerFlush.reset();
+	}
+
+	@Override
+	public String toString() {
+		return "FlushStatistics(flushes=" + getFlushes() + ", messages=" + getMessages() + ", bytes=" + getBytes()
+				+ ", averageMessagesPerFlush=" + String.format("%.2f", getAverageMessagesPerFlush()) + ", maxMessagesPerFlush=" + getMaxMessagesPerFlush() + ")";
+	}
+}
@@ -25,4 +25,15 @@ public interface IMessageCodec<T> {
 	 */
 	T read(ByteBuf byteBuf);
 
+	/**
+	 * Reads an object from a {@link ByteBuf} that has been received by a {@link NetworkDevice}.<br>
+	 * Codecs that read strings or arrays of a length that is announced by the sender override this to limit it to the {@link NetworkConfig} of the device.
+	 * @param byteBuf
+	 * @param config the config of the device that has received the object.
+	 * @return the read object.
+	 */
+	default T read(ByteBuf byteBuf, NetworkConfig config) {
+		return read(byteBuf);
+	}
+
 }
@@ -0,0 +1,34 @@
+package de.iltisauge.transport.network;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * A IRecyclableMessageCodec reads messages into instances that are taken from a {@link MessagePool}, see {@link NetworkConfig#isRecycleMessages()}.
+ *
+ * @author Daniel Ziegler
+ *
+ * @param <T>
+ */
+public interface IRecyclableMessageCodec<T extends Message> extends IMessageCodec<T> {
+
+	/**
+	 * Creates a new message for the pool, which is filled by {@link #read(ByteBuf, Message)}.
+	 * @return the new message.
+	 */
+	T newMessage();
+
+	/**
+	 * Reads an object from a {@link ByteBuf} into a message that has been used before.<br>
+	 * Every field of the message has to be overwritten, so nothing of the previous message is left.
+	 * @param byteBuf
+	 * @param obj
+	 */
+	void read(ByteBuf byteBuf, T obj);
+
+	@Override
+	default T read(ByteBuf byteBuf) {
+		final T obj = newMessage();
+		read(byteBuf, obj);
+		return obj;
+	}
+}
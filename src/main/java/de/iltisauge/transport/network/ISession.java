@@ -2,7 +2,10 @@ package de.iltisauge.transport.network;
 
 import java.net.SocketAddress;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
 
 /**
  * This interface can be used to create session classes.
@@ -12,6 +15,13 @@ import io.netty.channel.Channel;
  */
 public interface ISession {
 	
+	/**
+	 * 
+	 * @return the id that the device has assigned to the session, which is unique among the sessions of the device.
+	 * The id of a session on the server is told to its client, see {@link de.iltisauge.transport.client.NetworkClient#getSessionId()}.
+	 */
+	int getId();
+	
 	/**
 	 * 
 	 * @return the {@link Channel} object of the session.
@@ -31,15 +41,38 @@ public interface ISession {
 	SocketAddress getServerAddress();
 	
 	/**
-	 * Sends the {@link Sendable} through the sessions {@link Channel}.<br>
-	 * Set <code>logTraffic</code> to true if you want to log the sending of the message.
+	 * Sends the {@link Sendable} through the sessions {@link Channel} and waits until the write has completed.<br>
+	 * Set <code>logTraffic</code> to true if you want to log the sending of the message.<br>
+	 * If this method is called on the event loop of the {@link Channel} it does not wait, because that would dead-lock the event loop.
+	 * Use {@link #sendAsync(Sendable)} if you need the result in that case.
 	 * 
 	 * @param message
 	 * @param logTraffic
-	 * @return
+	 * @return true, if the message has been written successfully or the write is still pending, otherwise false.
 	 */
 	boolean send(Sendable message, boolean logTraffic);
 	
+	/**
+	 * Sends the {@link Sendable} through the sessions {@link Channel} without blocking the caller.<br>
+	 * The outbound {@link IMessageEvent}s of the message are fired when the write has completed successfully.
+	 * 
+	 * @param message
+	 * @return the {@link ChannelFuture} of the write.
+	 */
+	ChannelFuture sendAsync(Sendable message);
+	
+	/**
+	 * Writes a frame that has already been encoded by {@link MessageEncoder#encodeFrame(ByteBufAllocator, Sendable)} through the sessions {@link Channel}.<br>
+	 * The frame is not copied. A retained duplicate of it is written, so the caller still owns the frame and has to release it.
+	 * The outbound {@link IMessageEvent}s of the message are fired when the write has completed.<br>
+	 * The frame does not pass the {@link MessageEncoder}, so the caller has to record it in the {@link NetworkMetrics} of the device.
+	 * 
+	 * @param frame
+	 * @param message the message that was encoded into the frame.
+	 * @return the {@link ChannelFuture} of the write.
+	 */
+	ChannelFuture sendFrame(ByteBuf frame, Sendable message);
+	
 	/**
 	 * @see #send(Sendable, boolean)
 	 */
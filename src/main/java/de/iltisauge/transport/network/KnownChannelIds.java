@@ -0,0 +1,98 @@
+package de.iltisauge.transport.network;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import de.iltisauge.transport.messages.ChannelIdsMessage;
+import de.iltisauge.transport.server.NetworkServer;
+import io.netty.util.AttributeKey;
+
+/**
+ * This class contains the channel ids that a client of the {@link NetworkServer} knows.<br>
+ * An id is only known once the {@link ChannelIdsMessage} that announced it has been written completely,
+ * so every frame that uses the id is guaranteed to arrive after the announcement, no matter which thread writes it.
+ * Until then the channel is written by name.<br>
+ * Every server channel has its own instance in the {@link #KNOWN_CHANNEL_IDS} attribute.
+ *
+ * @author Daniel Ziegler
+ *
+ */
+public class KnownChannelIds {
+
+	/**
+	 * The attribute that contains the {@link KnownChannelIds} of a server channel.
+	 */
+	public static final AttributeKey<KnownChannelIds> KNOWN_CHANNEL_IDS = AttributeKey.valueOf("transport-known-channel-ids");
+
+	private final BitSet known = new BitSet();
+	private final BitSet announced = new BitSet();
+
+	/**
+	 *
+	 * @param id
+	 * @return true, if the client knows the given channel id.
+	 */
+	public synchronized boolean isKnown(int id) {
+		return id > ChannelRegistry.NO_ID && known.get(id);
+	}
+
+	/**
+	 *
+	 * @param ids
+	 * @return true, if the client knows all given channel ids.
+	 */
+	public synchronized boolean isKnown(int[] ids) {
+		for (int id : ids) {
+			if (id <= ChannelRegistry.NO_ID || !known.get(id)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Marks all given ids that have neither been announced nor are known yet as announced.
+	 * @param ids
+	 * @return the ids that have to be announced to the client, which may be empty.
+	 */
+	public synchronized int[] announce(int[] ids) {
+		int count = 0;
+		final int[] out = new int[ids.length];
+		for (int id : ids) {
+			if (id > ChannelRegistry.NO_ID && !known.get(id) && !announced.get(id)) {
+				announced.set(id);
+				out[count++] = id;
+			}
+		}
+		return count == out.length ? out : Arrays.copyOf(out, count);
+	}
+
+	/**
+	 * Called when the announcement of the given ids has been written.
+	 * @param ids
+	 * @param success whether the write has succeeded. If not, the ids may be announced again.
+	 */
+	public synchronized void onAnnounced(int[] ids, boolean success) {
+		for (int id : ids) {
+			// An id that has been forgotten in the meantime is not known
+			if (announced.get(id)) {
+				announced.clear(id);
+				if (success) {
+					known.set(id);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Forgets an id that the server has released.
+	 * @param id
+	 * @return true, if the client knows the id or it is being announced, so the client has to unbind it.
+	 */
+	public synchronized boolean forget(int id) {
+		final boolean wasKnown = known.get(id) || announced.get(id);
+		known.clear(id);
+		announced.clear(id);
+		return wasKnown;
+	}
+}
@@ -0,0 +1,124 @@
+package de.iltisauge.transport.network;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class records durations in nanoseconds into buckets of powers of two, so recording neither locks nor allocates.<br>
+ * Bucket <code>i</code> contains all durations in <code>[2^(i-1), 2^i)</code>, so percentiles are accurate to a factor of two,
+ * which is enough to tell microseconds from milliseconds.
+ * All values can be read from any thread.
+ *
+ * @author Daniel Ziegler
+ *
+ */
+public class LatencyHistogram {
+
+	private static final int BUCKETS = 64;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder totalNanos = new LongAdder();
+	private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+	/**
+	 * Records a single duration.
+	 * @param nanos the duration in nanoseconds. Negative values are recorded as 0.
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		buckets.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos)));
+		count.increment();
+		totalNanos.add(nanos);
+		maxNanos.accumulate(nanos);
+	}
+
+	/**
+	 * Records the time that has passed since <code>startNanos</code>.
+	 * @param startNanos a value of {@link System#nanoTime()}.
+	 */
+	public void recordSince(long startNanos) {
+		record(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 *
+	 * @return the amount of recorded durations.
+	 */
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 *
+	 * @return the sum of all recorded durations in nanoseconds.
+	 */
+	public long getTotalNanos() {
+		return totalNanos.sum();
+	}
+
+	/**
+	 *
+	 * @return the longest recorded duration in nanoseconds.
+	 */
+	public long getMaxNanos() {
+		return maxNanos.get();
+	}
+
+	/**
+	 *
+	 * @return the average duration in nanoseconds or 0 if nothing has been recorded yet.
+	 */
+	public double getMeanNanos() {
+		final long count = getCount();
+		return count == 0 ? 0 : (double) getTotalNanos() / count;
+	}
+
+	/**
+	 * Returns the upper bound of the bucket that contains the given percentile.
+	 * @param percentile a value between 0 and 100, e.g. 99.9.
+	 * @return the duration in nanoseconds that the given percentage of all recorded durations did not exceed, or 0 if nothing has been recorded yet.
+	 */
+	public long getPercentileNanos(double percentile) {
+		if (percentile < 0 || percentile > 100) {
+			throw new IllegalArgumentException("Invalid percentile " + percentile);
+		}
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			total += buckets.get(i);
+		}
+		if (total == 0) {
+			return 0;
+		}
+		final long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += buckets.get(i);
+			if (seen >= rank) {
+				return Math.min(i == 0 ? 0 : (1L << i) - 1, getMaxNanos());
+			}
+		}
+		return getMaxNanos();
+	}
+
+	/**
+	 * Resets all values.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			buckets.set(i, 0);
+		}
+		count.reset();
+		totalNanos.reset();
+		maxNanos.reset();
+	}
+
+	@Override
+	public String toString() {
+		return "LatencyHistogram(count=" + getCount() + ", meanNanos=" + String.format("%.0f", getMeanNanos())
+				+ ", p50Nanos=" + getPercentileNanos(50) + ", p99Nanos=" + getPercentileNanos(99) + ", maxNanos=" + getMaxNanos() + ")";
+	}
+}
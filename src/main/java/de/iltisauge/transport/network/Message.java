@@ -3,8 +3,16 @@ package de.iltisauge.transport.network;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 import de.iltisauge.transport.Transport;
+import de.iltisauge.transport.TransportContext;
+import de.iltisauge.transport.client.NetworkClient;
+import io.netty.util.IllegalReferenceCountException;
+import io.netty.util.Recycler;
+import io.netty.util.ReferenceCounted;
+import io.netty.util.concurrent.Future;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.ToString;
@@ -12,7 +20,13 @@ import lombok.ToString;
 /**
  * This class implements the {@link IMessage} interface.<br>
  * It contains methods to handle channels and to send the message.<br>
- * If you want to create your own message, you have to extend this class.
+ * If you want to create your own message, you have to extend this class.<br>
+ * A message that has been created with <code>new</code> is not reference counted: {@link #retain()} and {@link #release()} do nothing, so it can be sent any number of times.
+ * A message that has been taken from a {@link MessagePool} is returned to it once its reference count drops to 0, see {@link NetworkConfig#isRecycleMessages()}.
+ * The inbound handler owns the reference of a received message and releases it after the listeners have been called,
+ * so a listener that keeps the message beyond its call has to retain it and release it once it is done.
+ * Sending a message releases one reference once it has been written, like every message that is written to a Netty channel,
+ * so a listener that sends a received message again has to retain it first.
  * 
  * @author Daniel Ziegler
  *
@@ -20,11 +34,47 @@ import lombok.ToString;
 @Getter
 @Setter
 @ToString
-public class Message implements IMessage {
+public class Message implements IMessage, ReferenceCounted {
+
+	private static final AtomicIntegerFieldUpdater<Message> REFERENCE_COUNT = AtomicIntegerFieldUpdater.newUpdater(Message.class, "referenceCount");
 	
 	private final List<String> channels = new ArrayList<String>();
+	/**
+	 * The array that is returned by {@link #getChannels()} until the channels change, or null if it has to be created again.
+	 */
+	@Getter(AccessLevel.NONE)
+	@Setter(AccessLevel.NONE)
+	@ToString.Exclude
+	private String[] channelArray;
+	/**
+	 * The array of the channels of the previous message, which is reused if the recycled message has as many channels.
+	 */
+	@Getter(AccessLevel.NONE)
+	@Setter(AccessLevel.NONE)
+	@ToString.Exclude
+	private String[] recycledChannelArray;
+	/**
+	 * The pool that the message is returned to, or null if it has been created with <code>new</code>.
+	 */
+	@Getter(AccessLevel.NONE)
+	@Setter(AccessLevel.NONE)
+	@ToString.Exclude
+	private Recycler<Message> recycler;
+	@Getter(AccessLevel.NONE)
+	@Setter(AccessLevel.NONE)
+	@ToString.Exclude
+	private Recycler.Handle recyclerHandle;
+	@Getter(AccessLevel.NONE)
+	@Setter(AccessLevel.NONE)
+	@ToString.Exclude
+	private volatile int referenceCount;
 	private ISession from;
 	private boolean receiveSelf;
+	private long correlationId;
+	private boolean reply;
+	private long offset = NO_OFFSET;
+	private int targetSessionId = NO_SESSION_ID;
+	private int sourceSessionId = NO_SESSION_ID;
 	
 	/**
 	 * Adds the channel array to the channel list.
@@ -32,6 +82,16 @@ public class Message implements IMessage {
 	@Override
 	public void addChannels(String... channels) {
 		this.channels.addAll(Arrays.asList(channels));
+		channelArray = null;
+	}
+
+	/**
+	 * Adds the channel to the channel list.
+	 */
+	@Override
+	public void addChannel(String channel) {
+		channels.add(channel);
+		channelArray = null;
 	}
 
 	/**
@@ -40,21 +100,165 @@ public class Message implements IMessage {
 	@Override
 	public void removeChannels(String... channels) {
 		this.channels.removeAll(Arrays.asList(channels));
+		channelArray = null;
 	}
 	
 	/**
-	 * Sends this Message to the NetworkServer that will forward it to all clients that have registered the given channels.
+	 * Sends this Message to the NetworkServer that will forward it to all clients that have registered the given channels.<br>
+	 * A received message is sent by the client that has received it, any other message by {@link Transport#getClient()}.
+	 * Use {@link NetworkClient#send(IMessage, String...)} to send it through another client.
 	 */
 	@Override
 	public boolean send(String... channels) {
-		return Transport.getClient().send(this, channels);
+		return getSendingClient().send(this, channels);
 	}
 
 	/**
-	 * @returns a new <code>{@link String[]}</code> from the channel list.
+	 * Sends this Message to the NetworkServer without blocking the caller.
+	 * @see #send(String...)
+	 */
+	@Override
+	public Future<Void> sendAsync(String... channels) {
+		return getSendingClient().sendAsync(this, channels);
+	}
+
+	/*
+	 * The session of a received message is bound to the context of the device that has received it
+	 */
+	private NetworkClient getSendingClient() {
+		if (from != null) {
+			final TransportContext context = TransportContext.of(from.getChannel());
+			if (context != null && context.getDevice() instanceof NetworkClient) {
+				return (NetworkClient) context.getDevice();
+			}
+		}
+		return Transport.getClient();
+	}
+
+	/**
+	 * Sends the reply to the session that this request came from.
+	 */
+	@Override
+	public Future<Void> reply(IMessage reply) {
+		if (!isRequest()) {
+			throw new IllegalStateException("The message is not a request");
+		}
+		reply.setCorrelationId(correlationId);
+		reply.setReply(true);
+		return from.sendAsync(reply);
+	}
+
+	/**
+	 * @returns a <code>{@link String[]}</code> of the channel list, which is created once and returned again until the channels change.
 	 */
 	@Override
 	public String[] getChannels() {
-		return channels.toArray(new String[channels.size()]);
+		String[] channelArray = this.channelArray;
+		if (channelArray == null) {
+			final String[] recycledChannelArray = this.recycledChannelArray;
+			channelArray = recycledChannelArray != null && recycledChannelArray.length == channels.size() ? channels.toArray(recycledChannelArray) : channels.toArray(new String[channels.size()]);
+			this.channelArray = channelArray;
+		}
+		return channelArray;
+	}
+
+	/**
+	 *
+	 * @return 1, if the message has been created with <code>new</code>, otherwise the amount of references to the pooled message.
+	 */
+	@Override
+	public int refCnt() {
+		return recycler == null ? 1 : referenceCount;
+	}
+
+	@Override
+	public Message retain() {
+		return retain(1);
+	}
+
+	@Override
+	public Message retain(int increment) {
+		if (increment <= 0) {
+			throw new IllegalArgumentException("increment: " + increment + " (expected: > 0)");
+		}
+		if (recycler == null) {
+			return this;
+		}
+		while (true) {
+			final int referenceCount = this.referenceCount;
+			if (referenceCount == 0 || referenceCount > Integer.MAX_VALUE - increment) {
+				throw new IllegalReferenceCountException(referenceCount, increment);
+			}
+			if (REFERENCE_COUNT.compareAndSet(this, referenceCount, referenceCount + increment)) {
+				return this;
+			}
+		}
+	}
+
+	@Override
+	public boolean release() {
+		return release(1);
+	}
+
+	/**
+	 * Releases references to a pooled message and returns it to its {@link MessagePool} once there are none left.
+	 * @return true, if the message has been returned to its pool, otherwise false.
+	 */
+	@Override
+	public boolean release(int decrement) {
+		if (decrement <= 0) {
+			throw new IllegalArgumentException("decrement: " + decrement + " (expected: > 0)");
+		}
+		if (recycler == null) {
+			return false;
+		}
+		while (true) {
+			final int referenceCount = this.referenceCount;
+			if (referenceCount < decrement) {
+				throw new IllegalReferenceCountException(referenceCount, -decrement);
+			}
+			if (REFERENCE_COUNT.compareAndSet(this, referenceCount, referenceCount - decrement)) {
+				if (referenceCount != decrement) {
+					return false;
+				}
+				resetHeader();
+				recycler.recycle(this, recyclerHandle);
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Binds the message to the pool it is returned to.
+	 * @param recycler
+	 * @param recyclerHandle
+	 */
+	@SuppressWarnings("unchecked")
+	void setRecycler(Recycler<? extends Message> recycler, Recycler.Handle recyclerHandle) {
+		this.recycler = (Recycler<Message>) recycler;
+		this.recyclerHandle = recyclerHandle;
+	}
+
+	void setReferenceCount(int referenceCount) {
+		this.referenceCount = referenceCount;
+	}
+
+	/**
+	 * Clears everything the frame header has set, so a recycled message starts like a new one. The fields of the subclass are overwritten by its codec.<br>
+	 * The channel array is kept, so it can be reused by the next message with as many channels.
+	 */
+	void resetHeader() {
+		channels.clear();
+		if (channelArray != null) {
+			recycledChannelArray = channelArray;
+			channelArray = null;
+		}
+		from = null;
+		receiveSelf = false;
+		correlationId = 0;
+		reply = false;
+		offset = NO_OFFSET;
+		targetSessionId = NO_SESSION_ID;
+		sourceSessionId = NO_SESSION_ID;
 	}
 }
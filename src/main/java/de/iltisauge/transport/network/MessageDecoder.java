@@ -1,61 +1,208 @@
 package de.iltisauge.transport.network;
 
+import java.util.Arrays;
 import java.util.List;
+import java.util.logging.Level;
 
 import de.iltisauge.transport.Transport;
 import de.iltisauge.transport.server.NetworkServer;
+import de.iltisauge.transport.utils.CastUtil;
 import de.iltisauge.transport.utils.PacketUtil;
 import de.iltisauge.transport.utils.Util;
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.EmptyByteBuf;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.MessageToMessageDecoder;
 import lombok.RequiredArgsConstructor;
 
 /**
- * This class extends {@link ByteToMessageDecoder}.<br>
- * The {@link ByteBuf} will be decoded by reading the class name of the {@link Sendable} first,
- * followed by the channels to which the message should be send to.<br>
- * If the network device that decodes the message is a {@link NetworkServer} and the class with the read class name can not be found or no codec is registered for that class,
- * a {@link ServerMessageWrapper} will be created, with the unread class codec left in the ByteBuf.
+ * This class extends {@link MessageToMessageDecoder} and decodes one complete frame at a time.<br>
+ * The frames are cut out of the stream by the length-prefix frame decoder in front of this handler, see {@link ChannelInitializer}.<br>
+ * The {@link ByteBuf} will be decoded by reading the codec id of the {@link Sendable} first, which is followed by the class name if it is {@link NetworkManager#CODEC_ID_BY_NAME},
+ * followed by the channels to which the message should be send to.
+ * Every channel is either its id in the {@link ChannelRegistry} or {@link ChannelRegistry#NO_ID} followed by its name.
+ * The server announces the ids of subscribed channels that are sent by name to the sender, other channels do not get an id.<br>
+ * The codec is looked up by its id, so no reflection is needed.<br>
+ * Requests and replies get the correlation id that follows the flags of the frame, messages of a durable channel get their offset and direct messages get the ids of their target and source session.
+ * Compressed payloads are decompressed before they are read by their codec, see {@link CompressionAlgorithm}.<br>
+ * Every decoded frame is recorded in the {@link NetworkMetrics} of the channel.
+ * If the network device that decodes the message is a {@link NetworkServer} and no codec is registered for that id,
+ * a {@link ServerMessageWrapper} will be created, with the unread class codec left in a slice of the frame, so it is not copied.
+ * The wrapper of a class that the server has not assigned a codec id to keeps its class name, so it is forwarded by name.<br>
+ * If messages are recycled, see {@link NetworkConfig#isRecycleMessages()}, wrappers and the messages of an {@link IRecyclableMessageCodec} are taken from per-thread pools.
+ * Replies are never taken from a pool, because they are handed to the request they belong to.
  * 
  * @author Daniel Ziegler
  *
  */
 @RequiredArgsConstructor
-public class MessageDecoder extends ByteToMessageDecoder {
+public class MessageDecoder extends MessageToMessageDecoder<ByteBuf> {
 
 	private final NetworkDevice networkDevice;
+	/*
+	 * The channels of the frame that is decoded. The decoder belongs to a single channel, so the arrays are reused for every frame and only grow.
+	 */
+	private String[] channels = new String[0];
+	private int[] channelIds = new int[0];
 
 	@Override
 	protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
-		if (in instanceof EmptyByteBuf) {
+		if (!in.isReadable()) {
 			return;
 		}
+		final long startNanos = System.nanoTime();
+		final int frameLength = MessageEncoder.LENGTH_FIELD_SIZE + in.readableBytes();
+		final NetworkConfig config = networkDevice.getConfig();
+		final NetworkManager networkManager = networkDevice.getNetworkManager();
 		final ISession from = Util.getSession(ctx, networkDevice);
-		final String clazzName = PacketUtil.readString(in);
-		Class<?> clazz = null;
-		try {
-			clazz = Class.forName(clazzName);
-		} catch (ClassNotFoundException exception) {
+		int codecId = in.readUnsignedShort();
+		String className = null;
+		final IMessageCodec<?> codec;
+		if (codecId == NetworkManager.CODEC_ID_BY_NAME) {
+			className = PacketUtil.readString(in, config.getMaxStringLength());
+			codecId = networkManager.resolveCodecId(className);
+			codec = networkManager.getCodec(className);
+		} else {
+			codec = networkManager.getCodec(codecId);
+		}
+		final int length = PacketUtil.readVarInt(in);
+		if (length < 0 || length > config.getMaxChannelCount()) {
+			throw new CorruptedFrameException("Invalid channel count " + length + " (maximum is " + config.getMaxChannelCount() + ")");
 		}
-		final int length = in.readInt();
-		final String[] channels = new String[length];
+		final boolean isServer = networkDevice instanceof NetworkServer;
+		final ChannelRegistry channelRegistry = networkManager.getChannelRegistry();
+		if (this.channels.length < length) {
+			this.channels = new String[length];
+			this.channelIds = new int[length];
+		}
+		final String[] channels = this.channels;
+		final int[] channelIds = this.channelIds;
+		boolean hasChannelNames = false;
 		for (int i = 0; i < length; i++) {
-			channels[i] = PacketUtil.readString(in);
+			final int channelId = PacketUtil.readVarInt(in);
+			if (channelId == ChannelRegistry.NO_ID) {
+				channels[i] = PacketUtil.readString(in, config.getMaxStringLength());
+				channelIds[i] = channelRegistry.getId(channels[i]);
+				hasChannelNames = true;
+			} else {
+				channels[i] = channelRegistry.getName(channelId);
+				channelIds[i] = channelId;
+				if (channels[i] == null) {
+					// The frame may have been written before the id has been released
+					channels[i] = channelRegistry.getReleasedName(channelId);
+					if (channels[i] == null) {
+						throw new CorruptedFrameException("Unknown channel id " + channelId);
+					}
+					channelIds[i] = channelRegistry.getId(channels[i]);
+				}
+			}
+		}
+		final int flags = in.readUnsignedByte();
+		final boolean isReceiveSelf = (flags & MessageEncoder.FLAG_RECEIVE_SELF) != 0;
+		final CompressionAlgorithm compression = CompressionAlgorithm.byId(flags >> MessageEncoder.COMPRESSION_SHIFT & MessageEncoder.COMPRESSION_MASK);
+		final boolean isReply = (flags & MessageEncoder.FLAG_REPLY) != 0;
+		long correlationId = 0;
+		if ((flags & (MessageEncoder.FLAG_REQUEST | MessageEncoder.FLAG_REPLY)) != 0) {
+			correlationId = PacketUtil.readVarLong(in);
+			if (correlationId == 0 || isReply && (flags & MessageEncoder.FLAG_REQUEST) != 0) {
+				throw new CorruptedFrameException("Invalid correlation id " + correlationId + " with flags " + flags);
+			}
 		}
-		final boolean isReceiveSelf = in.readBoolean();
+		long offset = Sendable.NO_OFFSET;
+		if ((flags & MessageEncoder.FLAG_OFFSET) != 0) {
+			offset = PacketUtil.readVarLong(in);
+			if (offset < 0) {
+				throw new CorruptedFrameException("Invalid offset " + offset);
+			}
+		}
+		int targetSessionId = Sendable.NO_SESSION_ID;
+		int sourceSessionId = Sendable.NO_SESSION_ID;
+		if ((flags & MessageEncoder.FLAG_DIRECT) != 0) {
+			targetSessionId = PacketUtil.readVarInt(in);
+			sourceSessionId = PacketUtil.readVarInt(in);
+			if (targetSessionId <= Sendable.NO_SESSION_ID || sourceSessionId < Sendable.NO_SESSION_ID) {
+				throw new CorruptedFrameException("Invalid session ids " + targetSessionId + " and " + sourceSessionId);
+			}
+		}
+		final boolean recycle = config.isRecycleMessages();
 		Sendable sendable = null;
-		if ((clazz == null || !Transport.getNetworkManager().isCodecRegistered(clazz)) && networkDevice instanceof NetworkServer) {
-			final ByteBuf codecBuffer = in.readBytes(in.readableBytes());
-			sendable = new ServerMessageWrapper(clazzName, codecBuffer);
+		String messageType = null;
+		int[] announcedIds = null;
+		if (codec == null && isServer) {
+			// The frame is released after decoding, the retained slice keeps its memory alive until the wrapper is released.
+			final ByteBuf codecBuffer = in.readSlice(in.readableBytes()).retain();
+			final ServerMessageWrapper wrapper = recycle ? ServerMessageWrapper.newInstance(codecId, codecBuffer) : new ServerMessageWrapper(codecId, codecBuffer);
+			// A recycled wrapper keeps the channel ids of its previous message, which are reused if it has as many channels
+			int[] wrapperChannelIds = wrapper.getChannelIds();
+			if (wrapperChannelIds == null || wrapperChannelIds.length != length) {
+				wrapperChannelIds = new int[length];
+			}
+			System.arraycopy(channelIds, 0, wrapperChannelIds, 0, length);
+			wrapper.setChannelIds(wrapperChannelIds);
+			wrapper.setCompression(compression);
+			wrapper.setCodecName(codecId == NetworkManager.CODEC_ID_BY_NAME ? className : null);
+			sendable = wrapper;
+			messageType = codecId == NetworkManager.CODEC_ID_BY_NAME ? className : networkManager.getCodecName(codecId);
+			announcedIds = wrapperChannelIds;
+		} else if (codec == null) {
+			Arrays.fill(channels, 0, length, null);
+			Transport.getLogger().log(Level.WARNING, "Dropped a message with unknown codec id " + codecId + " from " + ctx.channel().remoteAddress());
+			return;
+		} else if (compression != null) {
+			final ByteBuf payload = compression.decompressPayload(in, ctx.alloc(), config.getMaxFrameLength());
+			try {
+				sendable = read(networkManager, codec, payload, config, recycle && !isReply);
+			} finally {
+				payload.release();
+			}
+			messageType = sendable.getClass().getName();
 		} else {
-			final IMessageCodec<?> codec = Transport.getNetworkManager().getCodec(clazz);
-			sendable = (IMessage) codec.read(in);
+			sendable = read(networkManager, codec, in, config, recycle && !isReply);
+			messageType = sendable.getClass().getName();
 		}
 		sendable.setFrom(from);
-		sendable.addChannels(channels);
+		for (int i = 0; i < length; i++) {
+			sendable.addChannel(channels[i]);
+			channels[i] = null;
+		}
 		sendable.setReceiveSelf(isReceiveSelf);
+		sendable.setCorrelationId(correlationId);
+		sendable.setReply(isReply);
+		sendable.setOffset(offset);
+		sendable.setTargetSessionId(targetSessionId);
+		sendable.setSourceSessionId(sourceSessionId);
 		out.add(sendable);
+		if (isServer && hasChannelNames) {
+			((NetworkServer) networkDevice).getNetworkManager().announceChannelIds(from, announcedIds != null ? announcedIds : Arrays.copyOf(channelIds, length));
+		}
+		final NetworkMetrics metrics = NetworkMetrics.of(ctx.channel());
+		if (metrics != null) {
+			metrics.recordInbound(messageType == null ? NetworkMetrics.UNKNOWN_MESSAGE_TYPE : messageType, sendable.getChannels(), frameLength);
+			metrics.getDecodeTime().recordSince(startNanos);
+		}
+	}
+
+	/**
+	 * Reads a message with its codec. The message is taken from the {@link MessagePool} of the codec if it is recycled and the codec has a pool.
+	 * @param networkManager
+	 * @param codec
+	 * @param payload
+	 * @param config
+	 * @param recycle
+	 * @return the message.
+	 */
+	private static Sendable read(NetworkManager networkManager, IMessageCodec<?> codec, ByteBuf payload, NetworkConfig config, boolean recycle) {
+		final MessagePool<?> messagePool = recycle ? networkManager.getMessagePool(codec) : null;
+		if (messagePool == null) {
+			return (IMessage) codec.read(payload, config);
+		}
+		final Message message = messagePool.take();
+		try {
+			CastUtil.<IRecyclableMessageCodec<Message>>cast(codec).read(payload, message);
+		} catch (RuntimeException exception) {
+			message.release();
+			throw exception;
+		}
+		return message;
 	}
 }
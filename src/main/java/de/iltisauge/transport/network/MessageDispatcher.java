@@ -0,0 +1,226 @@
+package de.iltisauge.transport.network;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+import de.iltisauge.transport.Transport;
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+/**
+ * This class calls the {@link IMessageEvent}s of received messages on an {@link Executor} instead of the event loop, see {@link NetworkConfig#getDispatchThreads()},
+ * so a slow listener does not stall the other sessions of the event loop.<br>
+ * Every session has its own queue, which is run by at most one thread at a time. The messages of a session are dispatched in the order they have been received,
+ * while different sessions are dispatched in parallel. A queue runs a limited batch of messages before it gives the thread to the next session.<br>
+ * If the queue of a session exceeds {@link NetworkConfig#getMaxDispatchQueue()}, the session stops reading from its socket until half of the queue has been dispatched,
+ * so a slow listener pushes back on the sender through TCP instead of buffering without limit. Messages that have already been read are still queued,
+ * so a queue may exceed its limit by the messages of a single read. The depth of the queues is recorded in the {@link NetworkMetrics} of the device.
+ *
+ * @author Daniel Ziegler
+ *
+ */
+public class MessageDispatcher {
+
+	private static final AttributeKey<SessionQueue> QUEUE = AttributeKey.valueOf("transport-dispatch-queue");
+	/**
+	 * The amount of messages a session queue dispatches before it gives the thread to the next session.
+	 */
+	private static final int BATCH_SIZE = 64;
+
+	private final NetworkConfig config;
+	private final NetworkMetrics metrics;
+	private final Executor executor;
+	/**
+	 * The executor if it has been created by the dispatcher, otherwise null.
+	 */
+	private final ExecutorService ownedExecutor;
+
+	private MessageDispatcher(NetworkConfig config, NetworkMetrics metrics, Executor executor, ExecutorService ownedExecutor) {
+		this.config = config;
+		this.metrics = metrics;
+		this.executor = executor;
+		this.ownedExecutor = ownedExecutor;
+	}
+
+	/**
+	 * Creates the dispatcher of a device according to its {@link NetworkConfig}.
+	 * @param config
+	 * @param metrics the metrics of the device or null, if no metrics are recorded.
+	 * @return the new dispatcher or null, if messages are dispatched on the event loop.
+	 */
+	public static MessageDispatcher create(NetworkConfig config, NetworkMetrics metrics) {
+		if (config.getDispatchExecutor() != null) {
+			return new MessageDispatcher(config, metrics, config.getDispatchExecutor(), null);
+		}
+		if (config.isVirtualThreadDispatch()) {
+			final ExecutorService executor = newVirtualThreadExecutor();
+			if (executor != null) {
+				Transport.getLogger().log(Level.INFO, "Dispatching received messages on virtual threads");
+				return new MessageDispatcher(config, metrics, executor, executor);
+			}
+			Transport.getLogger().log(Level.WARNING, "Virtual threads are not supported by this JVM, dispatching received messages on a thread pool");
+		} else if (config.getDispatchThreads() <= 0) {
+			return null;
+		}
+		final int threads = config.getDispatchThreads() > 0 ? config.getDispatchThreads() : Runtime.getRuntime().availableProcessors();
+		final ExecutorService executor = Executors.newFixedThreadPool(threads, new DefaultThreadFactory("transport-dispatch", true));
+		Transport.getLogger().log(Level.INFO, "Dispatching received messages on " + threads + " threads");
+		return new MessageDispatcher(config, metrics, executor, executor);
+	}
+
+	/*
+	 * The project is compiled for Java 8, so the executor of Java 21 is looked up by reflection.
+	 */
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException exception) {
+			return null;
+		}
+	}
+
+	/**
+	 * Queues the task behind the messages of the channel that have not been dispatched yet.<br>
+	 * This has to be called on the event loop of the channel.
+	 * @param channel
+	 * @param task
+	 */
+	public void dispatch(Channel channel, Runnable task) {
+		SessionQueue queue = channel.attr(QUEUE).get();
+		if (queue == null) {
+			queue = new SessionQueue(channel);
+			channel.attr(QUEUE).set(queue);
+		}
+		queue.add(task);
+	}
+
+	/**
+	 * Runs a task on the executor of the dispatcher, next to the queues of the sessions.
+	 * @param task
+	 * @throws RejectedExecutionException if the executor has been shut down.
+	 */
+	public void execute(Runnable task) {
+		executor.execute(task);
+	}
+
+	/**
+	 *
+	 * @param session
+	 * @return the amount of received messages of the session that wait to be dispatched.
+	 */
+	public int getQueuedMessages(ISession session) {
+		final SessionQueue queue = session.getChannel().attr(QUEUE).get();
+		return queue == null ? 0 : queue.size.get();
+	}
+
+	/**
+	 * Shuts down the executor if it has been created by the dispatcher. Messages that are still queued are dispatched.
+	 */
+	public void shutdown() {
+		if (ownedExecutor != null) {
+			ownedExecutor.shutdown();
+		}
+	}
+
+	private final class SessionQueue implements Runnable {
+
+		private final Channel channel;
+		private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+		private final AtomicInteger size = new AtomicInteger();
+		private final AtomicBoolean scheduled = new AtomicBoolean();
+		private final AtomicBoolean resumeScheduled = new AtomicBoolean();
+		/**
+		 * Whether the channel has stopped reading. It is only changed on the event loop, so the reads are never turned on and off out of order.
+		 */
+		private volatile boolean paused;
+
+		private SessionQueue(Channel channel) {
+			this.channel = channel;
+		}
+
+		private void add(Runnable task) {
+			tasks.add(task);
+			final int size = this.size.incrementAndGet();
+			if (metrics != null) {
+				metrics.getQueuedDispatches().increment();
+				metrics.getMaxDispatchQueue().accumulate(size);
+			}
+			if (size > config.getMaxDispatchQueue() && !paused) {
+				paused = true;
+				channel.config().setAutoRead(false);
+				if (metrics != null) {
+					metrics.getDispatchPauses().increment();
+				}
+				// The queue may have been dispatched before the channel was paused
+				if (this.size.get() <= config.getMaxDispatchQueue() / 2) {
+					resume();
+				}
+			}
+			schedule();
+		}
+
+		private void schedule() {
+			if (!scheduled.compareAndSet(false, true)) {
+				return;
+			}
+			try {
+				executor.execute(this);
+			} catch (RejectedExecutionException exception) {
+				// The device is shutting down, the remaining messages are dispatched by the caller
+				run();
+			}
+		}
+
+		@Override
+		public void run() {
+			for (int i = 0; i < BATCH_SIZE; i++) {
+				final Runnable task = tasks.poll();
+				if (task == null) {
+					break;
+				}
+				try {
+					task.run();
+				} catch (Throwable throwable) {
+					Transport.getLogger().log(Level.WARNING, "An exception was thrown while dispatching a message from " + channel.remoteAddress(), throwable);
+				}
+				final int size = this.size.decrementAndGet();
+				if (metrics != null) {
+					metrics.getQueuedDispatches().decrement();
+				}
+				if (paused && size <= config.getMaxDispatchQueue() / 2 && resumeScheduled.compareAndSet(false, true)) {
+					scheduleResume();
+				}
+			}
+			scheduled.set(false);
+			if (!tasks.isEmpty()) {
+				schedule();
+			}
+		}
+
+		private void scheduleResume() {
+			try {
+				channel.eventLoop().execute(() -> {
+					resumeScheduled.set(false);
+					if (paused && size.get() <= config.getMaxDispatchQueue() / 2) {
+						resume();
+					}
+				});
+			} catch (RejectedExecutionException exception) {
+				// The event loop has been shut down, so the channel does not read anymore
+			}
+		}
+
+		private void resume() {
+			paused = false;
+			channel.config().setAutoRead(true);
+		}
+	}
+}
@@ -1,15 +1,31 @@
 package de.iltisauge.transport.network;
 
-import de.iltisauge.transport.Transport;
+import de.iltisauge.transport.TransportContext;
+import de.iltisauge.transport.messages.CodecHandshakeMessage;
+import de.iltisauge.transport.server.Federation;
+import de.iltisauge.transport.utils.CastUtil;
 import de.iltisauge.transport.utils.PacketUtil;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.MessageToByteEncoder;
 import lombok.RequiredArgsConstructor;
 
 /**
  * This class extends {@link MessageToByteEncoder} and encodes a {@link Sendable} object to a {@link ByteBuf}.
- * If the {@link Sendable} object is a {@link ServerMessageWrapper} the unread class codec gets copied into the out-ByteBuf.
+ * If the {@link Sendable} object is a {@link ServerMessageWrapper} the unread class codec gets copied into the out-ByteBuf.<br>
+ * Messages that are sent to many sessions can be encoded once with {@link #encodeFrame(ByteBufAllocator, Sendable)}.<br>
+ * Messages are identified by the codec id that was agreed on in the {@link CodecHandshakeMessage}.
+ * The class name is only written if there is no id for the class yet.<br>
+ * Every frame starts with its length, which is written after the rest of the frame has been encoded.<br>
+ * Channels are written by their id if the receiver knows it, see {@link ChannelRegistry} and {@link KnownChannelIds}.<br>
+ * The channels are followed by the flags of the frame, which contain whether the message is received by its sender
+ * and the {@link CompressionAlgorithm} of the payload. Requests and replies also carry their correlation id behind the flags,
+ * messages of a durable channel carry their offset and direct messages the ids of their target and source session. Payloads above {@link NetworkConfig#getCompressionThreshold()} are compressed
+ * with the algorithm that has been negotiated with the receiver. The payload of a {@link ServerMessageWrapper} stays compressed
+ * if the receiver supports its algorithm, otherwise it is decompressed.<br>
+ * Frames to another server are portable: their channels and dynamic codecs are written by name, because every server assigns its own ids, see {@link Federation}.<br>
+ * The codec and channel ids are looked up in the {@link NetworkManager} of the device that encodes the frame, see {@link TransportContext}.
  * 
  * @author Daniel Ziegler
  *
@@ -17,31 +33,216 @@ import lombok.RequiredArgsConstructor;
 @RequiredArgsConstructor
 public class MessageEncoder extends MessageToByteEncoder<Sendable> {
 	
+	/**
+	 * The size in bytes of the length prefix in front of every frame.
+	 */
+	public static final int LENGTH_FIELD_SIZE = 4;
+
+	/**
+	 * The flag that is set if the message is also received by its sender, see {@link Sendable#isReceiveSelf()}.
+	 */
+	public static final int FLAG_RECEIVE_SELF = 0x01;
+
+	/**
+	 * The position of the {@link CompressionAlgorithm#getId()} of the payload in the flags.
+	 */
+	public static final int COMPRESSION_SHIFT = 1;
+
+	/**
+	 * The mask of the {@link CompressionAlgorithm#getId()} of the payload in the flags, after they have been shifted by {@link #COMPRESSION_SHIFT}.
+	 */
+	public static final int COMPRESSION_MASK = 0x07;
+
+	/**
+	 * The flag that is set if the sender waits for a reply. The flags are followed by the correlation id, see {@link Sendable#isRequest()}.
+	 */
+	public static final int FLAG_REQUEST = 0x10;
+
+	/**
+	 * The flag that is set if the message answers a request. The flags are followed by the correlation id, see {@link Sendable#isReply()}.
+	 */
+	public static final int FLAG_REPLY = 0x20;
+
+	/**
+	 * The flag that is set if the message has been appended to a durable channel. The flags are followed by its offset, see {@link Sendable#getOffset()}.
+	 */
+	public static final int FLAG_OFFSET = 0x40;
+
+	/**
+	 * The flag that is set if the message is sent to a single session. The flags are followed by the target and the source session id,
+	 * see {@link Sendable#getTargetSessionId()} and {@link Sendable#getSourceSessionId()}.
+	 */
+	public static final int FLAG_DIRECT = 0x80;
+
+	private final TransportContext context;
+
 	@Override
 	protected void encode(ChannelHandlerContext ctx, Sendable object, ByteBuf out) throws Exception {
+		final int startIndex = out.writerIndex();
+		final String[] channels = object.getChannels();
+		final boolean portable = Federation.isPeer(ctx.channel());
+		final NetworkConfig config = context.getConfig();
+		final NetworkManager networkManager = context.getNetworkManager();
+		writeFrame(networkManager, out, object, channels, !portable, ctx.channel().attr(KnownChannelIds.KNOWN_CHANNEL_IDS).get(),
+				CompressionAlgorithm.of(ctx.channel()), config.getCompressionThreshold(), config.getMaxFrameLength(), portable);
+		final NetworkMetrics metrics = NetworkMetrics.of(ctx.channel());
+		if (metrics != null) {
+			metrics.recordOutbound(getMessageType(networkManager, object), channels, out.writerIndex() - startIndex);
+		}
+	}
+
+	/**
+	 *
+	 * @param networkManager the network manager that knows the codec ids of the {@link Sendable}.
+	 * @param object
+	 * @return the class name under which the {@link Sendable} is recorded in the {@link NetworkMetrics}.
+	 */
+	public static String getMessageType(NetworkManager networkManager, Sendable object) {
+		if (object instanceof ServerMessageWrapper) {
+			final ServerMessageWrapper wrapper = (ServerMessageWrapper) object;
+			final String codecName = wrapper.getCodecName() != null ? wrapper.getCodecName() : networkManager.getCodecName(wrapper.getCodecId());
+			return codecName == null ? NetworkMetrics.UNKNOWN_MESSAGE_TYPE : codecName;
+		}
+		return object.getClass().getName();
+	}
+
+	/**
+	 * Encodes the {@link Sendable} once into a new frame that can be written to any number of sessions.<br>
+	 * The channels are written by name, so every session can decode the frame.
+	 * The caller owns the returned {@link ByteBuf} and has to release it, see {@link ISession#sendFrame(ByteBuf, Sendable)}.
+	 * @param networkManager the network manager that knows the codec ids of the {@link Sendable}.
+	 * @param allocator
+	 * @param object
+	 * @return the encoded frame including its length prefix.
+	 */
+	public static ByteBuf encodeFrame(NetworkManager networkManager, ByteBufAllocator allocator, Sendable object) {
+		return encodeFrame(networkManager, allocator, object, false, null, Integer.MAX_VALUE, Integer.MAX_VALUE, false);
+	}
+
+	/**
+	 * Encodes the {@link Sendable} once into a new frame that can be written to any number of sessions.<br>
+	 * The caller owns the returned {@link ByteBuf} and has to release it, see {@link ISession#sendFrame(ByteBuf, Sendable)}.
+	 * @param networkManager the network manager that knows the codec and channel ids of the {@link Sendable}.
+	 * @param allocator
+	 * @param object
+	 * @param useChannelIds whether channels that have an id are written by id. The frame may then only be written to sessions that know all of these ids.
+	 * @param compression the algorithm that all receivers of the frame support, or null. The frame may then only be written to sessions that have negotiated it.
+	 * @param compressionThreshold the minimum size of a payload in bytes to be compressed.
+	 * @param maxPayloadLength the maximum length of a payload in bytes after it has been decompressed.
+	 * @param portable whether dynamic codecs are written by class name, so the frame can be written to another server. Channels should then be written by name as well.
+	 * @return the encoded frame including its length prefix.
+	 */
+	public static ByteBuf encodeFrame(NetworkManager networkManager, ByteBufAllocator allocator, Sendable object, boolean useChannelIds, CompressionAlgorithm compression,
+			int compressionThreshold, int maxPayloadLength, boolean portable) {
+		final ByteBuf frame = allocator.ioBuffer();
+		try {
+			writeFrame(networkManager, frame, object, object.getChannels(), useChannelIds, null, compression, compressionThreshold, maxPayloadLength, portable);
+		} catch (RuntimeException exception) {
+			frame.release();
+			throw exception;
+		}
+		return frame;
+	}
+
+	private static void writeFrame(NetworkManager networkManager, ByteBuf out, Sendable object, String[] channels, boolean useChannelIds, KnownChannelIds knownChannelIds,
+			CompressionAlgorithm compression, int compressionThreshold, int maxPayloadLength, boolean portable) {
+		final int lengthIndex = out.writerIndex();
+		out.writeInt(0); // Placeholder for the frame length
+		int flags = object.isReceiveSelf() ? FLAG_RECEIVE_SELF : 0;
+		if (object.isReply()) {
+			flags |= FLAG_REPLY;
+		} else if (object.isRequest()) {
+			flags |= FLAG_REQUEST;
+		}
+		if (object.getOffset() != Sendable.NO_OFFSET) {
+			flags |= FLAG_OFFSET;
+		}
+		if (object.isDirect()) {
+			flags |= FLAG_DIRECT;
+		}
 		if (object instanceof ServerMessageWrapper) {
 			final ServerMessageWrapper msg = (ServerMessageWrapper) object;
-			PacketUtil.writeString(out, msg.getClassName());
-			out.writeInt(msg.getChannels().length);
-			for (String channel : msg.getChannels()) {
-				PacketUtil.writeString(out, channel);
+			// A message without a codec id carries its class name, which is also written instead of a dynamic id to linked servers
+			final String codecName = msg.getCodecId() == NetworkManager.CODEC_ID_BY_NAME ? msg.getCodecName()
+					: portable && msg.getCodecId() >= NetworkManager.FIRST_DYNAMIC_CODEC_ID ? networkManager.getCodecName(msg.getCodecId()) : null;
+			if (codecName != null) {
+				out.writeShort(NetworkManager.CODEC_ID_BY_NAME);
+				PacketUtil.writeString(out, codecName);
+			} else {
+				out.writeShort(msg.getCodecId());
+			}
+			writeChannels(networkManager, out, channels, msg.getChannelIds(), useChannelIds, knownChannelIds);
+			final CompressionAlgorithm payloadCompression = msg.getCompression();
+			final ByteBuf payload = msg.getPayload();
+			if (payloadCompression == null || payloadCompression == compression) {
+				if (payloadCompression != null) {
+					flags |= payloadCompression.getId() << COMPRESSION_SHIFT;
+				}
+				out.writeByte(flags);
+				writeCorrelationId(out, msg, flags);
+				out.writeBytes(payload, payload.readerIndex(), payload.readableBytes()); // Write unread codec
+			} else {
+				out.writeByte(flags);
+				writeCorrelationId(out, msg, flags);
+				final ByteBuf decompressed = payloadCompression.decompressPayload(payload, out.alloc(), maxPayloadLength);
+				try {
+					out.writeBytes(decompressed);
+				} finally {
+					decompressed.release();
+				}
 			}
-			out.writeBoolean(msg.isReceiveSelf());
-			out.writeBytes(msg.getBufferCopy()); // Write unread codec
 		} else if (object instanceof IMessage) {
 			final IMessage msg = (IMessage) object;
 			final Class<?> clazz = msg.getClass();
-			PacketUtil.writeString(out, clazz.getName());
-			out.writeInt(msg.getChannels().length);
-			for (String channel : msg.getChannels()) {
-				PacketUtil.writeString(out, channel);
+			final int boundCodecId = networkManager.getCodecId(clazz);
+			final int codecId = portable && boundCodecId >= NetworkManager.FIRST_DYNAMIC_CODEC_ID ? NetworkManager.CODEC_ID_BY_NAME : boundCodecId;
+			out.writeShort(codecId);
+			if (codecId == NetworkManager.CODEC_ID_BY_NAME) {
+				PacketUtil.writeString(out, clazz.getName());
 			}
-			out.writeBoolean(msg.isReceiveSelf());
-			@SuppressWarnings("unchecked")
-			final IMessageCodec<IMessage> codec = (IMessageCodec<IMessage>) Transport.getNetworkManager().getCodec(clazz);
+			writeChannels(networkManager, out, channels, null, useChannelIds, knownChannelIds);
+			final int flagsIndex = out.writerIndex();
+			out.writeByte(flags);
+			writeCorrelationId(out, msg, flags);
+			final int payloadIndex = out.writerIndex();
+			final IMessageCodec<IMessage> codec = CastUtil.cast(codecId == NetworkManager.CODEC_ID_BY_NAME ? networkManager.getCodec(clazz) : networkManager.getCodec(codecId));
 			if (codec != null) {
 				codec.write(out, msg);
 			}
+			if (compression != null && compression.compressPayload(out, payloadIndex, compressionThreshold)) {
+				out.setByte(flagsIndex, flags | compression.getId() << COMPRESSION_SHIFT);
+			}
  		}
+		out.setInt(lengthIndex, out.writerIndex() - lengthIndex - LENGTH_FIELD_SIZE);
+	}
+
+	private static void writeCorrelationId(ByteBuf out, Sendable object, int flags) {
+		if ((flags & (FLAG_REQUEST | FLAG_REPLY)) != 0) {
+			PacketUtil.writeVarLong(out, object.getCorrelationId());
+		}
+		if ((flags & FLAG_OFFSET) != 0) {
+			PacketUtil.writeVarLong(out, object.getOffset());
+		}
+		if ((flags & FLAG_DIRECT) != 0) {
+			PacketUtil.writeVarInt(out, object.getTargetSessionId());
+			PacketUtil.writeVarInt(out, object.getSourceSessionId());
+		}
+	}
+
+	/**
+	 * Writes the amount of channels followed by every channel, which is either its id or {@link ChannelRegistry#NO_ID} followed by its name.
+	 */
+	private static void writeChannels(NetworkManager networkManager, ByteBuf out, String[] channels, int[] channelIds, boolean useChannelIds, KnownChannelIds knownChannelIds) {
+		PacketUtil.writeVarInt(out, channels.length);
+		final ChannelRegistry channelRegistry = networkManager.getChannelRegistry();
+		for (int i = 0; i < channels.length; i++) {
+			final int channelId = channelIds != null && channelIds.length == channels.length ? channelIds[i] : channelRegistry.getId(channels[i]);
+			if (useChannelIds && channelId != ChannelRegistry.NO_ID && (knownChannelIds == null || knownChannelIds.isKnown(channelId))) {
+				PacketUtil.writeVarInt(out, channelId);
+			} else {
+				PacketUtil.writeVarInt(out, ChannelRegistry.NO_ID);
+				PacketUtil.writeString(out, channels[i]);
+			}
+		}
 	}
 }
@@ -0,0 +1,38 @@
+package de.iltisauge.transport.network;
+
+import io.netty.util.Recycler;
+
+/**
+ * This class keeps the recycled messages of a single {@link IRecyclableMessageCodec}.<br>
+ * Every thread takes messages from its own pool, so the event loops do not contend. A message that is released on another thread,
+ * e.g. by the {@link MessageDispatcher}, is handed back to the pool of the thread that has taken it.
+ *
+ * @author Daniel Ziegler
+ *
+ * @param <T>
+ */
+public class MessagePool<T extends Message> extends Recycler<T> {
+
+	private final IRecyclableMessageCodec<T> codec;
+
+	public MessagePool(IRecyclableMessageCodec<T> codec) {
+		this.codec = codec;
+	}
+
+	/**
+	 * Takes a message from the pool of the current thread.
+	 * @return a message with a reference count of 1. It is returned to the pool when it is released.
+	 */
+	public T take() {
+		final T message = get();
+		message.setReferenceCount(1);
+		return message;
+	}
+
+	@Override
+	protected T newObject(Handle handle) {
+		final T message = codec.newMessage();
+		message.setRecycler(this, handle);
+		return message;
+	}
+}
@@ -0,0 +1,297 @@
+package de.iltisauge.transport.network;
+
+import java.io.File;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.util.ResourceLeakDetector;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * This class contains the tunable settings of a {@link NetworkDevice}.<br>
+ * The settings are read when the device is initialized, so they have to be changed before calling {@link NetworkDevice#initialize()}.
+ *
+ * @author Daniel Ziegler
+ *
+ */
+@Getter
+@Setter
+public class NetworkConfig {
+
+	/**
+	 * The default of {@link #getMaxStringLength()}, which also limits the strings that are read by a codec without a config.
+	 */
+	public static final int DEFAULT_MAX_STRING_LENGTH = 64 * 1024;
+
+	/**
+	 * The maximum size of a single frame in bytes, excluding the length prefix.<br>
+	 * Frames that announce a bigger size are discarded.
+	 */
+	private int maxFrameLength = 8 * 1024 * 1024;
+
+	/**
+	 * The maximum length in bytes of a string in the frame header, such as a channel name, or in one of the messages of the transport itself, such as a class name in a {@link de.iltisauge.transport.messages.CodecHandshakeMessage}.
+	 */
+	private int maxStringLength = DEFAULT_MAX_STRING_LENGTH;
+
+	/**
+	 * The maximum amount of channels a single frame may be addressed to.
+	 */
+	private int maxChannelCount = 1024;
+
+	/**
+	 * The maximum amount of codec ids the server assigns to the class names that clients send in their {@link de.iltisauge.transport.messages.CodecHandshakeMessage}s.<br>
+	 * Ids are never given back, so once the limit is reached, the messages of new classes are forwarded by their class name.
+	 */
+	private int maxDynamicCodecIds = 4096;
+
+	/**
+	 * Set this to true to coalesce the flushes of every session, see {@link FlushBatchingHandler}.
+	 */
+	private boolean batchWrites = false;
+
+	/**
+	 * The amount of written messages after which a batching session flushes immediately.
+	 */
+	private int batchMaxMessages = 64;
+
+	/**
+	 * The amount of written bytes after which a batching session flushes immediately.
+	 */
+	private int batchMaxBytes = 64 * 1024;
+
+	/**
+	 * The time in microseconds a batching session waits for more writes before it flushes.<br>
+	 * If this is 0 the session flushes at the end of the current event loop turn.
+	 */
+	private long batchMaxDelayMicros = 0;
+
+	/**
+	 * The Netty transport that is used for all channels.
+	 */
+	private TransportType transportType = TransportType.AUTO;
+
+	/**
+	 * The amount of threads that accept new connections on the server.
+	 */
+	private int bossThreads = 1;
+
+	/**
+	 * The amount of threads that handle the I/O of the connections, or 0 to use twice the amount of available processors.
+	 */
+	private int workerThreads = 0;
+
+	/**
+	 * The percentage of time the event loop threads spend on I/O compared to other tasks, between 1 and 100.
+	 */
+	private int ioRatio = 50;
+
+	/**
+	 * The amount of threads that call the {@link IMessageEvent}s of received messages, or 0 to call them on the event loop of the session.<br>
+	 * The messages of a session are dispatched one after another in the order they have been received, see {@link MessageDispatcher}.
+	 * On the server the messages are forwarded by these threads as well. A server with {@link #getDurableChannels()} uses as many threads as there are processors if this is 0.
+	 */
+	private int dispatchThreads = 0;
+
+	/**
+	 * Set this to true to dispatch received messages on virtual threads instead of {@link #getDispatchThreads()} threads.
+	 * Virtual threads require Java 21, older JVMs fall back to a pool of {@link #getDispatchThreads()} or as many threads as there are processors.
+	 */
+	private boolean virtualThreadDispatch = false;
+
+	/**
+	 * The executor that dispatches received messages, or null to create one according to {@link #getDispatchThreads()} and {@link #isVirtualThreadDispatch()}.
+	 * An executor that is set here is not shut down with the device.
+	 */
+	private Executor dispatchExecutor = null;
+
+	/**
+	 * The maximum amount of received messages of a single session that wait to be dispatched.
+	 * Once it is exceeded, the session stops reading from its socket until half of them have been dispatched.
+	 */
+	private int maxDispatchQueue = 1024;
+
+	/**
+	 * Set this to false to stop recording the {@link NetworkMetrics} of the device.
+	 */
+	private boolean recordMetrics = true;
+
+	/**
+	 * The maximum amount of message classes and of channels the {@link NetworkMetrics} keep separate counters for.
+	 * The messages of further classes or channels are counted together as {@link NetworkMetrics#OTHER}.
+	 */
+	private int maxMetricKeys = 1024;
+
+	/**
+	 * The amount of buffered outbound bytes of a session above which it is no longer writable, so new frames are queued by the {@link BackpressureHandler}.
+	 */
+	private int writeBufferHighWaterMark = 64 * 1024;
+
+	/**
+	 * The amount of buffered outbound bytes of a session below which it becomes writable again.
+	 */
+	private int writeBufferLowWaterMark = 32 * 1024;
+
+	/**
+	 * The maximum amount of frames that are queued for a session that is not writable.
+	 */
+	private int maxQueuedMessages = 1024;
+
+	/**
+	 * The maximum amount of bytes that are queued for a session that is not writable.
+	 */
+	private long maxQueuedBytes = 4 * 1024 * 1024;
+
+	/**
+	 * Decides what happens when the queue of a session is full.
+	 */
+	private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
+
+	/**
+	 * The algorithms that may be used to compress payloads, ordered by preference, or an empty array to disable compression.<br>
+	 * The client offers these algorithms in its {@link de.iltisauge.transport.messages.CodecHandshakeMessage}
+	 * and the server picks the first of its own algorithms that has been offered.
+	 */
+	private CompressionAlgorithm[] compressionAlgorithms = new CompressionAlgorithm[0];
+
+	/**
+	 * The minimum size of a payload in bytes to be compressed.
+	 */
+	private int compressionThreshold = 1024;
+
+	/**
+	 * Set this to false to keep a {@link de.iltisauge.transport.client.NetworkClient} from registering the generated codecs of all messages
+	 * with {@link de.iltisauge.transport.codec.GenerateCodec}, see {@link NetworkManager#registerGeneratedCodecs()}.<br>
+	 * The server never registers them, because it forwards the messages of a codec it does not know without decoding them.
+	 */
+	private boolean registerGeneratedCodecs = true;
+
+	/**
+	 * The time in milliseconds the server waits for the reply to a request that it has forwarded.
+	 * Replies that arrive later are dropped, so this should not be shorter than the timeouts of the requests.
+	 */
+	private long requestRouteTimeoutMillis = 60 * 1000;
+
+	/**
+	 * Set this to false to keep a {@link de.iltisauge.transport.client.NetworkClient} from reconnecting after it has lost the connection to the server.
+	 */
+	private boolean reconnect = true;
+
+	/**
+	 * The time in milliseconds a client waits at most before its first attempt to reconnect. The limit doubles after every failed attempt.<br>
+	 * Every client waits a random time below the limit, so the clients of a restarted server do not all reconnect at once.
+	 */
+	private long reconnectInitialDelayMillis = 100;
+
+	/**
+	 * The highest limit in milliseconds of the time a client waits before it attempts to reconnect.
+	 */
+	private long reconnectMaxDelayMillis = 30 * 1000;
+
+	/**
+	 * The maximum amount of messages a client buffers while it is not connected, see {@link de.iltisauge.transport.client.OutboundBuffer}.
+	 */
+	private int maxBufferedMessages = 1024;
+
+	/**
+	 * Decides which message is dropped when the buffer of a client that is not connected is full.
+	 * {@link OverflowPolicy#DISCONNECT} drops the new message like {@link OverflowPolicy#DROP_NEWEST}.
+	 */
+	private OverflowPolicy bufferOverflowPolicy = OverflowPolicy.DROP_OLDEST;
+
+	/**
+	 * The id of the server in a federation, which has to be unique among all linked servers.
+	 */
+	private String nodeId = UUID.randomUUID().toString();
+
+	/**
+	 * The addresses of the servers this server links up with, see {@link de.iltisauge.transport.server.Federation}.<br>
+	 * A link between two servers only has to be configured on one of them.
+	 */
+	private List<SocketAddress> peerAddresses = new ArrayList<>();
+
+	/**
+	 * The time in milliseconds a server waits before it connects to a peer again, after the link could not be established or has been lost.
+	 */
+	private long peerReconnectDelayMillis = 1000;
+
+	/**
+	 * The channels and channel patterns whose messages are appended to the {@link de.iltisauge.transport.server.MessageLog} of the server,
+	 * so clients can subscribe them from an earlier offset or time. Durable channels are disabled if this is empty.
+	 */
+	private List<String> durableChannels = new ArrayList<>();
+
+	/**
+	 * The directory that contains the logs of the durable channels.
+	 */
+	private File logDirectory = new File("transport-log");
+
+	/**
+	 * The size in bytes of a segment file of a channel log. A full segment is followed by a new one.
+	 */
+	private int logSegmentBytes = 64 * 1024 * 1024;
+
+	/**
+	 * The amount of bytes that are appended to a segment between two entries of its offset index.
+	 */
+	private int logIndexIntervalBytes = 4096;
+
+	/**
+	 * The maximum size in bytes of the log of a channel. The oldest segments are deleted once it is exceeded.
+	 */
+	private long logRetentionBytes = 1024L * 1024 * 1024;
+
+	/**
+	 * The time in milliseconds a message is kept in the log of a channel.
+	 * A segment is deleted once its newest message is older.
+	 */
+	private long logRetentionMillis = TimeUnit.DAYS.toMillis(7);
+
+	/**
+	 * The time in milliseconds after which the log of a channel that has neither been appended to nor replayed is closed.
+	 * A closed log gives back the unused space of its last segment and is opened again when it is used.
+	 */
+	private long logIdleMillis = TimeUnit.MINUTES.toMillis(10);
+
+	/**
+	 * Set this to true to take buffers from a pool instead of allocating a new buffer for every frame.
+	 */
+	private boolean pooledBuffers = true;
+
+	/**
+	 * Set this to true to allocate direct buffers, which can be written to the socket without another copy.
+	 */
+	private boolean directBuffers = true;
+
+	/**
+	 * The level of Netty's leak detection for buffers that are never released, or null to keep the current level.<br>
+	 * The level applies to the whole JVM. {@link ResourceLeakDetector.Level#PARANOID} tracks every buffer and is meant for testing only.
+	 */
+	private ResourceLeakDetector.Level leakDetectionLevel = null;
+
+	/**
+	 * Set this to true to take received messages from per-thread pools and return them once they have been dispatched, instead of creating a new message for every frame.<br>
+	 * The server recycles its {@link ServerMessageWrapper}s and a client recycles the messages whose codec implements {@link IRecyclableMessageCodec}.
+	 * A listener that keeps a received message beyond its call, or sends it again, has to {@link Message#retain()} it and release it once it is done, see {@link Message}.
+	 */
+	private boolean recycleMessages = false;
+
+	/**
+	 *
+	 * @return a new {@link ByteBufAllocator} according to {@link #isPooledBuffers()} and {@link #isDirectBuffers()}.
+	 */
+	public ByteBufAllocator newAllocator() {
+		if (pooledBuffers) {
+			return new PooledByteBufAllocator(directBuffers);
+		}
+		return new UnpooledByteBufAllocator(directBuffers);
+	}
+}
@@ -1,12 +1,23 @@
 package de.iltisauge.transport.network;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+import de.iltisauge.transport.Transport;
+import de.iltisauge.transport.TransportContext;
 import de.iltisauge.transport.client.NetworkClient;
 import de.iltisauge.transport.server.NetworkServer;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.ResourceLeakDetector;
+import io.netty.util.concurrent.DefaultThreadFactory;
 import lombok.Getter;
 import lombok.Setter;
 
 /**
- * This class is extended by {@link NetworkServer} and {@link NetworkClient}.
+ * This class is extended by {@link NetworkServer} and {@link NetworkClient}.<br>
+ * Every device has its own {@link TransportContext}, so several devices can run in the same JVM.
  * 
  * @author Daniel Ziegler
  *
@@ -17,10 +28,113 @@ public abstract class NetworkDevice {
 	@Setter
 	private boolean logTraffic = true;
 	
+	/**
+	 * The settings that are applied when the device gets initialized.
+	 */
+	@Getter
+	@Setter
+	private NetworkConfig config = new NetworkConfig();
+
+	/**
+	 * Contains how many messages each flush has carried if write batching is enabled, see {@link NetworkConfig#isBatchWrites()}.
+	 */
+	@Getter
+	private final FlushStatistics flushStatistics = new FlushStatistics();
+
+	/**
+	 * Contains the traffic counters and latency histograms of the device, see {@link NetworkConfig#isRecordMetrics()}.
+	 */
+	@Getter
+	private final NetworkMetrics metrics = new NetworkMetrics();
+
+	/**
+	 * The allocator of all buffers of the device. It is created by {@link #initializeAllocator()}.
+	 */
+	@Getter
+	private ByteBufAllocator allocator;
+
+	/**
+	 * Dispatches received messages off the event loop, or null if they are dispatched on the event loop. It is created by {@link #initializeDispatcher()}.
+	 */
+	@Getter
+	private MessageDispatcher dispatcher;
+
+	/**
+	 * The runtime of the device, which is bound to all of its channels.
+	 */
+	@Getter
+	private final TransportContext context = new TransportContext(this);
+
+	/**
+	 * The timer that runs all timeouts of the device on a single thread, which is started when the first timeout is scheduled.
+	 */
+	@Getter
+	private final HashedWheelTimer timer = new HashedWheelTimer(new DefaultThreadFactory("transport-timer", true), 10, TimeUnit.MILLISECONDS);
+
+	/**
+	 * The id that has been assigned to the last session of the device, see {@link ISession#getId()}.
+	 */
+	private final AtomicInteger lastSessionId = new AtomicInteger();
+
 	/**
 	 * Initializes the {@link NetworkDevice}.
 	 */
 	public abstract void initialize();
+
+	/**
+	 *
+	 * @return the {@link NetworkManager} of the device.
+	 */
+	public abstract NetworkManager getNetworkManager();
+
+	/**
+	 * Creates the {@link ByteBufAllocator} of the device and applies the leak detection level of the {@link NetworkConfig}.
+	 * @return the new allocator.
+	 */
+	protected ByteBufAllocator initializeAllocator() {
+		final NetworkConfig config = getConfig();
+		if (config.getLeakDetectionLevel() != null) {
+			ResourceLeakDetector.setLevel(config.getLeakDetectionLevel());
+		}
+		allocator = config.newAllocator();
+		Transport.getLogger().log(Level.INFO, "Using " + (config.isPooledBuffers() ? "pooled " : "unpooled ")
+				+ (config.isDirectBuffers() ? "direct" : "heap") + " buffers with " + ResourceLeakDetector.getLevel() + " leak detection");
+		return allocator;
+	}
+	
+	/**
+	 * Assigns an id to a new session of the device. The ids count up from 1 and start over once they have run out.
+	 * @return the new session id.
+	 */
+	public int nextSessionId() {
+		return lastSessionId.updateAndGet(id -> id == Integer.MAX_VALUE ? 1 : id + 1);
+	}
+
+	/**
+	 * Applies the codec, channel and session ids that a received message binds.<br>
+	 * It is called on the event loop for every decoded message before the message is dispatched, so the ids are bound before the next frame of the session is decoded.
+	 * The device does not bind any ids by default.
+	 * @param object
+	 */
+	public void applyBindings(Sendable object) {
+	}
+
+	/**
+	 * Creates the {@link MessageDispatcher} of the device according to the {@link NetworkConfig}.
+	 */
+	protected void initializeDispatcher() {
+		final NetworkConfig config = getConfig();
+		dispatcher = MessageDispatcher.create(config, config.isRecordMetrics() ? metrics : null);
+	}
+
+	/**
+	 * Shuts down the {@link MessageDispatcher} of the device, if there is one.
+	 */
+	protected void shutdownDispatcher() {
+		if (dispatcher != null) {
+			dispatcher.shutdown();
+		}
+	}
 	
 	/**
 	 * Starts the {@link NetworkDevice}.<br>
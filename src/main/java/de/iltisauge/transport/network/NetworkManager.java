@@ -1,11 +1,18 @@
 package de.iltisauge.transport.network;
 
-import java.lang.reflect.Method;
 import java.util.*;
 import java.util.logging.Level;
 
 import de.iltisauge.transport.Transport;
+import de.iltisauge.transport.codec.GenerateCodec;
+import de.iltisauge.transport.codec.GeneratedCodec;
+import de.iltisauge.transport.codec.GeneratedCodecs;
+import de.iltisauge.transport.messages.ChannelIdsMessage;
+import de.iltisauge.transport.messages.CodecHandshakeMessage;
 import de.iltisauge.transport.messages.HandleSubscriptionsMessage;
+import de.iltisauge.transport.messages.PeerHelloMessage;
+import de.iltisauge.transport.messages.ReplaySubscriptionMessage;
+import de.iltisauge.transport.messages.SessionIdMessage;
 import de.iltisauge.transport.utils.CastUtil;
 
 /**
@@ -17,23 +24,118 @@ import de.iltisauge.transport.utils.CastUtil;
  */
 public class NetworkManager {
 	
+	/**
+	 * The codec id that is written to the wire if no id has been agreed on for a class yet.<br>
+	 * It is followed by the class name of the message.
+	 */
+	public static final int CODEC_ID_BY_NAME = 0;
+	/**
+	 * The fixed codec id of the {@link CodecHandshakeMessage}.
+	 */
+	public static final int CODEC_ID_HANDSHAKE = 1;
+	/**
+	 * The fixed codec id of the {@link HandleSubscriptionsMessage}.
+	 */
+	public static final int CODEC_ID_HANDLE_SUBSCRIPTIONS = 2;
+	/**
+	 * The fixed codec id of the {@link ChannelIdsMessage}.
+	 */
+	public static final int CODEC_ID_CHANNEL_IDS = 3;
+	/**
+	 * The fixed codec id of the {@link PeerHelloMessage}.
+	 */
+	public static final int CODEC_ID_PEER_HELLO = 4;
+	/**
+	 * The fixed codec id of the {@link ReplaySubscriptionMessage}.
+	 */
+	public static final int CODEC_ID_REPLAY_SUBSCRIPTION = 5;
+	/**
+	 * The fixed codec id of the {@link SessionIdMessage}.
+	 */
+	public static final int CODEC_ID_SESSION_ID = 6;
+	/**
+	 * The first codec id that can be assigned during a {@link CodecHandshakeMessage}.
+	 * All lower ids are reserved for fixed codecs.
+	 */
+	public static final int FIRST_DYNAMIC_CODEC_ID = 16;
+	/**
+	 * Codec ids are written as unsigned short.
+	 */
+	public static final int MAX_CODEC_ID = 0xFFFF;
+	
+	private final ChannelRegistry channelRegistry = new ChannelRegistry();
 	private final Map<Class<?>, IMessageCodec<?>> codecs = new HashMap<>();
+	private final Map<String, Integer> codecIds = new HashMap<>();
+	/*
+	 * The following lookup tables are rebuilt from the two maps above whenever a codec or an id is changed.
+	 * They are never modified after publishing, so they can be read without locking.
+	 */
+	private volatile Map<String, IMessageCodec<?>> codecsByName = Collections.emptyMap();
+	private volatile Map<Class<?>, Integer> codecIdsByClass = Collections.emptyMap();
+	private volatile IMessageCodec<?>[] codecsById = new IMessageCodec<?>[0];
+	private volatile String[] codecNamesById = new String[0];
+	/*
+	 * Contains a pool for every registered IRecyclableMessageCodec. A pool is kept as long as its codec is registered, so its recycled messages are not lost.
+	 */
+	private volatile Map<IMessageCodec<?>, MessagePool<?>> messagePools = Collections.emptyMap();
+	/*
+	 * The event registrations are guarded by the clazzBoundEvents lock.
+	 */
 	private final Map<Class<?>, Map<IMessageEvent<?>, Integer>> clazzBoundEvents = new HashMap<>();
 	private final Map<IMessageEvent<?>, Integer> notBoundEvents = new HashMap<>();
-	private Integer latestEventPriority = 0;
+	private int latestEventPriority = 0;
+	/*
+	 * Contains the priority-sorted events of every message class that has been dispatched.
+	 * The map and its arrays are never modified after publishing, so dispatching does not lock or allocate.
+	 */
+	private volatile Map<Class<?>, IMessageEvent<?>[]> dispatchTable = Collections.emptyMap();
 	
 	/**
 	 * Registers the default message codecs.
 	 */
 	public void registerDefaultCodecs() {
+		bindCodecId(CodecHandshakeMessage.class.getName(), CODEC_ID_HANDSHAKE);
+		bindCodecId(HandleSubscriptionsMessage.class.getName(), CODEC_ID_HANDLE_SUBSCRIPTIONS);
+		bindCodecId(ChannelIdsMessage.class.getName(), CODEC_ID_CHANNEL_IDS);
+		bindCodecId(PeerHelloMessage.class.getName(), CODEC_ID_PEER_HELLO);
+		bindCodecId(ReplaySubscriptionMessage.class.getName(), CODEC_ID_REPLAY_SUBSCRIPTION);
+		bindCodecId(SessionIdMessage.class.getName(), CODEC_ID_SESSION_ID);
+		registerCodec(CodecHandshakeMessage.class, CodecHandshakeMessage.CODEC);
 		registerCodec(HandleSubscriptionsMessage.class, HandleSubscriptionsMessage.CODEC);
+		registerCodec(ChannelIdsMessage.class, ChannelIdsMessage.CODEC);
+		registerCodec(PeerHelloMessage.class, PeerHelloMessage.CODEC);
+		registerCodec(ReplaySubscriptionMessage.class, ReplaySubscriptionMessage.CODEC);
+		registerCodec(SessionIdMessage.class, SessionIdMessage.CODEC);
 	}
 	
 	/**
 	 * Unregisters the default message codecs.
 	 */
 	public void unregisterDefaultCodecs() {
+		unregisterCodec(CodecHandshakeMessage.class);
 		unregisterCodec(HandleSubscriptionsMessage.class);
+		unregisterCodec(ChannelIdsMessage.class);
+		unregisterCodec(PeerHelloMessage.class);
+		unregisterCodec(ReplaySubscriptionMessage.class);
+		unregisterCodec(SessionIdMessage.class);
+	}
+	
+	/**
+	 * Registers the codecs that have been generated for the messages with {@link GenerateCodec}, see {@link GeneratedCodecs#load(ClassLoader)}.<br>
+	 * The codecs are looked up by the context class loader of the current thread.
+	 */
+	public void registerGeneratedCodecs() {
+		for (GeneratedCodec<?> codec : GeneratedCodecs.load(Thread.currentThread().getContextClassLoader())) {
+			registerCodec(codec.getType(), codec);
+		}
+	}
+	
+	/**
+	 * 
+	 * @return the {@link ChannelRegistry} that contains the channel ids which are used on the wire.
+	 */
+	public ChannelRegistry getChannelRegistry() {
+		return channelRegistry;
 	}
 	
 	/**
@@ -44,6 +146,7 @@ public class NetworkManager {
 	public void registerCodec(Class<?> clazz, IMessageCodec<?> codec) {
 		synchronized (codecs) {
 			codecs.put(clazz, codec);
+			rebuildCodecTables();
 		}
 	}
 	
@@ -54,6 +157,7 @@ public class NetworkManager {
 	public void unregisterCodec(Class<?> clazz) {
 		synchronized (codecs) {
 			codecs.remove(clazz);
+			rebuildCodecTables();
 		}
 	}
 	
@@ -85,19 +189,215 @@ public class NetworkManager {
 		return codec;
 	}
 	
+	/**
+	 * This method does not lock and is meant to be used by the {@link MessageDecoder}.
+	 * @param className
+	 * @return the {@link IMessageCodec} that is registered for the class with the given name or null.
+	 */
+	public IMessageCodec<?> getCodec(String className) {
+		return codecsByName.get(className);
+	}
+	
+	/**
+	 * This method does not lock and is meant to be used by the {@link MessageDecoder}.
+	 * @param codecId
+	 * @return the {@link IMessageCodec} that is bound to the given codec id or null.
+	 */
+	public IMessageCodec<?> getCodec(int codecId) {
+		final IMessageCodec<?>[] codecsById = this.codecsById;
+		if (codecId < 0 || codecId >= codecsById.length) {
+			return null;
+		}
+		return codecsById[codecId];
+	}
+	
+	/**
+	 * This method does not lock and is meant to be used by the {@link MessageDecoder}, see {@link NetworkConfig#isRecycleMessages()}.
+	 * @param codec
+	 * @return the {@link MessagePool} of the given codec or null, if the codec does not implement {@link IRecyclableMessageCodec} or is not registered.
+	 */
+	public MessagePool<?> getMessagePool(IMessageCodec<?> codec) {
+		return messagePools.get(codec);
+	}
+	
+	/**
+	 * This method does not lock and is meant to be used when recording {@link NetworkMetrics}.
+	 * @param codecId
+	 * @return the class name that is bound to the given codec id or null.
+	 */
+	public String getCodecName(int codecId) {
+		final String[] codecNamesById = this.codecNamesById;
+		if (codecId < 0 || codecId >= codecNamesById.length) {
+			return null;
+		}
+		return codecNamesById[codecId];
+	}
+	
+	/**
+	 * This method does not lock and is meant to be used by the {@link MessageEncoder}.
+	 * @param clazz
+	 * @return the codec id that is bound to the given class or {@link #CODEC_ID_BY_NAME} if no id has been agreed on yet.
+	 */
+	public int getCodecId(Class<?> clazz) {
+		final Integer codecId = codecIdsByClass.get(clazz);
+		return codecId == null ? CODEC_ID_BY_NAME : codecId;
+	}
+	
+	/**
+	 * Returns the codec id for a class name that was read from the wire.<br>
+	 * No id is assigned here, the server only assigns ids during a {@link CodecHandshakeMessage}.
+	 * @param className
+	 * @return the codec id that is bound to the given class name or {@link #CODEC_ID_BY_NAME}.
+	 */
+	public int resolveCodecId(String className) {
+		synchronized (codecs) {
+			final Integer codecId = codecIds.get(className);
+			return codecId == null ? CODEC_ID_BY_NAME : codecId;
+		}
+	}
+	
+	/**
+	 * Binds a codec id to the class with the given name.<br>
+	 * The class does not need to have a registered codec, which allows the server to forward messages it cannot decode.
+	 * @param className
+	 * @param codecId
+	 */
+	public void bindCodecId(String className, int codecId) {
+		if (codecId <= CODEC_ID_BY_NAME || codecId > MAX_CODEC_ID) {
+			throw new IllegalArgumentException("Invalid codec id " + codecId + " for class " + className);
+		}
+		synchronized (codecs) {
+			codecIds.put(className, codecId);
+			rebuildCodecTables();
+		}
+	}
+	
+	/**
+	 * Binds the codec ids of a {@link CodecHandshakeMessage} that was answered by the server.
+	 * @param message
+	 */
+	public void bindCodecIds(CodecHandshakeMessage message) {
+		final String[] classNames = message.getClassNames();
+		final int[] codecIds = message.getCodecIds();
+		if (classNames.length != codecIds.length) {
+			Transport.getLogger().log(Level.WARNING, "Ignored a codec handshake with " + classNames.length + " class names and " + codecIds.length + " ids");
+			return;
+		}
+		bindCodecIds(classNames, codecIds);
+	}
+	
+	/**
+	 * Binds the codec ids to the classes with the given names at once, so the lookup tables are only rebuilt once.<br>
+	 * Class names with {@link #CODEC_ID_BY_NAME} stay unbound, because the server has not assigned an id to them, and invalid ids are ignored.
+	 * @param classNames
+	 * @param codecIds the codec ids in the order of the class names.
+	 */
+	public void bindCodecIds(String[] classNames, int[] codecIds) {
+		synchronized (codecs) {
+			for (int i = 0; i < classNames.length; i++) {
+				final int codecId = codecIds[i];
+				if (codecId == CODEC_ID_BY_NAME) {
+					continue;
+				}
+				if (codecId < CODEC_ID_BY_NAME || codecId > MAX_CODEC_ID) {
+					Transport.getLogger().log(Level.WARNING, "Ignored the invalid codec id " + codecId + " for class " + classNames[i]);
+					continue;
+				}
+				this.codecIds.put(classNames[i], codecId);
+			}
+			rebuildCodecTables();
+		}
+	}
+	
+	/**
+	 * Removes all codec ids that have been assigned during a {@link CodecHandshakeMessage}, so the codecs are written by name until they are bound again.
+	 */
+	public void clearDynamicCodecIds() {
+		synchronized (codecs) {
+			codecIds.values().removeIf(codecId -> codecId >= FIRST_DYNAMIC_CODEC_ID);
+			rebuildCodecTables();
+		}
+	}
+	
+	/**
+	 * 
+	 * @return a new {@link CodecHandshakeMessage} that contains the class names of all registered codecs without fixed ids.
+	 */
+	public CodecHandshakeMessage createCodecHandshake() {
+		final List<String> classNames = new ArrayList<>();
+		synchronized (codecs) {
+			for (Class<?> clazz : codecs.keySet()) {
+				final Integer codecId = codecIds.get(clazz.getName());
+				if (codecId == null || codecId >= FIRST_DYNAMIC_CODEC_ID) {
+					classNames.add(clazz.getName());
+				}
+			}
+		}
+		return new CodecHandshakeMessage(classNames.toArray(new String[classNames.size()]));
+	}
+	
+	/**
+	 * 
+	 * @return the highest codec id that is currently bound or {@link #CODEC_ID_BY_NAME}.
+	 */
+	protected int getHighestCodecId() {
+		synchronized (codecs) {
+			int highest = CODEC_ID_BY_NAME;
+			for (Integer codecId : codecIds.values()) {
+				highest = Math.max(highest, codecId);
+			}
+			return highest;
+		}
+	}
+	
+	private void rebuildCodecTables() {
+		final Map<String, IMessageCodec<?>> codecsByName = new HashMap<>();
+		final Map<Class<?>, Integer> codecIdsByClass = new HashMap<>();
+		int highestCodecId = CODEC_ID_BY_NAME;
+		for (Map.Entry<Class<?>, IMessageCodec<?>> entry : codecs.entrySet()) {
+			final String className = entry.getKey().getName();
+			codecsByName.put(className, entry.getValue());
+			final Integer codecId = codecIds.get(className);
+			if (codecId != null) {
+				codecIdsByClass.put(entry.getKey(), codecId);
+				highestCodecId = Math.max(highestCodecId, codecId);
+			}
+		}
+		final IMessageCodec<?>[] codecsById = new IMessageCodec<?>[highestCodecId + 1];
+		for (Map.Entry<Class<?>, Integer> entry : codecIdsByClass.entrySet()) {
+			codecsById[entry.getValue()] = codecs.get(entry.getKey());
+		}
+		int highestBoundCodecId = CODEC_ID_BY_NAME;
+		for (Integer codecId : codecIds.values()) {
+			highestBoundCodecId = Math.max(highestBoundCodecId, codecId);
+		}
+		final String[] codecNamesById = new String[highestBoundCodecId + 1];
+		for (Map.Entry<String, Integer> entry : codecIds.entrySet()) {
+			codecNamesById[entry.getValue()] = entry.getKey();
+		}
+		final Map<IMessageCodec<?>, MessagePool<?>> messagePools = new IdentityHashMap<>();
+		for (IMessageCodec<?> codec : codecs.values()) {
+			if (codec instanceof IRecyclableMessageCodec) {
+				final MessagePool<?> messagePool = this.messagePools.get(codec);
+				messagePools.put(codec, messagePool != null ? messagePool : new MessagePool<>((IRecyclableMessageCodec<?>) codec));
+			}
+		}
+		this.codecsByName = codecsByName;
+		this.codecIdsByClass = codecIdsByClass;
+		this.messagePools = messagePools;
+		this.codecsById = codecsById;
+		this.codecNamesById = codecNamesById;
+	}
+	
 	/**
 	 * Registers a new {@link IMessageEvent} that is not bound to a specific class.<br>
 	 * That causes the event to be fired for every sent and received message.
 	 * @param event
 	 */
 	public void registerEvent(IMessageEvent<?> event) {
-		Integer priority = null;
-		synchronized (latestEventPriority) {
-			priority = latestEventPriority;
-			latestEventPriority++;
-		}
-		synchronized (notBoundEvents) {
-			notBoundEvents.put(event, priority);
+		synchronized (clazzBoundEvents) {
+			notBoundEvents.put(event, latestEventPriority++);
+			rebuildDispatchTable();
 		}
 	}
 	
@@ -106,32 +406,28 @@ public class NetworkManager {
 	 * @param event
 	 */
 	public void unregisterEvent(IMessageEvent<?> event) {
-		synchronized (notBoundEvents) {
+		synchronized (clazzBoundEvents) {
 			notBoundEvents.remove(event);
+			rebuildDispatchTable();
 		}
 	}
 	
 	/**
 	 * Registers a new {@link IMessageEvent} for the given class.<br>
-	 * The event will be fired on every sent and received message that is an instance of the given class.
+	 * The event will be fired on every sent and received message that is an instance of the given class,
+	 * which includes subclasses and implementations if the given class is a superclass or an interface.
 	 * @param clazz
 	 * @param event
 	 */
 	public void registerEvent(Class<?> clazz, IMessageEvent<?> event) {
-		Integer priority = null;
-		synchronized (latestEventPriority) {
-			priority = latestEventPriority;
-			latestEventPriority++;
-		}
 		synchronized (clazzBoundEvents) {
-			if (clazzBoundEvents.containsKey(clazz)) {
-				final Map<IMessageEvent<?>, Integer> map = clazzBoundEvents.get(clazz);
-				map.put(event, priority);
-			} else {
-				final Map<IMessageEvent<?>, Integer> map = new HashMap<>();
-				map.put(event, priority);
+			Map<IMessageEvent<?>, Integer> map = clazzBoundEvents.get(clazz);
+			if (map == null) {
+				map = new HashMap<>();
 				clazzBoundEvents.put(clazz, map);
 			}
+			map.put(event, latestEventPriority++);
+			rebuildDispatchTable();
 		}
 	}
 	
@@ -142,7 +438,15 @@ public class NetworkManager {
 	 */
 	public void unregisterEvent(Class<?> clazz, IMessageEvent<?> event) {
 		synchronized (clazzBoundEvents) {
-			clazzBoundEvents.remove(clazz, event);
+			final Map<IMessageEvent<?>, Integer> map = clazzBoundEvents.get(clazz);
+			if (map == null) {
+				return;
+			}
+			map.remove(event);
+			if (map.isEmpty()) {
+				clazzBoundEvents.remove(clazz);
+			}
+			rebuildDispatchTable();
 		}
 	}
 
@@ -153,34 +457,34 @@ public class NetworkManager {
 	public void unregisterEvents(Class<?> clazz) {
 		synchronized (clazzBoundEvents) {
 			clazzBoundEvents.remove(clazz);
+			rebuildDispatchTable();
 		}
 	}
 	
 	/**
 	 * 
 	 * @param clazz
-	 * @return a {@link ArrayList} containing all {@link IMessageEvent}s that are registered for the given class.<br>
-	 * If no events are registered for that class an empty list will be returned.
+	 * @return a copy of all {@link IMessageEvent}s that are registered for exactly the given class, mapped to their priority.<br>
+	 * If no events are registered for that class an empty map will be returned.
 	 */
 	public Map<IMessageEvent<?>, Integer> getEvents(Class<?> clazz) {
-		Map<IMessageEvent<?>, Integer> events = null;
 		synchronized (clazzBoundEvents) {
-			events = clazzBoundEvents.get(clazz);
-		}
-		if (events != null) {
-			return events;
+			final Map<IMessageEvent<?>, Integer> events = clazzBoundEvents.get(clazz);
+			if (events != null) {
+				return new HashMap<>(events);
+			}
 		}
 		return new HashMap<>();
 	}
 
 	/**
 	 * 
-	 * @return a {@link ArrayList} containing all {@link IMessageEvent}s that are not bound to a specific class.<br>
-	 * If no non-bound events are registered an empty list will be returned.
+	 * @return a copy of all {@link IMessageEvent}s that are not bound to a specific class, mapped to their priority.<br>
+	 * If no non-bound events are registered an empty map will be returned.
 	 */
 	public Map<IMessageEvent<?>, Integer> getEvents() {
-		synchronized (notBoundEvents) {
-			return notBoundEvents;
+		synchronized (clazzBoundEvents) {
+			return new HashMap<>(notBoundEvents);
 		}
 	}
 	
@@ -202,19 +506,17 @@ public class NetworkManager {
 		fireMessageEvents(object, true);
 	}
 
+	/**
+	 *
+	 * @param clazz
+	 * @return true, if any {@link IMessageEvent} has to be fired for a message of the given class.
+	 */
+	public boolean hasMessageEvents(Class<?> clazz) {
+		return getDispatchEvents(clazz).length > 0;
+	}
+
 	private void fireMessageEvents(Sendable object, boolean isReceive) {
-		final Map<IMessageEvent<?>, Integer> classBoundEvents = getEvents(object.getClass());
-		final Map<IMessageEvent<?>, Integer> notBoundEvents = getEvents();
-		final List<Map.Entry<IMessageEvent<?>, Integer>> list = new ArrayList<>(classBoundEvents.entrySet());
-		list.addAll(notBoundEvents.entrySet());
-		Collections.sort(list, Map.Entry.comparingByValue());
-		final IMessageEvent<?>[] allEvents = new IMessageEvent[classBoundEvents.size() + notBoundEvents.size()];
-		int i = 0;
-		for (Map.Entry<IMessageEvent<?>, Integer> entry : list) {
-			allEvents[i] = entry.getKey();
-			i++;
-		}
-		for (IMessageEvent<?> event : allEvents) {
+		for (IMessageEvent<?> event : getDispatchEvents(object.getClass())) {
 			if (isReceive) {
 				event.onReceived(CastUtil.cast(object));
 			} else {
@@ -223,6 +525,55 @@ public class NetworkManager {
 		}
 	}
 
+	/**
+	 * The returned array must not be modified. It only changes if an event is registered or unregistered.
+	 * @param clazz
+	 * @return all {@link IMessageEvent}s that have to be fired for a message of the given class, sorted by priority.
+	 */
+	private IMessageEvent<?>[] getDispatchEvents(Class<?> clazz) {
+		final IMessageEvent<?>[] events = dispatchTable.get(clazz);
+		if (events != null) {
+			return events;
+		}
+		synchronized (clazzBoundEvents) {
+			final Map<Class<?>, IMessageEvent<?>[]> dispatchTable = new HashMap<>(this.dispatchTable);
+			final IMessageEvent<?>[] newEvents = collectEvents(clazz);
+			dispatchTable.put(clazz, newEvents);
+			this.dispatchTable = dispatchTable;
+			return newEvents;
+		}
+	}
+
+	/**
+	 * Rebuilds the events of every message class that has been dispatched before.<br>
+	 * Must be called while holding the lock.
+	 */
+	private void rebuildDispatchTable() {
+		final Map<Class<?>, IMessageEvent<?>[]> dispatchTable = new HashMap<>();
+		for (Class<?> clazz : this.dispatchTable.keySet()) {
+			dispatchTable.put(clazz, collectEvents(clazz));
+		}
+		this.dispatchTable = dispatchTable;
+	}
+
+	/**
+	 * Must be called while holding the lock.
+	 */
+	private IMessageEvent<?>[] collectEvents(Class<?> clazz) {
+		final List<Map.Entry<IMessageEvent<?>, Integer>> list = new ArrayList<>(notBoundEvents.entrySet());
+		for (Map.Entry<Class<?>, Map<IMessageEvent<?>, Integer>> entry : clazzBoundEvents.entrySet()) {
+			if (entry.getKey().isAssignableFrom(clazz)) {
+				list.addAll(entry.getValue().entrySet());
+			}
+		}
+		Collections.sort(list, Map.Entry.comparingByValue());
+		final IMessageEvent<?>[] events = new IMessageEvent<?>[list.size()];
+		for (int i = 0; i < events.length; i++) {
+			events[i] = list.get(i).getKey();
+		}
+		return events;
+	}
+
 	/**
 	 * This method is called when a {@link ISession} becomes inactive.
 	 * @param session
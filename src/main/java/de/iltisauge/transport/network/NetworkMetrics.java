@@ -0,0 +1,270 @@
+package de.iltisauge.transport.network;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import de.iltisauge.transport.client.NetworkClient;
+import de.iltisauge.transport.server.NetworkServer;
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * This class contains the traffic counters and latency histograms of a {@link NetworkDevice}.<br>
+ * The following values are recorded:
+ * <ul>
+ * <li>the messages and bytes that have been received and sent, in total, per message class and per channel</li>
+ * <li>the amount of writes that each session has not completed yet, see {@link #getPendingWrites(ISession)}</li>
+ * <li>the frames that have been dropped and the sessions that have been disconnected because they were too slow, see {@link BackpressureHandler}</li>
+ * <li>the time that is spent decoding frames, calling the {@link IMessageEvent}s and forwarding messages on the {@link NetworkServer}</li>
+ * <li>the received messages that wait to be dispatched by a {@link MessageDispatcher} and the sessions that have stopped reading because of them</li>
+ * </ul>
+ * Recording neither locks nor allocates once a message class or channel has been seen, so the metrics can stay enabled in production.
+ * Each of the maps per class and channel keeps at most {@link NetworkConfig#getMaxMetricKeys()} counters, the messages of further classes or channels are counted as {@link #OTHER}.
+ * They can be turned off with {@link NetworkConfig#setRecordMetrics(boolean)}.<br>
+ * Every channel of the device refers to its metrics by the {@link #METRICS} attribute, so they can be found from a {@link ISession}.
+ * The metrics of a device can be read with {@link NetworkServer#getMetrics()} or {@link NetworkClient#getMetrics()}.
+ *
+ * @author Daniel Ziegler
+ *
+ */
+@Getter
+public class NetworkMetrics {
+
+	/**
+	 * The attribute that refers to the {@link NetworkMetrics} of the device that owns a channel.
+	 */
+	public static final AttributeKey<NetworkMetrics> METRICS = AttributeKey.valueOf("transport-metrics");
+	/**
+	 * The attribute that contains the amount of uncompleted writes of a channel.
+	 */
+	public static final AttributeKey<AtomicInteger> PENDING_WRITES = AttributeKey.valueOf("transport-pending-writes");
+	/**
+	 * The name that is used for forwarded messages whose codec id is not known to the server.
+	 */
+	public static final String UNKNOWN_MESSAGE_TYPE = "unknown";
+	/**
+	 * The key that counts the messages of all classes or channels that have been seen after a map of counters has been full.
+	 */
+	public static final String OTHER = "other";
+
+	private static final Function<String, TrafficCounter> NEW_COUNTER = key -> new TrafficCounter();
+
+	private final TrafficCounter inbound = new TrafficCounter();
+	private final TrafficCounter outbound = new TrafficCounter();
+	private final LatencyHistogram decodeTime = new LatencyHistogram();
+	private final LatencyHistogram dispatchTime = new LatencyHistogram();
+	private final LatencyHistogram forwardTime = new LatencyHistogram();
+	private final LongAccumulator maxPendingWrites = new LongAccumulator(Math::max, 0);
+	/**
+	 * The amount of frames that have been dropped by a {@link BackpressureHandler}
+	 * and of messages that have been dropped by the {@link de.iltisauge.transport.client.OutboundBuffer} of a disconnected client.
+	 */
+	private final LongAdder overflowDrops = new LongAdder();
+	/**
+	 * The amount of sessions that have been disconnected by a {@link BackpressureHandler}.
+	 */
+	private final LongAdder overflowDisconnects = new LongAdder();
+	/**
+	 * The highest amount of frames that have been queued for a single session by a {@link BackpressureHandler}.
+	 */
+	private final LongAccumulator maxQueuedMessages = new LongAccumulator(Math::max, 0);
+	/**
+	 * The amount of times a {@link NetworkClient} has reconnected to the server.
+	 */
+	private final LongAdder reconnects = new LongAdder();
+	/**
+	 * The amount of received messages of all sessions that currently wait to be dispatched by the {@link MessageDispatcher}.
+	 */
+	private final LongAdder queuedDispatches = new LongAdder();
+	/**
+	 * The highest amount of received messages of a single session that have waited to be dispatched.
+	 */
+	private final LongAccumulator maxDispatchQueue = new LongAccumulator(Math::max, 0);
+	/**
+	 * The amount of times a session has stopped reading, because too many of its messages were waiting to be dispatched.
+	 */
+	private final LongAdder dispatchPauses = new LongAdder();
+	/**
+	 * The amount of direct messages that the server has dropped, because their target session is not connected to it.
+	 */
+	private final LongAdder unroutableMessages = new LongAdder();
+	/**
+	 * The maximum amount of counters in each of the maps per class and channel, see {@link NetworkConfig#getMaxMetricKeys()}.
+	 */
+	@Setter
+	private volatile int maxKeys = 1024;
+	/*
+	 * The counters are created on the first message of a class or channel and never removed until reset() is called.
+	 */
+	private final Map<String, TrafficCounter> inboundByType = new ConcurrentHashMap<>();
+	private final Map<String, TrafficCounter> outboundByType = new ConcurrentHashMap<>();
+	private final Map<String, TrafficCounter> inboundByChannel = new ConcurrentHashMap<>();
+	private final Map<String, TrafficCounter> outboundByChannel = new ConcurrentHashMap<>();
+
+	/**
+	 * Binds the metrics to a new channel of the device.
+	 * @param channel
+	 */
+	public void bind(Channel channel) {
+		channel.attr(METRICS).set(this);
+		channel.attr(PENDING_WRITES).set(new AtomicInteger());
+	}
+
+	/**
+	 *
+	 * @param channel
+	 * @return the {@link NetworkMetrics} that the channel has been bound to, or null.
+	 */
+	public static NetworkMetrics of(Channel channel) {
+		return channel.attr(METRICS).get();
+	}
+
+	/**
+	 * Records a message that has been decoded.
+	 * @param messageType the class name of the message.
+	 * @param channels the channels the message has been sent to.
+	 * @param bytes the size of the frame.
+	 */
+	public void recordInbound(String messageType, String[] channels, int bytes) {
+		record(inbound, inboundByType, inboundByChannel, messageType, channels, bytes);
+	}
+
+	/**
+	 * Records a message that has been written.
+	 * @param messageType the class name of the message.
+	 * @param channels the channels the message has been sent to.
+	 * @param bytes the size of the frame.
+	 */
+	public void recordOutbound(String messageType, String[] channels, int bytes) {
+		record(outbound, outboundByType, outboundByChannel, messageType, channels, bytes);
+	}
+
+	private void record(TrafficCounter total, Map<String, TrafficCounter> byType, Map<String, TrafficCounter> byChannel,
+			String messageType, String[] channels, int bytes) {
+		total.record(bytes);
+		counter(byType, messageType).record(bytes);
+		for (String channel : channels) {
+			counter(byChannel, channel).record(bytes);
+		}
+	}
+
+	private TrafficCounter counter(Map<String, TrafficCounter> counters, String key) {
+		final TrafficCounter counter = counters.get(key);
+		if (counter != null) {
+			return counter;
+		}
+		// Concurrent misses may exceed the limit by a few counters, which is cheaper than a lock
+		return counters.computeIfAbsent(counters.size() < maxKeys ? key : OTHER, NEW_COUNTER);
+	}
+
+	/**
+	 * Increments the uncompleted writes of the channel.
+	 * @param channel
+	 */
+	public void onWriteStarted(Channel channel) {
+		final AtomicInteger pendingWrites = channel.attr(PENDING_WRITES).get();
+		if (pendingWrites != null) {
+			maxPendingWrites.accumulate(pendingWrites.incrementAndGet());
+		}
+	}
+
+	/**
+	 * Decrements the uncompleted writes of the channel.
+	 * @param channel
+	 */
+	public void onWriteCompleted(Channel channel) {
+		final AtomicInteger pendingWrites = channel.attr(PENDING_WRITES).get();
+		if (pendingWrites != null) {
+			pendingWrites.decrementAndGet();
+		}
+	}
+
+	/**
+	 *
+	 * @param session
+	 * @return the amount of messages that have been written to the session but not yet completed.
+	 */
+	public int getPendingWrites(ISession session) {
+		final AtomicInteger pendingWrites = session.getChannel().attr(PENDING_WRITES).get();
+		return pendingWrites == null ? 0 : pendingWrites.get();
+	}
+
+	/**
+	 *
+	 * @return the highest amount of uncompleted writes that a single session has had.
+	 */
+	public long getMaxPendingWrites() {
+		return maxPendingWrites.get();
+	}
+
+	/**
+	 *
+	 * @return an unmodifiable view of the received messages per class name.
+	 */
+	public Map<String, TrafficCounter> getInboundByType() {
+		return Collections.unmodifiableMap(inboundByType);
+	}
+
+	/**
+	 *
+	 * @return an unmodifiable view of the sent messages per class name.
+	 */
+	public Map<String, TrafficCounter> getOutboundByType() {
+		return Collections.unmodifiableMap(outboundByType);
+	}
+
+	/**
+	 *
+	 * @return an unmodifiable view of the received messages per channel.
+	 */
+	public Map<String, TrafficCounter> getInboundByChannel() {
+		return Collections.unmodifiableMap(inboundByChannel);
+	}
+
+	/**
+	 *
+	 * @return an unmodifiable view of the sent messages per channel.
+	 */
+	public Map<String, TrafficCounter> getOutboundByChannel() {
+		return Collections.unmodifiableMap(outboundByChannel);
+	}
+
+	/**
+	 * Resets all values and removes the counters of all message classes and channels.
+	 */
+	public void reset() {
+		inbound.reset();
+		outbound.reset();
+		decodeTime.reset();
+		dispatchTime.reset();
+		forwardTime.reset();
+		maxPendingWrites.reset();
+		overflowDrops.reset();
+		overflowDisconnects.reset();
+		maxQueuedMessages.reset();
+		reconnects.reset();
+		maxDispatchQueue.reset();
+		dispatchPauses.reset();
+		unroutableMessages.reset();
+		inboundByType.clear();
+		outboundByType.clear();
+		inboundByChannel.clear();
+		outboundByChannel.clear();
+	}
+
+	@Override
+	public String toString() {
+		return "NetworkMetrics(inbound=" + inbound + ", outbound=" + outbound + ", decodeTime=" + decodeTime
+				+ ", dispatchTime=" + dispatchTime + ", forwardTime=" + forwardTime + ", maxPendingWrites=" + getMaxPendingWrites()
+				+ ", overflowDrops=" + overflowDrops.sum() + ", overflowDisconnects=" + overflowDisconnects.sum() + ", maxQueuedMessages=" + maxQueuedMessages.get() + ", reconnects=" + reconnects.sum()
+				+ ", queuedDispatches=" + queuedDispatches.sum() + ", maxDispatchQueue=" + maxDispatchQueue.get() + ", dispatchPauses=" + dispatchPauses.sum()
+				+ ", unroutableMessages=" + unroutableMessages.sum() + ")";
+	}
+}
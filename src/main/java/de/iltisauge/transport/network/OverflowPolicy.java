@@ -0,0 +1,23 @@
+package de.iltisauge.transport.network;
+
+/**
+ * This enum decides what a {@link BackpressureHandler} does when the outbound queue of a slow session is full.
+ *
+ * @author Daniel Ziegler
+ *
+ */
+public enum OverflowPolicy {
+
+	/**
+	 * Drops the message that is being written.
+	 */
+	DROP_NEWEST,
+	/**
+	 * Drops the oldest queued message to make room for the message that is being written.
+	 */
+	DROP_OLDEST,
+	/**
+	 * Closes the connection of the slow session.
+	 */
+	DISCONNECT;
+}
@@ -1,6 +1,7 @@
 package de.iltisauge.transport.network;
 
 import de.iltisauge.transport.server.NetworkServer;
+import io.netty.util.concurrent.Future;
 
 /**
  * This class is implemented by {@link IMessage} and {@link ServerMessageWrapper}.<br>
@@ -11,6 +12,16 @@ import de.iltisauge.transport.server.NetworkServer;
  */
 public interface Sendable {
 
+	/**
+	 * The offset of a {@link Sendable} that has not been appended to a durable channel.
+	 */
+	long NO_OFFSET = -1;
+
+	/**
+	 * The session id of a {@link Sendable} that is not sent to a single session, see {@link #getTargetSessionId()}.
+	 */
+	int NO_SESSION_ID = 0;
+
 	/**
 	 * 
 	 * @return the {@link ISession} that the {@link Sendable} came from.
@@ -40,6 +51,14 @@ public interface Sendable {
 	 * @param channels
 	 */
 	void addChannels(String... channels);
+
+	/**
+	 * Adds a single channel to which the {@link Sendable} will be sent to, without creating an array.
+	 * @param channel
+	 */
+	default void addChannel(String channel) {
+		addChannels(channel);
+	}
 	
 	/**
 	 * Removes channels to which the {@link Sendable} will be sent to.
@@ -50,6 +69,7 @@ public interface Sendable {
 	/**
 	 * 
 	 * @return a {@link String[]} containing all channels the {@link Sendable} will be sent to.
+	 * The array may be shared by all callers until the channels change, so it must not be modified.
 	 */
 	String[] getChannels();
 
@@ -60,4 +80,100 @@ public interface Sendable {
 	 */
 	boolean send(String... channels);
 
+	/**
+	 * Sends this {@link Sendable} through the session without blocking the caller.
+	 * @param channels
+	 * @return a {@link Future} that is completed when the message has been written.
+	 */
+	Future<Void> sendAsync(String... channels);
+
+	/**
+	 *
+	 * @return the id that pairs a request with its reply, or 0 if the {@link Sendable} is neither.
+	 */
+	long getCorrelationId();
+
+	/**
+	 * Sets the id that pairs a request with its reply.
+	 * @param correlationId
+	 */
+	void setCorrelationId(long correlationId);
+
+	/**
+	 *
+	 * @return true, if the {@link Sendable} is the reply to the request with the same correlation id, otherwise false.
+	 */
+	boolean isReply();
+
+	/**
+	 * Set this to true, if the {@link Sendable} is the reply to the request with the same correlation id.
+	 * @param value
+	 */
+	void setReply(boolean value);
+
+	/**
+	 *
+	 * @return true, if the sender of the {@link Sendable} waits for a reply, see {@link #reply(IMessage)}.
+	 */
+	default boolean isRequest() {
+		return getCorrelationId() != 0 && !isReply();
+	}
+
+	/**
+	 *
+	 * @return the position of the {@link Sendable} in the log of its durable channel or {@link #NO_OFFSET},
+	 * see {@link de.iltisauge.transport.server.MessageLog}.
+	 */
+	long getOffset();
+
+	/**
+	 * Sets the position of the {@link Sendable} in the log of its durable channel.
+	 * @param offset
+	 */
+	void setOffset(long offset);
+
+	/**
+	 *
+	 * @return the id of the session on the server that this {@link Sendable} is sent to directly, or {@link #NO_SESSION_ID} if it is sent to its channels,
+	 * see {@link de.iltisauge.transport.client.NetworkClient#sendTo(int, IMessage)}.
+	 */
+	int getTargetSessionId();
+
+	/**
+	 * Sets the id of the session on the server that this {@link Sendable} is sent to directly.
+	 * @param sessionId
+	 */
+	void setTargetSessionId(int sessionId);
+
+	/**
+	 *
+	 * @return the id of the session on the server that has sent this direct {@link Sendable}, or {@link #NO_SESSION_ID}.
+	 * It is set by the server when it forwards the {@link Sendable} to its target.
+	 */
+	int getSourceSessionId();
+
+	/**
+	 * Sets the id of the session on the server that has sent this direct {@link Sendable}.
+	 * @param sessionId
+	 */
+	void setSourceSessionId(int sessionId);
+
+	/**
+	 *
+	 * @return true, if this {@link Sendable} is sent to a single session instead of its channels.
+	 */
+	default boolean isDirect() {
+		return getTargetSessionId() != NO_SESSION_ID;
+	}
+
+	/**
+	 * Answers this request through the session it came from.<br>
+	 * This can be called from within an {@link IMessageEvent}. The reply is not sent to any channel,
+	 * it is routed back to the sender of the request.
+	 * @param reply
+	 * @return a {@link Future} that is completed when the reply has been written.
+	 * @throws IllegalStateException if this {@link Sendable} is not a request.
+	 */
+	Future<Void> reply(IMessage reply);
+
 }
@@ -1,53 +1,148 @@
 package de.iltisauge.transport.network;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
-
 import io.netty.buffer.ByteBuf;
+import io.netty.util.Recycler;
+import io.netty.util.ReferenceCounted;
+import lombok.AccessLevel;
 import lombok.Getter;
-import lombok.RequiredArgsConstructor;
 import lombok.Setter;
 
-@RequiredArgsConstructor
+/**
+ * This class wraps a message that the server does not have a codec for, so it can be forwarded without being decoded.<br>
+ * The wrapper owns the reference of its payload, which is a slice of the received frame and therefore shares its pooled memory.
+ * The {@link ChannelInboundHandler} releases the wrapper after it has been forwarded,
+ * so an {@link IMessageEvent} that keeps the wrapper beyond its call has to {@link #retain()} it and release it later.<br>
+ * A wrapper that has been created by {@link #newInstance(int, ByteBuf)} is returned to a per-thread pool once its payload has been released, see {@link NetworkConfig#isRecycleMessages()}.<br>
+ * A compressed payload is kept compressed, so it can be forwarded to sessions that support its {@link CompressionAlgorithm} as it is.
+ *
+ * @author Daniel Ziegler
+ *
+ */
 @Setter
 @Getter
-public class ServerMessageWrapper extends Message {
+public class ServerMessageWrapper extends Message implements ReferenceCounted {
+
+	private static final Recycler<ServerMessageWrapper> RECYCLER = new Recycler<ServerMessageWrapper>() {
+
+		@Override
+		protected ServerMessageWrapper newObject(Handle handle) {
+			return new ServerMessageWrapper(handle);
+		}
+	};
 	
-	private ISession from;
-	private boolean receiveSelf;
-	private final List<String> channels = new ArrayList<String>();
-	private final String className;
 	/**
-	 * Contains unread class codec.
+	 * The handle of the pool that the wrapper is returned to, or null if it has been created with <code>new</code>.
+	 */
+	@Getter(AccessLevel.NONE)
+	@Setter(AccessLevel.NONE)
+	private final Recycler.Handle recyclerHandle;
+	/**
+	 * The codec id of the wrapped message, which the server does not need to know a codec for.
 	 */
-	private final ByteBuf bufferCopy;
+	@Setter(AccessLevel.NONE)
+	private int codecId;
+	/**
+	 * The class name of the wrapped message if its codec id is {@link NetworkManager#CODEC_ID_BY_NAME}, because the server has not assigned an id to it, otherwise null.
+	 */
+	private String codecName;
+	/**
+	 * Contains unread class codec. The wrapper owns one reference of it.
+	 */
+	@Setter(AccessLevel.NONE)
+	private ByteBuf bufferCopy;
+	/**
+	 * The ids of the channels in the order of {@link #getChannels()}, as they have been read from the wire, or null if they are unknown.<br>
+	 * The id of a channel that has none is {@link ChannelRegistry#NO_ID}.
+	 */
+	private int[] channelIds;
+	/**
+	 * The algorithm with which the payload is compressed, or null if it is not compressed.
+	 */
+	private CompressionAlgorithm compression;
+
+	public ServerMessageWrapper(int codecId, ByteBuf bufferCopy) {
+		this.recyclerHandle = null;
+		this.codecId = codecId;
+		this.bufferCopy = bufferCopy;
+	}
+
+	private ServerMessageWrapper(Recycler.Handle recyclerHandle) {
+		this.recyclerHandle = recyclerHandle;
+	}
+
+	/**
+	 * Takes a wrapper from the pool of the current thread.
+	 * @param codecId
+	 * @param bufferCopy the payload, whose reference is owned by the wrapper.
+	 * @return the wrapper, which is returned to the pool once its payload has been released.
+	 */
+	public static ServerMessageWrapper newInstance(int codecId, ByteBuf bufferCopy) {
+		final ServerMessageWrapper wrapper = RECYCLER.get();
+		wrapper.codecId = codecId;
+		wrapper.bufferCopy = bufferCopy;
+		return wrapper;
+	}
 	
+	/**
+	 * 
+	 * @return a copy of the unread class codec, which is still compressed if {@link #getCompression()} is not null. The caller owns the copy and has to release it.
+	 */
 	public ByteBuf getBufferCopy() {
 		return bufferCopy.copy();
 	}
-
+	
 	/**
-	 * Adds the channel array to the channel list.
+	 * 
+	 * @return a duplicate of the unread class codec, which shares its content with the original buffer and is still compressed if {@link #getCompression()} is not null.
 	 */
+	public ByteBuf getPayload() {
+		return bufferCopy.duplicate();
+	}
+
+	@Override
+	public int refCnt() {
+		return bufferCopy.refCnt();
+	}
+
+	@Override
+	public ServerMessageWrapper retain() {
+		bufferCopy.retain();
+		return this;
+	}
+
 	@Override
-	public void addChannels(String... channels) {
-		this.channels.addAll(Arrays.asList(channels));
+	public ServerMessageWrapper retain(int increment) {
+		bufferCopy.retain(increment);
+		return this;
 	}
 
 	/**
-	 * Removes the channel array from the channel list.
+	 * Releases the payload of the wrapper.
 	 */
 	@Override
-	public void removeChannels(String... channels) {
-		this.channels.removeAll(Arrays.asList(channels));
+	public boolean release() {
+		return recycle(bufferCopy.release());
+	}
+
+	@Override
+	public boolean release(int decrement) {
+		return recycle(bufferCopy.release(decrement));
 	}
 
 	/**
-	 * @returns a new <code>{@link String[]}</code> from the channel list.
+	 * Returns a pooled wrapper to its pool once its payload has been released.
+	 * The channel ids are kept, so they can be reused by the next wrapper with as many channels.
+	 * @param released whether the payload has been released.
+	 * @return released
 	 */
-	@Override
-	public String[] getChannels() {
-		return channels.toArray(new String[channels.size()]);
+	private boolean recycle(boolean released) {
+		if (released && recyclerHandle != null) {
+			resetHeader();
+			codecName = null;
+			bufferCopy = null;
+			compression = null;
+			RECYCLER.recycle(this, recyclerHandle);
+		}
+		return released;
 	}
 }
@@ -5,29 +5,113 @@ import java.util.Arrays;
 import java.util.logging.Level;
 import java.util.stream.Collectors;
 
-import de.iltisauge.transport.Transport;
+import de.iltisauge.transport.TransportContext;
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.util.AttributeKey;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.Future;
+import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 
 /**
- * This class implements {@link ISession} and is used to send {@link IMessage} through the network.
+ * This class implements {@link ISession} and is used to send {@link IMessage} through the network.<br>
+ * Two sessions are equal if they belong to the same {@link Channel}.<br>
+ * Every channel has a single session, which is created when it is first needed and kept in the {@link #SESSION} attribute of the channel.<br>
+ * The outbound events are fired by the {@link NetworkManager} of the device that owns the channel, see {@link TransportContext}.
+ * If the device has a {@link MessageDispatcher}, they are queued behind the received messages of the session instead of being fired on the event loop.
  * 
  * @author Daniel Ziegler
  *
  */
 @RequiredArgsConstructor
 @Getter
+@EqualsAndHashCode(of = "channel")
 public class Session implements ISession {
 
+	/**
+	 * The attribute that refers to the session of a channel.
+	 */
+	public static final AttributeKey<Session> SESSION = AttributeKey.valueOf("transport-session");
+
 	private final Channel channel;
 	private final SocketAddress clientAddress;
 	private final SocketAddress serverAddress;
+	private final int id;
+
+	/**
+	 * 
+	 * @param channel
+	 * @return the session of the channel, or null if it has not been created yet.
+	 */
+	public static Session of(Channel channel) {
+		return channel.attr(SESSION).get();
+	}
 	
 	@Override
 	public boolean send(Sendable message, boolean logTraffic) {
-		final boolean success = channel.writeAndFlush(message).syncUninterruptibly().isSuccess();
-		Transport.getNetworkManager().fireOutboundMessageEvents(message);
-		return success;
+		final ChannelFuture future = sendAsync(message);
+		if (channel.eventLoop().inEventLoop()) {
+			return !future.isDone() || future.isSuccess();
+		}
+		return future.awaitUninterruptibly().isSuccess();
+	}
+	
+	@Override
+	public ChannelFuture sendAsync(Sendable message) {
+		final NetworkMetrics metrics = NetworkMetrics.of(channel);
+		if (metrics != null) {
+			metrics.onWriteStarted(channel);
+		}
+		// The write releases the reference of the caller, this one keeps a recycled message alive until the outbound events have been fired
+		ReferenceCountUtil.retain(message);
+		return channel.writeAndFlush(message).addListener(future -> onWritten(future, message, metrics));
+	}
+	
+	@Override
+	public ChannelFuture sendFrame(ByteBuf frame, Sendable message) {
+		final NetworkMetrics metrics = NetworkMetrics.of(channel);
+		if (metrics != null) {
+			metrics.onWriteStarted(channel);
+		}
+		// The message may be recycled by the caller before the frame has been written
+		ReferenceCountUtil.retain(message);
+		return channel.writeAndFlush(frame.duplicate().retain()).addListener(future -> onWritten(future, message, metrics));
+	}
+
+	/*
+	 * The listener runs on the event loop, so the outbound events are fired by the dispatcher of the device if it has one
+	 */
+	private void onWritten(Future<?> future, Sendable message, NetworkMetrics metrics) {
+		try {
+			if (metrics != null) {
+				metrics.onWriteCompleted(channel);
+			}
+			if (!future.isSuccess()) {
+				return;
+			}
+			final NetworkManager networkManager = TransportContext.getNetworkManager(channel);
+			if (!networkManager.hasMessageEvents(message.getClass())) {
+				return;
+			}
+			final TransportContext context = TransportContext.of(channel);
+			final MessageDispatcher dispatcher = context == null ? null : context.getDevice().getDispatcher();
+			if (dispatcher == null) {
+				networkManager.fireOutboundMessageEvents(message);
+				return;
+			}
+			ReferenceCountUtil.retain(message);
+			dispatcher.dispatch(channel, () -> {
+				try {
+					networkManager.fireOutboundMessageEvents(message);
+				} finally {
+					ReferenceCountUtil.release(message);
+				}
+			});
+		} finally {
+			ReferenceCountUtil.release(message);
+		}
 	}
 }
@@ -0,0 +1,54 @@
+package de.iltisauge.transport.network;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class counts messages and the bytes they have occupied on the wire.
+ * All counters can be read from any thread.
+ *
+ * @author Daniel Ziegler
+ *
+ */
+public class TrafficCounter {
+
+	private final LongAdder messages = new LongAdder();
+	private final LongAdder bytes = new LongAdder();
+
+	/**
+	 * Records a single message.
+	 * @param bytes the size of the frame of the message.
+	 */
+	public void record(long bytes) {
+		messages.increment();
+		this.bytes.add(bytes);
+	}
+
+	/**
+	 *
+	 * @return the amount of recorded messages.
+	 */
+	public long getMessages() {
+		return messages.sum();
+	}
+
+	/**
+	 *
+	 * @return the amount of recorded bytes.
+	 */
+	public long getBytes() {
+		return bytes.sum();
+	}
+
+	/**
+	 * Resets all counters.
+	 */
+	public void reset() {
+		messages.reset();
+		bytes.reset();
+	}
+
+	@Override
+	public String toString() {
+		return "TrafficCounter(messages=" + getMessages() + ", bytes=" + getBytes() + ")";
+	}
+}
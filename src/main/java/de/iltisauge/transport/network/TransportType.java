@@ -0,0 +1,98 @@
+package de.iltisauge.transport.network;
+
+import java.util.logging.Level;
+
+import de.iltisauge.transport.Transport;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.ServerSocketChannel;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.internal.PlatformDependent;
+
+/**
+ * This enum selects the Netty transport that is used by a {@link NetworkDevice}.<br>
+ * The native epoll transport has a lower latency and produces less garbage, but it is only available on Linux, see {@link #isEpollAvailable()}.
+ *
+ * @author Daniel Ziegler
+ *
+ */
+public enum TransportType {
+
+	/**
+	 * Uses {@link #EPOLL} if it is available, otherwise {@link #NIO}.
+	 */
+	AUTO,
+	/**
+	 * The Java NIO transport that is available on every platform.
+	 */
+	NIO,
+	/**
+	 * The native epoll transport of Linux.
+	 */
+	EPOLL;
+
+	/**
+	 *
+	 * @return the transport that will actually be used. This is never {@link #AUTO}.
+	 */
+	public TransportType resolve() {
+		if (this == NIO) {
+			return NIO;
+		}
+		if (isEpollAvailable()) {
+			return EPOLL;
+		}
+		if (this == EPOLL) {
+			Transport.getLogger().log(Level.WARNING, "The epoll transport is not available on this platform, falling back to NIO");
+		}
+		return NIO;
+	}
+
+	/**
+	 * The epoll transport reads the memory addresses of direct buffers,
+	 * so besides the native library it needs low-level buffer access, which newer JVMs may not grant.
+	 * @return true, if the epoll transport can be used.
+	 */
+	public static boolean isEpollAvailable() {
+		return Epoll.isAvailable() && PlatformDependent.hasUnsafe();
+	}
+
+	/**
+	 * Creates a new {@link EventLoopGroup} of the resolved transport.
+	 * @param threads the amount of threads or 0 to use the Netty default.
+	 * @param ioRatio the percentage of time the threads spend on I/O compared to other tasks.
+	 * @return the new {@link EventLoopGroup}.
+	 */
+	public EventLoopGroup newEventLoopGroup(int threads, int ioRatio) {
+		if (resolve() == EPOLL) {
+			final EpollEventLoopGroup eventLoopGroup = new EpollEventLoopGroup(threads);
+			eventLoopGroup.setIoRatio(ioRatio);
+			return eventLoopGroup;
+		}
+		final NioEventLoopGroup eventLoopGroup = new NioEventLoopGroup(threads);
+		eventLoopGroup.setIoRatio(ioRatio);
+		return eventLoopGroup;
+	}
+
+	/**
+	 *
+	 * @return the client {@link SocketChannel} class of the resolved transport.
+	 */
+	public Class<? extends SocketChannel> getSocketChannelClass() {
+		return resolve() == EPOLL ? EpollSocketChannel.class : NioSocketChannel.class;
+	}
+
+	/**
+	 *
+	 * @return the {@link ServerSocketChannel} class of the resolved transport.
+	 */
+	public Class<? extends ServerSocketChannel> getServerSocketChannelClass() {
+		return resolve() == EPOLL ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+	}
+}
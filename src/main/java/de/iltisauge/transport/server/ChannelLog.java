@@ -0,0 +1,246 @@
+package de.iltisauge.transport.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import de.iltisauge.transport.network.NetworkConfig;
+import io.netty.buffer.ByteBuf;
+import lombok.Getter;
+
+/**
+ * This class is the durable log of a single channel, which consists of {@link LogSegment}s in the directory of the channel.<br>
+ * Every appended frame gets the next offset of the channel. Offsets start at 0 and keep increasing when old segments are deleted.
+ * A new segment is started when the current one is full and the oldest segments are deleted according to the retention of the {@link NetworkConfig}.<br>
+ * Appending is serialized by the log itself, reading does not lock.<br>
+ * A log that has not been used for {@link NetworkConfig#getLogIdleMillis()} is closed, which shrinks its last segment to the appended records
+ * and drops the mappings of all segments. It is opened again when it is appended to or read.
+ *
+ * @author Daniel Ziegler
+ *
+ */
+public class ChannelLog {
+
+	@Getter
+	private final String channel;
+	private final File directory;
+	private final NetworkConfig config;
+	/*
+	 * The map is replaced when the log is opened again, so a reader that has started before the log has been closed keeps the segments it has seen.
+	 */
+	private volatile ConcurrentNavigableMap<Long, LogSegment> segments;
+	private LogSegment activeSegment;
+	private long lastTimestamp;
+	/**
+	 * The next offset of a closed log.
+	 */
+	private long nextOffset;
+	@Getter
+	private volatile boolean closed;
+	/**
+	 * The time in milliseconds the log has last been appended to or read.
+	 */
+	@Getter
+	private volatile long lastAccessMillis = System.currentTimeMillis();
+
+	/**
+	 * Opens the log of the channel and all of its existing segments.
+	 * @param channel
+	 * @param directory the directory of the channel.
+	 * @param config
+	 * @throws IOException if the directory or a segment could not be opened.
+	 */
+	public ChannelLog(String channel, File directory, NetworkConfig config) throws IOException {
+		this.channel = channel;
+		this.directory = directory;
+		this.config = config;
+		open();
+	}
+
+	/*
+	 * The retention is enforced when the log is opened, because it is not enforced while the log is closed.
+	 */
+	private void open() throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Could not create the log directory " + directory);
+		}
+		final ConcurrentNavigableMap<Long, LogSegment> segments = new ConcurrentSkipListMap<>();
+		final File[] files = directory.listFiles(LogSegment::isSegmentFile);
+		if (files != null) {
+			for (File file : files) {
+				final LogSegment segment = LogSegment.open(file, config.getLogIndexIntervalBytes());
+				segments.put(segment.getBaseOffset(), segment);
+			}
+		}
+		if (segments.isEmpty()) {
+			activeSegment = LogSegment.create(directory, nextOffset, config.getLogSegmentBytes(), config.getLogIndexIntervalBytes());
+			segments.put(nextOffset, activeSegment);
+		} else {
+			activeSegment = segments.lastEntry().getValue();
+			lastTimestamp = Math.max(lastTimestamp, activeSegment.getLastTimestamp());
+		}
+		this.segments = segments;
+		closed = false;
+		enforceRetention();
+	}
+
+	/**
+	 * Closes the log after enforcing its retention. The caller has to hold the lock of the log.
+	 */
+	public void close() {
+		if (closed) {
+			return;
+		}
+		enforceRetention();
+		nextOffset = activeSegment.getNextOffset();
+		activeSegment.trim();
+		activeSegment = null;
+		closed = true;
+	}
+
+	/*
+	 * Readers do not lock, so they only lock to open a closed log.
+	 */
+	private ConcurrentNavigableMap<Long, LogSegment> getSegments() {
+		lastAccessMillis = System.currentTimeMillis();
+		if (closed) {
+			synchronized (this) {
+				if (closed) {
+					try {
+						open();
+					} catch (IOException exception) {
+						throw new UncheckedIOException(exception);
+					}
+				}
+			}
+		}
+		return segments;
+	}
+
+	/**
+	 * Appends the frame with the given offset, which has to be {@link #getNextOffset()}.<br>
+	 * The caller has to hold the lock of the log, so the offset that has been written into the frame is not taken by another frame.
+	 * @param offset
+	 * @param frame the encoded frame. It is not released.
+	 * @throws IOException if the log could not be opened again or a new segment could not be created.
+	 */
+	public void append(long offset, ByteBuf frame) throws IOException {
+		lastAccessMillis = System.currentTimeMillis();
+		if (closed) {
+			open();
+		}
+		// Timestamps never go backwards, so the segments can be searched by time
+		final long timestamp = Math.max(System.currentTimeMillis(), lastTimestamp);
+		if (!activeSegment.append(offset, timestamp, frame)) {
+			final int capacity = Math.max(config.getLogSegmentBytes(), LogSegment.RECORD_HEADER_SIZE + frame.readableBytes());
+			final LogSegment segment = LogSegment.create(directory, offset, capacity, config.getLogIndexIntervalBytes());
+			segments.put(offset, segment);
+			activeSegment = segment;
+			segment.append(offset, timestamp, frame);
+			enforceRetention();
+		}
+		lastTimestamp = timestamp;
+	}
+
+	/**
+	 * The caller has to hold the lock of the log.
+	 * @return the offset of the next frame.
+	 */
+	public long getNextOffset() {
+		return closed ? nextOffset : activeSegment.getNextOffset();
+	}
+
+	/**
+	 *
+	 * @return the offset of the oldest frame that has not been deleted.
+	 * @throws UncheckedIOException if the log has been closed and could not be opened again.
+	 */
+	public long getFirstOffset() {
+		return getSegments().firstKey();
+	}
+
+	/**
+	 * Deletes the oldest segments while the log is bigger than {@link NetworkConfig#getLogRetentionBytes()}
+	 * or their newest frame is older than {@link NetworkConfig#getLogRetentionMillis()}. The segment that is appended to is never deleted.<br>
+	 * The caller has to hold the lock of the log. Nothing is deleted while the log is closed.
+	 */
+	public void enforceRetention() {
+		if (closed) {
+			return;
+		}
+		long size = 0;
+		for (LogSegment segment : segments.values()) {
+			size += segment.getSize();
+		}
+		final long minTimestamp = System.currentTimeMillis() - config.getLogRetentionMillis();
+		for (Map.Entry<Long, LogSegment> entry = segments.firstEntry(); entry != null && entry.getValue() != activeSegment; entry = segments.firstEntry()) {
+			final LogSegment segment = entry.getValue();
+			if (size <= config.getLogRetentionBytes() && segment.getLastTimestamp() >= minTimestamp) {
+				break;
+			}
+			segments.remove(entry.getKey());
+			segment.delete();
+			size -= segment.getSize();
+		}
+	}
+
+	/**
+	 *
+	 * @param timestamp the time in milliseconds.
+	 * @return the offset of the first frame that has been appended at or after the given time, or the next offset if there is none.
+	 * @throws UncheckedIOException if the log has been closed and could not be opened again.
+	 */
+	public long findOffset(long timestamp) {
+		final ConcurrentNavigableMap<Long, LogSegment> segments = getSegments();
+		for (LogSegment segment : segments.values()) {
+			if (segment.getLastTimestamp() >= timestamp) {
+				final int position = segment.findTimestamp(timestamp);
+				return position < segment.getSize() ? segment.getOffset(position) : segment.getNextOffset();
+			}
+		}
+		return segments.lastEntry().getValue().getNextOffset();
+	}
+
+	/**
+	 * Reads the frames that follow the given offset without copying them, see {@link LogSegment#getFrame(int)}.<br>
+	 * Frames that have already been deleted are skipped.
+	 * @param offset the offset of the first frame.
+	 * @param maxBytes the amount of bytes after which no more frames are read. At least one frame is read if there is one.
+	 * @param frames the list that the frames are added to. The caller has to release them.
+	 * @return the offset behind the last frame that has been read.
+	 * @throws UncheckedIOException if the log has been closed and could not be opened again.
+	 */
+	public long read(long offset, int maxBytes, List<ByteBuf> frames) {
+		final ConcurrentNavigableMap<Long, LogSegment> segments = getSegments();
+		Map.Entry<Long, LogSegment> entry = segments.floorEntry(offset);
+		if (entry == null) {
+			entry = segments.firstEntry();
+			offset = entry.getKey();
+		}
+		int bytes = 0;
+		while (entry != null) {
+			final LogSegment segment = entry.getValue();
+			final int size = segment.getSize();
+			int position = segment.findOffset(offset);
+			while (position < size && (bytes < maxBytes || frames.isEmpty())) {
+				final ByteBuf frame = segment.getFrame(position);
+				frames.add(frame);
+				bytes += frame.readableBytes();
+				offset = segment.getOffset(position) + 1;
+				position = segment.getNextPosition(position);
+			}
+			if (position < size || bytes >= maxBytes) {
+				break;
+			}
+			entry = segments.higherEntry(entry.getKey());
+			if (entry != null) {
+				offset = Math.max(offset, entry.getKey());
+			}
+		}
+		return offset;
+	}
+}
@@ -0,0 +1,375 @@
+package de.iltisauge.transport.server;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import de.iltisauge.transport.Transport;
+import de.iltisauge.transport.messages.HandleSubscriptionsMessage;
+import de.iltisauge.transport.messages.HandleSubscriptionsMessage.HandleSubscriptionType;
+import de.iltisauge.transport.messages.PeerHelloMessage;
+import de.iltisauge.transport.network.ChannelInitializer;
+import de.iltisauge.transport.network.ISession;
+import de.iltisauge.transport.network.KnownChannelIds;
+import de.iltisauge.transport.network.NetworkConfig;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.AttributeKey;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * This class links a {@link NetworkServer} with other servers, so clients of different servers can communicate with each other.<br>
+ * A server connects to every address of {@link NetworkConfig#getPeerAddresses()} and both servers exchange a {@link PeerHelloMessage}.
+ * The servers have to be linked as a full mesh, so every server is linked with every other server.
+ * If two servers are linked twice, both keep the link that has been established by the server with the lower node id.<br>
+ * A peer subscribes the channels and patterns that the local clients of the other server have subscribed, with a {@link HandleSubscriptionsMessage} like a client.
+ * The server only sends a subscription when the first local client subscribes a channel and removes it when the last one unsubscribes it,
+ * so every peer that has subscribers receives a message once.<br>
+ * Messages that have been received from a peer are only forwarded to local clients, so they are never sent back and forth between servers.<br>
+ * The durable channels of a server are always subscribed at its peers, so its {@link MessageLog} also contains the messages of remote clients.<br>
+ * Channel and codec ids are assigned by every server on its own, so frames to a peer are written with the names of their channels and codecs.
+ *
+ * @author Daniel Ziegler
+ *
+ */
+@RequiredArgsConstructor
+public class Federation {
+
+	/**
+	 * The {@link PeerLink} of a channel to another server.
+	 */
+	public static final AttributeKey<PeerLink> PEER_LINK = AttributeKey.valueOf("transport-peer-link");
+
+	private final NetworkServer server;
+	/*
+	 * The amount of local sessions that have subscribed every channel and pattern. Guarded by the lock.
+	 */
+	private final Map<String, Integer> interest = new HashMap<>();
+	/*
+	 * The established link to every peer by node id. Guarded by the lock.
+	 */
+	private final Map<String, PeerLink> links = new HashMap<>();
+	private final Object lock = new Object();
+	private Bootstrap bootstrap;
+	private volatile boolean running;
+
+	/**
+	 *
+	 * @param channel
+	 * @return true, if the channel is a link to another server.
+	 */
+	public static boolean isPeer(Channel channel) {
+		return channel.attr(PEER_LINK).get() != null;
+	}
+
+	/**
+	 *
+	 * @param session
+	 * @return true, if the session is a link to another server.
+	 */
+	public static boolean isPeer(ISession session) {
+		return isPeer(session.getChannel());
+	}
+
+	/**
+	 * Parses a comma separated list of addresses such as <code>10.0.0.2:8917,10.0.0.3:8917</code>.
+	 * @param addresses
+	 * @return the parsed addresses.
+	 */
+	public static List<SocketAddress> parseAddresses(String addresses) {
+		final List<SocketAddress> result = new ArrayList<>();
+		for (String address : addresses.split(",")) {
+			address = address.trim();
+			if (address.isEmpty()) {
+				continue;
+			}
+			final int portIndex = address.lastIndexOf(':');
+			if (portIndex <= 0) {
+				throw new IllegalArgumentException("Missing port in peer address " + address);
+			}
+			result.add(new InetSocketAddress(address.substring(0, portIndex), Integer.parseInt(address.substring(portIndex + 1))));
+		}
+		return result;
+	}
+
+	/**
+	 * Connects to all peers of the {@link NetworkConfig}. The connections use the given {@link EventLoopGroup}.
+	 * @param eventLoopGroup
+	 */
+	public void start(EventLoopGroup eventLoopGroup) {
+		final NetworkConfig config = server.getConfig();
+		Transport.getLogger().log(Level.INFO, "Using node id " + config.getNodeId());
+		synchronized (lock) {
+			for (String channel : config.getDurableChannels()) {
+				interest.merge(channel, 1, Integer::sum);
+			}
+		}
+		if (config.getPeerAddresses().isEmpty()) {
+			return;
+		}
+		bootstrap = new Bootstrap();
+		bootstrap.group(eventLoopGroup);
+		bootstrap.channel(config.getTransportType().resolve().getSocketChannelClass());
+		bootstrap.option(ChannelOption.TCP_NODELAY, true).option(ChannelOption.SO_KEEPALIVE, true).option(ChannelOption.ALLOCATOR, server.getAllocator());
+		bootstrap.handler(new ChannelInitializer(server));
+		running = true;
+		for (SocketAddress address : config.getPeerAddresses()) {
+			connect(address);
+		}
+	}
+
+	/**
+	 * Stops connecting to peers. The links are closed when the server shuts down.
+	 */
+	public void stop() {
+		running = false;
+	}
+
+	private void connect(SocketAddress address) {
+		if (!running) {
+			return;
+		}
+		final PeerLink link = new PeerLink(address);
+		final ChannelFuture connectFuture;
+		try {
+			connectFuture = bootstrap.clone().attr(PEER_LINK, link).connect(address);
+		} catch (RuntimeException exception) {
+			// The event loops are shutting down
+			return;
+		}
+		connectFuture.addListener((ChannelFutureListener) future -> {
+			if (!future.isSuccess()) {
+				Transport.getLogger().log(Level.WARNING, "Could not link up with the peer at " + address + ": " + future.cause().getMessage());
+				scheduleConnect(address);
+				return;
+			}
+			future.channel().closeFuture().addListener(closeFuture -> {
+				if (!link.superseded && !isLinked(link.nodeId)) {
+					scheduleConnect(address);
+				}
+			});
+			final PeerHelloMessage hello = new PeerHelloMessage(server.getConfig().getNodeId());
+			hello.addChannels(PeerHelloMessage.CHANNEL);
+			future.channel().writeAndFlush(hello);
+		});
+	}
+
+	private void scheduleConnect(SocketAddress address) {
+		if (running) {
+			server.getTimer().newTimeout(timeout -> connect(address), server.getConfig().getPeerReconnectDelayMillis(), TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private boolean isLinked(String nodeId) {
+		if (nodeId == null) {
+			return false;
+		}
+		synchronized (lock) {
+			final PeerLink link = links.get(nodeId);
+			return link != null && link.session.getChannel().isActive();
+		}
+	}
+
+	/**
+	 * Handles the {@link PeerHelloMessage} of another server.<br>
+	 * A server that has been connected to answers with its own hello.
+	 * Once the link is established the peer gets the current subscriptions of the local sessions.
+	 * @param message
+	 */
+	public void onPeerHello(PeerHelloMessage message) {
+		final ISession session = message.getFrom();
+		final Channel channel = session.getChannel();
+		final String nodeId = message.getNodeId();
+		final String localNodeId = server.getConfig().getNodeId();
+		PeerLink link = channel.attr(PEER_LINK).get();
+		// The answer is written before the link is closed, so the other server learns why
+		ChannelFuture closeAfter = channel.newSucceededFuture();
+		if (link == null) {
+			link = new PeerLink(null);
+			channel.attr(PEER_LINK).set(link);
+			channel.attr(KnownChannelIds.KNOWN_CHANNEL_IDS).remove();
+			final PeerHelloMessage hello = new PeerHelloMessage(localNodeId);
+			hello.addChannels(PeerHelloMessage.CHANNEL);
+			closeAfter = session.sendAsync(hello);
+		} else if (link.nodeId != null) {
+			return;
+		}
+		if (nodeId.equals(localNodeId)) {
+			Transport.getLogger().log(Level.WARNING, "Closed a link of the server to itself at " + channel.remoteAddress());
+			link.superseded = true;
+			closeAfter.addListener(ChannelFutureListener.CLOSE);
+			return;
+		}
+		link.nodeId = nodeId;
+		link.session = session;
+		synchronized (lock) {
+			final PeerLink existingLink = links.get(nodeId);
+			if (existingLink != null && existingLink.session.getChannel().isActive()) {
+				final PeerLink supersededLink = chooseSupersededLink(existingLink, link, localNodeId);
+				supersededLink.superseded = true;
+				if (supersededLink == link) {
+					closeAfter.addListener(ChannelFutureListener.CLOSE);
+					return;
+				}
+				existingLink.session.getChannel().close();
+			}
+			links.put(nodeId, link);
+			if (!interest.isEmpty()) {
+				sendSubscriptions(link, HandleSubscriptionType.ADD, interest.keySet());
+			}
+		}
+		Transport.getLogger().log(Level.INFO, "Linked up with the peer " + nodeId + " at " + channel.remoteAddress());
+	}
+
+	/*
+	 * Both servers keep the link that has been established by the server with the lower node id.
+	 * If both links have been established by the same server, the older one is stale.
+	 */
+	private static PeerLink chooseSupersededLink(PeerLink existingLink, PeerLink newLink, String localNodeId) {
+		if (existingLink.isDialed() == newLink.isDialed()) {
+			return existingLink;
+		}
+		final boolean keepDialed = localNodeId.compareTo(newLink.nodeId) < 0;
+		return existingLink.isDialed() == keepDialed ? newLink : existingLink;
+	}
+
+	/**
+	 * Subscribes the channels at all peers that have not been subscribed by any other local session yet.
+	 * @param session
+	 * @param channels the channels and patterns that the session has subscribed.
+	 */
+	public void onSubscriptionsAdded(ISession session, Collection<String> channels) {
+		if (channels.isEmpty() || isPeer(session)) {
+			return;
+		}
+		synchronized (lock) {
+			final List<String> newChannels = new ArrayList<>();
+			for (String channel : channels) {
+				if (interest.merge(channel, 1, Integer::sum) == 1) {
+					newChannels.add(channel);
+				}
+			}
+			sendSubscriptions(HandleSubscriptionType.ADD, newChannels);
+		}
+	}
+
+	/**
+	 * Unsubscribes the channels at all peers that are no longer subscribed by any local session.
+	 * @param session
+	 * @param channels the channels and patterns that the session has unsubscribed.
+	 */
+	public void onSubscriptionsRemoved(ISession session, Collection<String> channels) {
+		if (channels.isEmpty() || isPeer(session)) {
+			return;
+		}
+		synchronized (lock) {
+			final List<String> removedChannels = new ArrayList<>();
+			for (String channel : channels) {
+				final Integer count = interest.get(channel);
+				if (count == null) {
+					continue;
+				}
+				if (count == 1) {
+					interest.remove(channel);
+					removedChannels.add(channel);
+				} else {
+					interest.put(channel, count - 1);
+				}
+			}
+			sendSubscriptions(HandleSubscriptionType.REMOVE, removedChannels);
+		}
+	}
+
+	/**
+	 * Removes the subscriptions of a local session that has disconnected from all peers, or forgets the link if the session is a peer.
+	 * @param session
+	 * @param channels all channels and patterns that the session had subscribed.
+	 */
+	public void onSessionInactive(ISession session, Collection<String> channels) {
+		final PeerLink link = session.getChannel().attr(PEER_LINK).get();
+		if (link == null) {
+			onSubscriptionsRemoved(session, channels);
+			return;
+		}
+		if (link.nodeId == null) {
+			return;
+		}
+		synchronized (lock) {
+			if (links.get(link.nodeId) != link) {
+				return;
+			}
+			links.remove(link.nodeId);
+		}
+		Transport.getLogger().log(Level.INFO, "Lost the link to the peer " + link.nodeId);
+	}
+
+	private void sendSubscriptions(HandleSubscriptionType type, Collection<String> channels) {
+		if (channels.isEmpty()) {
+			return;
+		}
+		for (PeerLink link : links.values()) {
+			sendSubscriptions(link, type, channels);
+		}
+	}
+
+	private void sendSubscriptions(PeerLink link, HandleSubscriptionType type, Collection<String> channels) {
+		final HandleSubscriptionsMessage message = new HandleSubscriptionsMessage(type, channels.toArray(new String[channels.size()]));
+		message.addChannels("handle-subscriptions");
+		link.session.sendAsync(message);
+	}
+
+	/**
+	 *
+	 * @return the node ids of all peers that are currently linked.
+	 */
+	public List<String> getPeerNodeIds() {
+		synchronized (lock) {
+			return new ArrayList<>(links.keySet());
+		}
+	}
+
+	/**
+	 * This class represents the link of a channel to another server.
+	 *
+	 * @author Daniel Ziegler
+	 *
+	 */
+	@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+	@Getter
+	public static class PeerLink {
+
+		/**
+		 * The address that the link has been established to, or null if the other server has established it.
+		 */
+		private final SocketAddress address;
+		/**
+		 * The node id of the other server, which is null until its {@link PeerHelloMessage} has been received.
+		 */
+		private volatile String nodeId;
+		private volatile ISession session;
+		/**
+		 * Whether the link has been closed in favor of another link to the same server.
+		 */
+		private volatile boolean superseded;
+
+		/**
+		 *
+		 * @return true, if this server has established the link.
+		 */
+		public boolean isDialed() {
+			return address != null;
+		}
+	}
+}
@@ -0,0 +1,115 @@
+package de.iltisauge.transport.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+
+import de.iltisauge.transport.Transport;
+import de.iltisauge.transport.network.ISession;
+import de.iltisauge.transport.network.MessageDispatcher;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import lombok.AllArgsConstructor;
+
+/**
+ * This class replays the {@link ChannelLog} of a durable channel to a session, see {@link MessageLog}.<br>
+ * The frames are written in batches straight from the segment files. A batch is not bigger than the write buffer of the session
+ * and the next batch is read once the previous one has been flushed to the socket, so a replay does not fill the queue of the {@link de.iltisauge.transport.network.BackpressureHandler}.<br>
+ * The batches are read by the {@link MessageDispatcher}, which may have to open the log again, and only written by the event loop of the session.<br>
+ * Once the replay has caught up with the log, the channel is subscribed while the log is locked, so no message that is appended afterwards is missed.
+ * A message that is appended while the replay catches up may be received twice, the client can tell it by its offset.<br>
+ * If a batch cannot be read or written, the session is closed, so the client does not wait for a replay that never catches up.
+ * It can subscribe the channel again from the offset of the last message it has received once it has reconnected.
+ *
+ * @author Daniel Ziegler
+ *
+ */
+@AllArgsConstructor
+public class LogReplay implements Runnable {
+
+	private final ChannelLog log;
+	private final ISession session;
+	/**
+	 * The dispatcher of the server, which reads the batches.
+	 */
+	private final MessageDispatcher dispatcher;
+	/**
+	 * The amount of bytes after which a batch ends, see {@link de.iltisauge.transport.network.NetworkConfig#getWriteBufferHighWaterMark()}.
+	 */
+	private final int batchBytes;
+	/**
+	 * Subscribes the channel. It is called while the log is locked.
+	 */
+	private final Runnable onCaughtUp;
+	private long offset;
+
+	/**
+	 * Reads the next batch of frames and hands it to the event loop of the session. This has to be called by the {@link MessageDispatcher}.
+	 */
+	@Override
+	public void run() {
+		final Channel channel = session.getChannel();
+		if (!channel.isActive()) {
+			return;
+		}
+		final List<ByteBuf> frames = new ArrayList<>();
+		final long batchOffset = offset;
+		try {
+			offset = log.read(offset, batchBytes, frames);
+		} catch (RuntimeException exception) {
+			for (ByteBuf frame : frames) {
+				frame.release();
+			}
+			fail(channel, batchOffset, exception);
+			return;
+		}
+		if (frames.isEmpty()) {
+			synchronized (log) {
+				if (log.getNextOffset() <= offset) {
+					onCaughtUp.run();
+					return;
+				}
+			}
+			readNext();
+			return;
+		}
+		channel.eventLoop().execute(() -> write(channel, frames, batchOffset));
+	}
+
+	private void write(Channel channel, List<ByteBuf> frames, long batchOffset) {
+		// A frame that is dropped leaves a gap in the replay, so the session is closed if any frame of the batch fails
+		final ChannelFutureListener failureListener = writeFuture -> {
+			if (!writeFuture.isSuccess()) {
+				fail(channel, batchOffset, writeFuture.cause());
+			}
+		};
+		ChannelFuture future = null;
+		for (ByteBuf frame : frames) {
+			future = channel.write(frame).addListener(failureListener);
+		}
+		channel.flush();
+		future.addListener(writeFuture -> {
+			if (writeFuture.isSuccess()) {
+				readNext();
+			}
+		});
+	}
+
+	private void readNext() {
+		try {
+			dispatcher.execute(this);
+		} catch (RejectedExecutionException exception) {
+			// The server is shutting down and closes the session
+		}
+	}
+
+	private void fail(Channel channel, long batchOffset, Throwable cause) {
+		if (channel.isActive()) {
+			Transport.getLogger().log(Level.WARNING, "Closed the connection to " + channel.remoteAddress() + " after the replay of channel " + log.getChannel() + " failed at offset " + batchOffset, cause);
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,291 @@
+package de.iltisauge.transport.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import lombok.Getter;
+
+/**
+ * This class is a memory-mapped, append-only segment file of a {@link ChannelLog}.<br>
+ * Every record consists of its length, its offset, the time it has been appended at and the encoded frame of the message:
+ * <code>[int length][long offset][long timestamp][frame]</code>. The file is mapped at its full size when it is created,
+ * so the end of the records is the first length of 0.<br>
+ * Every few kilobytes an entry is added to the offset index of the segment, which is a second mapped file of
+ * <code>[int relative offset][int position][long timestamp]</code> entries. A record is found by a binary search in the index
+ * followed by a scan of the records behind the entry.<br>
+ * A single thread appends records while any thread may read them. Readers only see records below {@link #getSize()}.
+ * The mappings are released by the garbage collector, so a segment that has been deleted can still be read by a running replay.
+ *
+ * @author Daniel Ziegler
+ *
+ */
+public class LogSegment {
+
+	/**
+	 * The size in bytes of the header in front of every frame.
+	 */
+	public static final int RECORD_HEADER_SIZE = 4 + 8 + 8;
+
+	private static final int INDEX_ENTRY_SIZE = 4 + 4 + 8;
+	private static final String LOG_SUFFIX = ".log";
+	private static final String INDEX_SUFFIX = ".index";
+
+	/**
+	 * The offset of the first record of the segment.
+	 */
+	@Getter
+	private final long baseOffset;
+	private final File logFile;
+	private final File indexFile;
+	private final MappedByteBuffer log;
+	private final MappedByteBuffer index;
+	private final int indexIntervalBytes;
+	/**
+	 * The amount of bytes that have been appended.
+	 */
+	@Getter
+	private volatile int size;
+	/**
+	 * The offset that the next record of the segment gets.
+	 */
+	@Getter
+	private volatile long nextOffset;
+	/**
+	 * The time of the newest record in milliseconds, or 0 if the segment is empty.
+	 */
+	@Getter
+	private volatile long lastTimestamp;
+	private volatile int indexEntries;
+	private int bytesSinceIndexEntry;
+
+	private LogSegment(File directory, long baseOffset, int capacity, int indexIntervalBytes) throws IOException {
+		this.baseOffset = baseOffset;
+		this.logFile = new File(directory, fileName(baseOffset) + LOG_SUFFIX);
+		this.indexFile = new File(directory, fileName(baseOffset) + INDEX_SUFFIX);
+		this.indexIntervalBytes = indexIntervalBytes;
+		this.nextOffset = baseOffset;
+		final int logCapacity = Math.max(capacity, (int) logFile.length());
+		this.log = map(logFile, logCapacity);
+		this.index = map(indexFile, Math.max((logCapacity / indexIntervalBytes + 1) * INDEX_ENTRY_SIZE, (int) indexFile.length()));
+	}
+
+	private static MappedByteBuffer map(File file, int size) throws IOException {
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw"); FileChannel fileChannel = randomAccessFile.getChannel()) {
+			return fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+		}
+	}
+
+	private static String fileName(long baseOffset) {
+		return String.format("%020d", baseOffset);
+	}
+
+	/**
+	 * Creates a new empty segment.
+	 * @param directory the directory of the {@link ChannelLog}.
+	 * @param baseOffset the offset of the first record.
+	 * @param capacity the size of the segment file in bytes.
+	 * @param indexIntervalBytes the amount of bytes between two index entries.
+	 * @return the new segment.
+	 * @throws IOException if the files could not be created.
+	 */
+	public static LogSegment create(File directory, long baseOffset, int capacity, int indexIntervalBytes) throws IOException {
+		return new LogSegment(directory, baseOffset, capacity, indexIntervalBytes);
+	}
+
+	/**
+	 * Opens an existing segment and finds the end of its records, starting at the last entry of its index.
+	 * @param logFile the segment file.
+	 * @param indexIntervalBytes the amount of bytes between two index entries.
+	 * @return the segment.
+	 * @throws IOException if the files could not be opened.
+	 */
+	public static LogSegment open(File logFile, int indexIntervalBytes) throws IOException {
+		final String name = logFile.getName();
+		final long baseOffset = Long.parseLong(name.substring(0, name.length() - LOG_SUFFIX.length()));
+		final LogSegment segment = new LogSegment(logFile.getParentFile(), baseOffset, 0, indexIntervalBytes);
+		segment.recover();
+		return segment;
+	}
+
+	/**
+	 *
+	 * @param file
+	 * @return true, if the file is a segment file.
+	 */
+	public static boolean isSegmentFile(File file) {
+		return file.getName().endsWith(LOG_SUFFIX) && file.getName().length() == 20 + LOG_SUFFIX.length();
+	}
+
+	private void recover() {
+		int entries = 0;
+		while ((entries + 1) * INDEX_ENTRY_SIZE <= index.capacity() && index.getLong(entries * INDEX_ENTRY_SIZE + 8) != 0) {
+			entries++;
+		}
+		indexEntries = entries;
+		int position = entries == 0 ? 0 : index.getInt((entries - 1) * INDEX_ENTRY_SIZE + 4);
+		long offset = baseOffset;
+		long timestamp = 0;
+		while (position + RECORD_HEADER_SIZE <= log.capacity()) {
+			final int length = log.getInt(position);
+			if (length < RECORD_HEADER_SIZE - 4 || position + 4 + length > log.capacity()) {
+				break;
+			}
+			offset = log.getLong(position + 4) + 1;
+			timestamp = log.getLong(position + 12);
+			position += 4 + length;
+		}
+		size = position;
+		nextOffset = offset;
+		lastTimestamp = timestamp;
+	}
+
+	/**
+	 * Appends a record to the segment.
+	 * @param offset the offset of the record, which has to be {@link #getNextOffset()}.
+	 * @param timestamp the time of the record in milliseconds.
+	 * @param frame the encoded frame. It is not released.
+	 * @return false, if the segment is too full to take the record.
+	 */
+	public boolean append(long offset, long timestamp, ByteBuf frame) {
+		final int position = size;
+		final int recordSize = RECORD_HEADER_SIZE + frame.readableBytes();
+		if (position + recordSize > log.capacity()) {
+			return false;
+		}
+		frame.getBytes(frame.readerIndex(), region(position + RECORD_HEADER_SIZE, position + recordSize));
+		log.putLong(position + 4, offset);
+		log.putLong(position + 12, timestamp);
+		// The length is written last, so a crash never leaves a record with a length but without its frame
+		log.putInt(position, recordSize - 4);
+		if (indexEntries == 0 || bytesSinceIndexEntry >= indexIntervalBytes) {
+			final int entryPosition = indexEntries * INDEX_ENTRY_SIZE;
+			if (entryPosition + INDEX_ENTRY_SIZE <= index.capacity()) {
+				index.putInt(entryPosition, (int) (offset - baseOffset));
+				index.putInt(entryPosition + 4, position);
+				index.putLong(entryPosition + 8, timestamp);
+				indexEntries++;
+				bytesSinceIndexEntry = 0;
+			}
+		}
+		bytesSinceIndexEntry += recordSize;
+		lastTimestamp = timestamp;
+		nextOffset = offset + 1;
+		size = position + recordSize;
+		return true;
+	}
+
+	/**
+	 *
+	 * @param offset
+	 * @return the position of the record with the given offset, or the position behind the last record if the offset has not been appended yet.
+	 */
+	public int findOffset(long offset) {
+		final int size = this.size;
+		int low = 0;
+		int high = indexEntries - 1;
+		int position = 0;
+		while (low <= high) {
+			final int middle = (low + high) >>> 1;
+			if (baseOffset + index.getInt(middle * INDEX_ENTRY_SIZE) <= offset) {
+				position = index.getInt(middle * INDEX_ENTRY_SIZE + 4);
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+		while (position < size && log.getLong(position + 4) < offset) {
+			position += 4 + log.getInt(position);
+		}
+		return Math.min(position, size);
+	}
+
+	/**
+	 *
+	 * @param timestamp the time in milliseconds.
+	 * @return the position of the first record that has been appended at or after the given time, or the position behind the last record.
+	 */
+	public int findTimestamp(long timestamp) {
+		final int size = this.size;
+		int low = 0;
+		int high = indexEntries - 1;
+		int position = 0;
+		while (low <= high) {
+			final int middle = (low + high) >>> 1;
+			if (index.getLong(middle * INDEX_ENTRY_SIZE + 8) < timestamp) {
+				position = index.getInt(middle * INDEX_ENTRY_SIZE + 4);
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+		while (position < size && log.getLong(position + 12) < timestamp) {
+			position += 4 + log.getInt(position);
+		}
+		return Math.min(position, size);
+	}
+
+	/**
+	 *
+	 * @param position the position of a record.
+	 * @return the offset of the record.
+	 */
+	public long getOffset(int position) {
+		return log.getLong(position + 4);
+	}
+
+	/**
+	 *
+	 * @param position the position of a record.
+	 * @return the position of the record behind it.
+	 */
+	public int getNextPosition(int position) {
+		return position + 4 + log.getInt(position);
+	}
+
+	/**
+	 * The frame is not copied, it is written to the socket straight from the mapped file.
+	 * @param position the position of a record.
+	 * @return a buffer that wraps the frame of the record.
+	 */
+	public ByteBuf getFrame(int position) {
+		return Unpooled.wrappedBuffer(region(position + RECORD_HEADER_SIZE, position + 4 + log.getInt(position)));
+	}
+
+	/*
+	 * The positions are set through Buffer, whose methods are not overridden by ByteBuffer on Java 8.
+	 */
+	private ByteBuffer region(int from, int to) {
+		final ByteBuffer buffer = log.duplicate();
+		((Buffer) buffer).limit(to);
+		((Buffer) buffer).position(from);
+		return buffer.slice();
+	}
+
+	/**
+	 * Shrinks the segment file to the records that have been appended, so a segment that is closed before it is full does not keep its unused space.
+	 * The segment must not be appended to afterwards. It is full when it is opened again.<br>
+	 * Platforms that cannot shrink a mapped file keep it at its full size.
+	 */
+	public void trim() {
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(logFile, "rw")) {
+			randomAccessFile.setLength(size);
+		} catch (IOException exception) {
+			// The free space is found by the first length of 0 when the segment is opened again
+		}
+	}
+
+	/**
+	 * Deletes the files of the segment.
+	 */
+	public void delete() {
+		logFile.delete();
+		indexFile.delete();
+	}
+}
@@ -0,0 +1,174 @@
+package de.iltisauge.transport.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import de.iltisauge.transport.Transport;
+import de.iltisauge.transport.network.ChannelPattern;
+import de.iltisauge.transport.network.MessageEncoder;
+import de.iltisauge.transport.network.NetworkConfig;
+import de.iltisauge.transport.network.NetworkManager;
+import de.iltisauge.transport.network.Sendable;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.util.Timer;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * This class keeps a durable {@link ChannelLog} for every channel that matches {@link NetworkConfig#getDurableChannels()}.<br>
+ * The server appends every message of a durable channel before it forwards it, so clients that subscribe the channel later
+ * can have it replayed from an offset or a time, see {@link LogReplay}.
+ * The frames are logged in their portable form with an uncompressed payload, see {@link Federation},
+ * so they can be replayed to any session without decoding them, even after the server has restarted.<br>
+ * A message gets the next offset of every durable channel it is sent to and carries the offset of its first durable channel when it is forwarded.<br>
+ * The logs are kept in the page cache, so they survive a crash of the server but not of the operating system.<br>
+ * Logs are opened and new segments are created by the thread that forwards a message, so a server with durable channels always forwards on the threads
+ * of its {@link de.iltisauge.transport.network.MessageDispatcher} instead of the event loops. Logs that have not been used for {@link NetworkConfig#getLogIdleMillis()} are closed.
+ *
+ * @author Daniel Ziegler
+ *
+ */
+@RequiredArgsConstructor
+public class MessageLog {
+
+	private static final long RETENTION_CHECK_MILLIS = 60 * 1000;
+
+	private final NetworkConfig config;
+	private final NetworkManager networkManager;
+	private final Map<String, ChannelLog> logs = new ConcurrentHashMap<>();
+	private volatile boolean running;
+
+	/**
+	 * Enforces the retention of all logs and closes the idle ones periodically on the given timer.
+	 * @param timer
+	 */
+	public void start(Timer timer) {
+		running = true;
+		timer.newTimeout(timeout -> {
+			if (!running) {
+				return;
+			}
+			final long idleSince = System.currentTimeMillis() - config.getLogIdleMillis();
+			for (ChannelLog log : logs.values()) {
+				synchronized (log) {
+					if (log.getLastAccessMillis() < idleSince) {
+						log.close();
+					} else {
+						log.enforceRetention();
+					}
+				}
+			}
+			start(timer);
+		}, RETENTION_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops enforcing the retention and closes all logs.
+	 */
+	public void stop() {
+		running = false;
+		for (ChannelLog log : logs.values()) {
+			synchronized (log) {
+				log.close();
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @return true, if any channel is durable.
+	 */
+	public boolean isEnabled() {
+		return !config.getDurableChannels().isEmpty();
+	}
+
+	/**
+	 *
+	 * @param channel
+	 * @return true, if the channel matches one of {@link NetworkConfig#getDurableChannels()}.
+	 */
+	public boolean isDurable(String channel) {
+		for (String durableChannel : config.getDurableChannels()) {
+			if (ChannelPattern.isPattern(durableChannel) ? ChannelPattern.matches(durableChannel, channel) : durableChannel.equals(channel)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Opens the log of a durable channel when it is used for the first time.
+	 * @param channel
+	 * @return the log of the channel or null, if the channel is not durable or its log could not be opened.
+	 */
+	public ChannelLog getLog(String channel) {
+		final ChannelLog log = logs.get(channel);
+		if (log != null || !isDurable(channel)) {
+			return log;
+		}
+		try {
+			return logs.computeIfAbsent(channel, key -> {
+				try {
+					return new ChannelLog(key, new File(config.getLogDirectory(), getDirectoryName(key)), config);
+				} catch (IOException exception) {
+					throw new UncheckedIOException(exception);
+				}
+			});
+		} catch (UncheckedIOException exception) {
+			Transport.getLogger().log(Level.WARNING, "Could not open the log of channel " + channel, exception.getCause());
+			return null;
+		}
+	}
+
+	/*
+	 * Channel names may contain any character, so they are escaped. Dots are escaped as well, so no name can point to another directory.
+	 */
+	private static String getDirectoryName(String channel) {
+		try {
+			return URLEncoder.encode(channel, "UTF-8").replace(".", "%2E").replace("*", "%2A");
+		} catch (UnsupportedEncodingException exception) {
+			throw new IllegalStateException(exception);
+		}
+	}
+
+	/**
+	 * Appends the message to the logs of all of its durable channels.
+	 * @param message a message that is neither a request nor a reply.
+	 * @param allocator the allocator of the frames, which are released after they have been appended.
+	 * @return the offset of the message in the log of its first durable channel or {@link Sendable#NO_OFFSET}.
+	 */
+	public long append(Sendable message, ByteBufAllocator allocator) {
+		long firstOffset = Sendable.NO_OFFSET;
+		for (String channel : message.getChannels()) {
+			final ChannelLog log = getLog(channel);
+			if (log == null) {
+				continue;
+			}
+			synchronized (log) {
+				final long offset = log.getNextOffset();
+				message.setOffset(offset);
+				final ByteBuf frame = MessageEncoder.encodeFrame(networkManager, allocator, message, false, null, Integer.MAX_VALUE, config.getMaxFrameLength(), true);
+				try {
+					log.append(offset, frame);
+				} catch (IOException exception) {
+					Transport.getLogger().log(Level.WARNING, "Could not append a message to the log of channel " + channel, exception);
+					continue;
+				} finally {
+					frame.release();
+				}
+				if (firstOffset == Sendable.NO_OFFSET) {
+					firstOffset = offset;
+				}
+			}
+		}
+		message.setOffset(firstOffset);
+		return firstOffset;
+	}
+}
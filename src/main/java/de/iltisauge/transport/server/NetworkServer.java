@@ -1,32 +1,37 @@
 package de.iltisauge.transport.server;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.util.Arrays;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
+import java.util.List;
 import java.util.logging.*;
 import java.util.stream.Collectors;
 
 import de.iltisauge.transport.Transport;
 import de.iltisauge.transport.client.NetworkClient;
+import de.iltisauge.transport.messages.ChannelIdsMessage;
+import de.iltisauge.transport.messages.CodecHandshakeMessage;
 import de.iltisauge.transport.messages.HandleSubscriptionsMessage;
 import de.iltisauge.transport.messages.HandleSubscriptionsMessage.HandleSubscriptionType;
+import de.iltisauge.transport.messages.PeerHelloMessage;
+import de.iltisauge.transport.messages.ReplaySubscriptionMessage;
 import de.iltisauge.transport.messages.TextMessage;
 import de.iltisauge.transport.network.*;
 import de.iltisauge.transport.utils.ConsoleLoggingFormatter;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelOption;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.EventLoopGroup;
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.GenericFutureListener;
+import io.netty.util.ResourceLeakDetector;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 
@@ -53,6 +58,24 @@ public class NetworkServer extends NetworkDevice {
 		final String address = System.getProperty("server-address", "127.0.0.1");
 		final Integer port = Integer.valueOf(System.getProperty("server-port", "8917"));
 		final NetworkServer server = new NetworkServer(new ServerNetworkManager(subscriptionManager), subscriptionManager, new InetSocketAddress(address, port));
+		server.getConfig().setBatchWrites(Boolean.getBoolean("batch-writes"));
+		server.getConfig().setOverflowPolicy(OverflowPolicy.valueOf(System.getProperty("overflow-policy", "DROP_OLDEST")));
+		server.getConfig().setCompressionAlgorithms(CompressionAlgorithm.parse(System.getProperty("compression", "")));
+		server.getConfig().setTransportType(TransportType.valueOf(System.getProperty("transport-type", "AUTO")));
+		if (System.getProperty("leak-detection") != null) {
+			server.getConfig().setLeakDetectionLevel(ResourceLeakDetector.Level.valueOf(System.getProperty("leak-detection")));
+		}
+		server.getConfig().setWorkerThreads(Integer.getInteger("worker-threads", 0));
+		server.getConfig().setDispatchThreads(Integer.getInteger("dispatch-threads", 0));
+		server.getConfig().setVirtualThreadDispatch(Boolean.getBoolean("virtual-thread-dispatch"));
+		if (System.getProperty("node-id") != null) {
+			server.getConfig().setNodeId(System.getProperty("node-id"));
+		}
+		server.getConfig().setPeerAddresses(Federation.parseAddresses(System.getProperty("peers", "")));
+		server.getConfig().setDurableChannels(Arrays.stream(System.getProperty("durable-channels", "").split(","))
+				.map(String::trim).filter(channel -> !channel.isEmpty()).collect(Collectors.toList()));
+		server.getConfig().setLogDirectory(new File(System.getProperty("log-directory", "transport-log")));
+		server.getConfig().setLogSegmentBytes(Integer.getInteger("log-segment-bytes", server.getConfig().getLogSegmentBytes()));
 		server.initialize();
 		if (!server.start(true)) {
 			logger.log(Level.SEVERE, "Could not start NetworkServer.");
@@ -66,6 +89,8 @@ public class NetworkServer extends NetworkDevice {
 				while ((line = reader.readLine()) != null) {
 					if (line.startsWith("stop")) {
 						System.exit(0);
+					} else if (line.startsWith("metrics")) {
+						logger.log(Level.INFO, server.getMetrics().toString());
 					}
 				}
 			} catch (IOException exception) {
@@ -74,15 +99,31 @@ public class NetworkServer extends NetworkDevice {
 		}).start();
 	}
 
+	private static final int FRAME_BY_ID = 1;
+	private static final int FRAME_DECOMPRESSED = 2;
+	private static final int FRAME_PORTABLE = 4;
+
 	@Getter
 	private final ServerNetworkManager networkManager;
 	private final SubscriptionManager subcriptionManager;
+	/**
+	 * The routes of the replies to forwarded requests, see {@link #forwardReply(Sendable)}.
+	 */
+	private final RequestRoutes requestRoutes = new RequestRoutes(getTimer());
+	/**
+	 * Links this server with the servers of {@link NetworkConfig#getPeerAddresses()}.
+	 */
+	private final Federation federation = new Federation(this);
+	/**
+	 * Logs the messages of durable channels, see {@link NetworkConfig#getDurableChannels()}. It is created by {@link #initialize()}.
+	 */
+	private MessageLog messageLog = null;
 	/**
 	 * Represents the address that the server will be bound to.
 	 */
 	private final SocketAddress address;
-	private NioEventLoopGroup bossGroup = null;
-	private NioEventLoopGroup workerGroup = null;
+	private EventLoopGroup bossGroup = null;
+	private EventLoopGroup workerGroup = null;
 	private ServerBootstrap serverBootstrap = null;
 	private boolean isRunning;
 
@@ -92,15 +133,33 @@ public class NetworkServer extends NetworkDevice {
 	 */
 	@Override
 	public void initialize() {
-		Transport.setNetworkManager(networkManager);
+		// The first device of the JVM provides the default network manager, it is not replaced by the devices that follow
+		if (Transport.getNetworkManager() == null) {
+			Transport.setNetworkManager(networkManager);
+		}
 		networkManager.registerDefaultCodecs();
-		bossGroup = new NioEventLoopGroup();
-		workerGroup = new NioEventLoopGroup();
+		networkManager.setFederation(federation);
+		final NetworkConfig config = getConfig();
+		networkManager.setMaxDynamicCodecIds(config.getMaxDynamicCodecIds());
+		getMetrics().setMaxKeys(config.getMaxMetricKeys());
+		subcriptionManager.setReleasedChannelIdsHandler(networkManager::releaseChannelIds);
+		messageLog = new MessageLog(config, networkManager);
+		if (messageLog.isEnabled() && config.getDispatchThreads() <= 0 && config.getDispatchExecutor() == null && !config.isVirtualThreadDispatch()) {
+			// The logs are written by the threads that forward the messages, which must not block the event loops
+			config.setDispatchThreads(Runtime.getRuntime().availableProcessors());
+		}
+		initializeDispatcher();
+		final TransportType transportType = config.getTransportType().resolve();
+		Transport.getLogger().log(Level.INFO, "Using " + transportType + " transport with " + config.getBossThreads() + " boss and "
+				+ (config.getWorkerThreads() == 0 ? "default" : config.getWorkerThreads()) + " worker threads");
+		bossGroup = transportType.newEventLoopGroup(config.getBossThreads(), config.getIoRatio());
+		workerGroup = transportType.newEventLoopGroup(config.getWorkerThreads(), config.getIoRatio());
 		serverBootstrap = new ServerBootstrap();
 		serverBootstrap.group(bossGroup, workerGroup);
-		serverBootstrap.channel(NioServerSocketChannel.class);
-		serverBootstrap.option(ChannelOption.TCP_NODELAY, true).option(ChannelOption.SO_KEEPALIVE, true);
-		serverBootstrap.childOption(ChannelOption.TCP_NODELAY, true).option(ChannelOption.SO_KEEPALIVE, true);
+		serverBootstrap.channel(transportType.getServerSocketChannelClass());
+		serverBootstrap.childOption(ChannelOption.TCP_NODELAY, true).childOption(ChannelOption.SO_KEEPALIVE, true);
+		final ByteBufAllocator allocator = initializeAllocator();
+		serverBootstrap.option(ChannelOption.ALLOCATOR, allocator).childOption(ChannelOption.ALLOCATOR, allocator);
 		final ChannelInitializer channelInitializer = new ChannelInitializer(this);
 		serverBootstrap.handler(channelInitializer);
 		serverBootstrap.childHandler(channelInitializer);
@@ -126,6 +185,10 @@ public class NetworkServer extends NetworkDevice {
 				}
 				isRunning = true;
 				onStarted();
+				if (messageLog.isEnabled()) {
+					messageLog.start(getTimer());
+				}
+				federation.start(workerGroup);
 			}).syncUninterruptibly().isSuccess();
 		} catch(Exception exception) {
 			Transport.getLogger().log(Level.WARNING, "An error occurred while binding the network server to " + address.toString(), exception);
@@ -148,20 +211,72 @@ public class NetworkServer extends NetworkDevice {
 				}
 			});
 		}
+		networkManager.registerEvent(CodecHandshakeMessage.class, new IMessageEvent<CodecHandshakeMessage>() {
+
+			@Override
+			public void onReceived(CodecHandshakeMessage message) {
+				networkManager.answerCodecHandshake(message, getConfig().getCompressionAlgorithms());
+			}
+		});
+		networkManager.registerEvent(ChannelIdsMessage.class, new IMessageEvent<ChannelIdsMessage>() {
+
+			@Override
+			public void onReceived(ChannelIdsMessage message) {
+				networkManager.onChannelIdsUnbound(message.getFrom(), message.getReleasedIds());
+			}
+		});
+		networkManager.registerEvent(PeerHelloMessage.class, new IMessageEvent<PeerHelloMessage>() {
+
+			@Override
+			public void onReceived(PeerHelloMessage message) {
+				federation.onPeerHello(message);
+			}
+		});
+		networkManager.registerEvent(ReplaySubscriptionMessage.class, new IMessageEvent<ReplaySubscriptionMessage>() {
+
+			@Override
+			public void onReceived(ReplaySubscriptionMessage message) {
+				subscribeWithReplay(message);
+			}
+		});
 		networkManager.registerEvent(HandleSubscriptionsMessage.class, new IMessageEvent<HandleSubscriptionsMessage>() {
 
 			@Override
 			public void onReceived(HandleSubscriptionsMessage message) {
 				final HandleSubscriptionType handleSubscriptionType = message.getHandleSubscriptionType();
 				if (handleSubscriptionType.equals(HandleSubscriptionType.ADD)) {
-					subcriptionManager.addSubscriptions(message.getFrom(), message.getChannelsToSubscribe());
+					subscribe(message.getFrom(), message.getChannelsToSubscribe());
 				} else if (handleSubscriptionType.equals(HandleSubscriptionType.REMOVE)) {
-					subcriptionManager.removeSubscriptions(message.getFrom(), message.getChannelsToSubscribe());
+					federation.onSubscriptionsRemoved(message.getFrom(), subcriptionManager.removeSubscriptions(message.getFrom(), message.getChannelsToSubscribe()));
 				}
 			}
 		});
 	}
 
+	private void subscribe(ISession session, String... channels) {
+		federation.onSubscriptionsAdded(session, subcriptionManager.addSubscriptions(session, channels));
+		// Patterns do not have ids, the ids of the channels they match are announced when they are forwarded
+		networkManager.announceChannelIds(session, Arrays.stream(channels).filter(channel -> !ChannelPattern.isPattern(channel)).toArray(String[]::new));
+	}
+
+	/**
+	 * Replays the log of a durable channel to the session and subscribes the channel once the replay has caught up, see {@link LogReplay}.<br>
+	 * Channels that are not durable are subscribed right away. The log is opened and read by the {@link MessageDispatcher}, never by the event loop.
+	 * @param message
+	 */
+	private void subscribeWithReplay(ReplaySubscriptionMessage message) {
+		final ISession session = message.getFrom();
+		final String channel = message.getChannelToSubscribe();
+		final ChannelLog log = ChannelPattern.isPattern(channel) ? null : messageLog.getLog(channel);
+		if (log == null) {
+			subscribe(session, channel);
+			return;
+		}
+		final long offset = message.getFromOffset() != Sendable.NO_OFFSET ? message.getFromOffset() : log.findOffset(message.getFromTimestamp());
+		// The listener already runs on the dispatcher, which reads the log while the event loop only writes the frames
+		new LogReplay(log, session, getDispatcher(), getConfig().getWriteBufferHighWaterMark(), () -> subscribe(session, channel), offset).run();
+	}
+
 	/**
 	 * This method is called when the server has been binded to the specific address.
 	 */
@@ -171,41 +286,189 @@ public class NetworkServer extends NetworkDevice {
 	}
 	
 	/**
-	 * Sends the {@link IMessage} to all connected clients.
+	 * Sends the {@link IMessage} to all connected clients.<br>
+	 * The message is encoded only once and the same frame is written to every session.
 	 * @param message
 	 */
 	public void broadcastMessage(IMessage message) {
-		for (ISession session : networkManager.getSessions()) {
-			session.send(message);
+		final List<ISession> sessions = networkManager.getSessions();
+		if (sessions.isEmpty()) {
+			return;
+		}
+		final ByteBuf frame = MessageEncoder.encodeFrame(networkManager, sessions.get(0).getChannel().alloc(), message);
+		try {
+			for (ISession session : sessions) {
+				session.sendFrame(frame, message);
+			}
+			if (getConfig().isRecordMetrics()) {
+				final String messageType = MessageEncoder.getMessageType(networkManager, message);
+				final String[] channels = message.getChannels();
+				for (int i = 0; i < sessions.size(); i++) {
+					getMetrics().recordOutbound(messageType, channels, frame.readableBytes());
+				}
+			}
+		} finally {
+			frame.release();
 		}
 	}
 
 	/**
-	 * Forwards the {@link ServerMessageWrapper} to all clients that have subscribed the channels of the message.
+	 * Forwards the {@link ServerMessageWrapper} to all clients that have subscribed the channels of the message.<br>
+	 * The subscribers are looked up by channel id in the index of the {@link SubscriptionManager}.
+	 * A session that has subscribed several channels of the message receives it only once.<br>
+	 * The message is encoded at most once per kind of frame: sessions that know the ids of all channels get a frame with the channel ids,
+	 * all others get a frame with the channel names and the ids are announced to them.
+	 * A compressed payload is forwarded as it is to sessions that have negotiated its {@link CompressionAlgorithm},
+	 * all others get a frame with the decompressed payload.<br>
+	 * A request is forwarded with a correlation id of the server, so its reply can be routed back, see {@link RequestRoutes}.<br>
+	 * Messages of durable channels are appended to the {@link MessageLog} first and carry their offset.<br>
+	 * A direct message is only sent to its target session, see {@link #forwardDirect(ServerMessageWrapper)}.<br>
+	 * Linked servers get a portable frame and a message that has been received from another server is only forwarded to local sessions, see {@link Federation}.<br>
+	 * The time that is spent forwarding is recorded in {@link NetworkMetrics#getForwardTime()}.
 	 * @param message
 	 */
 	public void forwardMessage(ServerMessageWrapper message) {
-		final Map<ISession, Set<String>> subscriptions = subcriptionManager.getSubscriptions();
-		for (String channel : message.getChannels()) {
-			for (Entry<ISession, Set<String>> entry : subscriptions.entrySet()) {
-				if (!entry.getValue().contains(channel)) {
+		final long startNanos = System.nanoTime();
+		final ISession from = message.getFrom();
+		final boolean fromPeer = Federation.isPeer(from);
+		final String[] channels = message.getChannels();
+		final ChannelRegistry channelRegistry = subcriptionManager.getChannelRegistry();
+		int[] channelIds = message.getChannelIds();
+		if (channelIds == null || channelIds.length != channels.length) {
+			channelIds = new int[channels.length];
+			for (int i = 0; i < channels.length; i++) {
+				channelIds[i] = channelRegistry.getId(channels[i]);
+			}
+			message.setChannelIds(channelIds);
+		} else {
+			// The id of a channel may have been released or assigned since the message has been decoded
+			for (int i = 0; i < channels.length; i++) {
+				if (!channels[i].equals(channelRegistry.getName(channelIds[i]))) {
+					channelIds[i] = channelRegistry.getId(channels[i]);
+				}
+			}
+		}
+		RequestRoutes.Route route = null;
+		if (message.isRequest()) {
+			route = requestRoutes.add(from, message.getCorrelationId(), getConfig().getRequestRouteTimeoutMillis());
+			message.setCorrelationId(route.getRoutedCorrelationId());
+		}
+		if (message.isDirect()) {
+			forwardDirect(message, route);
+			if (getConfig().isRecordMetrics()) {
+				getMetrics().getForwardTime().recordSince(startNanos);
+			}
+			return;
+		}
+		if (messageLog.isEnabled() && !message.isRequest()) {
+			messageLog.append(message, from.getChannel().alloc());
+		} else {
+			message.setOffset(Sendable.NO_OFFSET);
+		}
+		final boolean recordMetrics = getConfig().isRecordMetrics();
+		final String messageType = recordMetrics ? MessageEncoder.getMessageType(networkManager, message) : null;
+		final CompressionAlgorithm compression = message.getCompression();
+		// Indexed by FRAME_BY_ID, FRAME_DECOMPRESSED and FRAME_PORTABLE, every variant is encoded once when the first session needs it
+		final ByteBuf[] frames = new ByteBuf[8];
+		try {
+			for (ISession session : subcriptionManager.getSubscribers(channels, channelIds)) {
+				if (session.equals(from) && !message.isReceiveSelf()) {
 					continue;
 				}
-				if (entry.getKey().equals(message.getFrom().getChannel()) && !message.isReceiveSelf()) {
+				final boolean peer = Federation.isPeer(session);
+				if (fromPeer && peer) {
 					continue;
 				}
-				entry.getKey().send(message, isLogTraffic());
+				final KnownChannelIds knownChannelIds = session.getChannel().attr(KnownChannelIds.KNOWN_CHANNEL_IDS).get();
+				final boolean useChannelIds = knownChannelIds != null && knownChannelIds.isKnown(channelIds);
+				if (!useChannelIds) {
+					networkManager.announceChannelIds(session, channelIds);
+				}
+				// A compressed payload is only decompressed for sessions that do not support its algorithm
+				final boolean decompress = compression != null && compression != CompressionAlgorithm.of(session.getChannel());
+				final int frameIndex = (useChannelIds ? FRAME_BY_ID : 0) | (decompress ? FRAME_DECOMPRESSED : 0) | (peer ? FRAME_PORTABLE : 0);
+				if (frames[frameIndex] == null) {
+					frames[frameIndex] = MessageEncoder.encodeFrame(networkManager, from.getChannel().alloc(), message, useChannelIds,
+							decompress ? null : compression, Integer.MAX_VALUE, getConfig().getMaxFrameLength(), peer);
+				}
+				final ByteBuf frame = frames[frameIndex];
+				if (route != null) {
+					route.addResponder(session);
+				}
+				session.sendFrame(frame, message);
+				if (recordMetrics) {
+					getMetrics().recordOutbound(messageType, channels, frame.readableBytes());
+				}
 			}
+		} finally {
+			for (ByteBuf frame : frames) {
+				if (frame != null) {
+					frame.release();
+				}
+			}
+			if (recordMetrics) {
+				getMetrics().getForwardTime().recordSince(startNanos);
+			}
+		}
+	}
+
+	/**
+	 * Sends a direct message to the session with its target id, see {@link Sendable#getTargetSessionId()}.
+	 * The session is looked up by its id, so no subscriptions are scanned and the channels of the message are ignored.<br>
+	 * The message carries the id of the session that has sent it, so the target can answer with another direct message.
+	 * Session ids are only unique on a single server, so direct messages are neither sent to nor received from linked servers.
+	 * A message whose target is not connected is dropped and recorded in {@link NetworkMetrics#getUnroutableMessages()}.
+	 * @param message
+	 * @param route the route of the reply if the message is a request, otherwise null.
+	 */
+	private void forwardDirect(ServerMessageWrapper message, RequestRoutes.Route route) {
+		final ISession from = message.getFrom();
+		final ISession target = networkManager.getSession(message.getTargetSessionId());
+		if (target == null || Federation.isPeer(from) || Federation.isPeer(target)) {
+			if (getConfig().isRecordMetrics()) {
+				getMetrics().getUnroutableMessages().increment();
+			}
+			return;
+		}
+		message.setSourceSessionId(from.getId());
+		message.setOffset(Sendable.NO_OFFSET);
+		if (route != null) {
+			route.addResponder(target);
+		}
+		// The wrapper is released after it has been dispatched, the encoder releases this reference once the message has been written
+		message.retain();
+		target.sendAsync(message);
+	}
+
+	/**
+	 * Sends a reply to the session that has sent the request, with the correlation id that the session has used.<br>
+	 * Replies are not sent to any channel and only the first reply to a request is routed.
+	 * A reply from a session that the request has not been forwarded to is dropped, see {@link RequestRoutes}.
+	 * @param reply
+	 */
+	public void forwardReply(Sendable reply) {
+		final RequestRoutes.Route route = requestRoutes.remove(reply.getCorrelationId(), reply.getFrom());
+		if (route == null) {
+			return;
+		}
+		reply.setCorrelationId(route.getCorrelationId());
+		if (reply instanceof ServerMessageWrapper) {
+			// The wrapper is released after it has been dispatched, the encoder releases this reference once the reply has been written
+			((ServerMessageWrapper) reply).retain();
 		}
+		route.getRequester().sendAsync(reply);
 	}
 
 	/**
-	 * This method shuts down the worker {@link NioEventLoopGroup} and boss {@link NioEventLoopGroup} and calls {@link #onShutdown()}.
+	 * This method shuts down the worker {@link EventLoopGroup} and boss {@link EventLoopGroup} and calls {@link #onShutdown()}.
 	 */
 	@Override
 	public void shutdown() {
+		federation.stop();
+		messageLog.stop();
 		workerGroup.shutdownGracefully();
 		bossGroup.shutdownGracefully();
+		shutdownDispatcher();
 		isRunning = false;
 		onShutdown();
 	}
@@ -219,7 +482,7 @@ public class NetworkServer extends NetworkDevice {
 	}
 
 	/**
-	 * Sets the {@link NioEventLoopGroup}s and {@link Bootstrap} object to null.<br>
+	 * Sets the {@link EventLoopGroup}s and {@link Bootstrap} object to null.<br>
 	 * Calls {@link #shutdown()} if the method was not called.
 	 */
 	@Override
@@ -227,6 +490,7 @@ public class NetworkServer extends NetworkDevice {
 		if (isRunning()) {
 			shutdown();
 		}
+		getTimer().stop();
 		bossGroup = null;
 		workerGroup = null;
 		serverBootstrap = null;
@@ -0,0 +1,102 @@
+package de.iltisauge.transport.server;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.iltisauge.transport.network.ISession;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * This class routes the replies to the requests that the {@link NetworkServer} has forwarded back to their senders.<br>
+ * The correlation ids of the clients are only unique per client, so a forwarded request gets a new correlation id of the server.
+ * The reply carries it back and is sent to the requesting session with its original correlation id.
+ * Only the first reply to a request is routed and only if it has been sent by a session that the request has been forwarded to,
+ * so a client cannot answer the requests of others by guessing their correlation ids. Routes that have not been used expire on the {@link Timer} of the server.
+ *
+ * @author Daniel Ziegler
+ *
+ */
+@RequiredArgsConstructor
+public class RequestRoutes {
+
+	private final Timer timer;
+	private final AtomicLong nextCorrelationId = new AtomicLong();
+	private final Map<Long, Route> routes = new ConcurrentHashMap<>();
+
+	/**
+	 * Adds a route for a request that is about to be forwarded.<br>
+	 * The sessions that the request is forwarded to have to be added to the route before it is sent to them, see {@link Route#addResponder(ISession)}.
+	 * @param requester
+	 * @param correlationId the correlation id of the requester.
+	 * @param timeoutMillis the time after which the route expires.
+	 * @return the new route, which contains the correlation id with which the request is forwarded.
+	 */
+	public Route add(ISession requester, long correlationId, long timeoutMillis) {
+		final long routedCorrelationId = nextCorrelationId.incrementAndGet();
+		final Route route = new Route(routedCorrelationId, requester, correlationId);
+		routes.put(routedCorrelationId, route);
+		route.timeout = timer.newTimeout(route, timeoutMillis, TimeUnit.MILLISECONDS);
+		return route;
+	}
+
+	/**
+	 * Removes the route of a reply, if the reply has been sent by one of the sessions that the request has been forwarded to.
+	 * @param routedCorrelationId the correlation id of the reply.
+	 * @param responder the session that has sent the reply.
+	 * @return the route or null if the request has already been answered, the route has expired or the request has not been forwarded to the responder.
+	 */
+	public Route remove(long routedCorrelationId, ISession responder) {
+		final Route route = routes.get(routedCorrelationId);
+		if (route == null || !route.responders.contains(responder) || !routes.remove(routedCorrelationId, route)) {
+			return null;
+		}
+		if (route.timeout != null) {
+			route.timeout.cancel();
+		}
+		return route;
+	}
+
+	/**
+	 *
+	 * @return the amount of forwarded requests that wait for their reply.
+	 */
+	public int size() {
+		return routes.size();
+	}
+
+	/**
+	 * This class contains the session that has sent a request, the correlation id it has used and the sessions that may answer it.
+	 */
+	@RequiredArgsConstructor
+	@Getter
+	public final class Route implements TimerTask {
+
+		private final long routedCorrelationId;
+		private final ISession requester;
+		private final long correlationId;
+		@Getter(AccessLevel.NONE)
+		private final Set<ISession> responders = ConcurrentHashMap.newKeySet();
+		private volatile Timeout timeout;
+
+		/**
+		 * Allows the session to answer the request, because the request is forwarded to it.
+		 * @param session
+		 */
+		public void addResponder(ISession session) {
+			responders.add(session);
+		}
+
+		@Override
+		public void run(Timeout timeout) {
+			routes.remove(routedCorrelationId, this);
+		}
+	}
+}
@@ -1,21 +1,37 @@
 package de.iltisauge.transport.server;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 
 import de.iltisauge.transport.Transport;
+import de.iltisauge.transport.messages.ChannelIdsMessage;
+import de.iltisauge.transport.messages.CodecHandshakeMessage;
+import de.iltisauge.transport.messages.SessionIdMessage;
+import de.iltisauge.transport.network.ChannelRegistry;
+import de.iltisauge.transport.network.CompressionAlgorithm;
+import de.iltisauge.transport.network.IMessageCodec;
 import de.iltisauge.transport.network.ISession;
+import de.iltisauge.transport.network.KnownChannelIds;
+import de.iltisauge.transport.network.NetworkConfig;
 import de.iltisauge.transport.network.NetworkManager;
+import de.iltisauge.transport.network.Session;
 import io.netty.channel.Channel;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
+import lombok.Setter;
 
 /**
  * This class extends {@link NetworkManager} and handles session management.<br>
- * The session cache is accessed in a thread-safe manner.
+ * The sessions are indexed by their id in a concurrent map, so a direct message is routed to its target without locking or scanning the subscriptions.
  * 
  * @author Daniel Ziegler
  *
@@ -25,42 +41,269 @@ public class ServerNetworkManager extends NetworkManager {
 	
 	@Getter
 	private final SubscriptionManager subscriptionManager;
-	private final Map<Channel, ISession> sessions = new HashMap<>();
+	private final Map<Integer, ISession> sessions = new ConcurrentHashMap<>();
+	private final Object codecIdLock = new Object();
+	/*
+	 * The sessions that still have to unbind a released channel id, by id. Announcing and releasing channel ids is serialized by the channelIdLock.
+	 */
+	private final Map<Integer, Set<ISession>> releasingChannelIds = new HashMap<>();
+	private final Object channelIdLock = new Object();
+	/**
+	 * The maximum amount of codec ids that are assigned to class names, see {@link NetworkConfig#getMaxDynamicCodecIds()}.
+	 */
+	@Getter
+	@Setter
+	private int maxDynamicCodecIds = MAX_CODEC_ID - FIRST_DYNAMIC_CODEC_ID + 1;
+	/**
+	 * The {@link Federation} that is told about the subscriptions of disconnected sessions, or null.
+	 */
+	@Setter
+	private Federation federation;
 	
-	public void registerSession(ISession session) {
-		synchronized (sessions) {
-			sessions.put(session.getChannel(), session);
+	/**
+	 * Registers the {@link IMessageCodec} and assigns a codec id to its class, so the server can use the id for its own messages.
+	 */
+	@Override
+	public void registerCodec(Class<?> clazz, IMessageCodec<?> codec) {
+		super.registerCodec(clazz, codec);
+		assignCodecIds(new String[] { clazz.getName() });
+	}
+	
+	/**
+	 * Assigns the next free codec ids to the class names that no id has been bound to yet, all at once.<br>
+	 * The server is the authority for codec ids, so the ids are equal for all connected clients.
+	 * Ids are only assigned until {@link #getMaxDynamicCodecIds()} have been assigned, the remaining class names keep {@link #CODEC_ID_BY_NAME}
+	 * and their messages are forwarded by name.
+	 * @param classNames
+	 * @return the codec ids in the order of the class names.
+	 */
+	public int[] assignCodecIds(String[] classNames) {
+		synchronized (codecIdLock) {
+			final int[] codecIds = new int[classNames.length];
+			final int lastCodecId = Math.min(MAX_CODEC_ID, FIRST_DYNAMIC_CODEC_ID + maxDynamicCodecIds - 1);
+			int nextCodecId = Math.max(FIRST_DYNAMIC_CODEC_ID, getHighestCodecId() + 1);
+			// A class name may occur more than once, so it has to get the id that has just been assigned to it
+			final Map<String, Integer> assignedCodecIds = new HashMap<>();
+			for (int i = 0; i < classNames.length; i++) {
+				codecIds[i] = resolveCodecId(classNames[i]);
+				if (codecIds[i] != CODEC_ID_BY_NAME) {
+					continue;
+				}
+				final Integer assignedCodecId = assignedCodecIds.get(classNames[i]);
+				if (assignedCodecId != null) {
+					codecIds[i] = assignedCodecId;
+				} else if (nextCodecId <= lastCodecId) {
+					codecIds[i] = nextCodecId++;
+					assignedCodecIds.put(classNames[i], codecIds[i]);
+				}
+			}
+			if (!assignedCodecIds.isEmpty()) {
+				bindCodecIds(classNames, codecIds);
+			}
+			return codecIds;
+		}
+	}
+	
+	/**
+	 * Answers the {@link CodecHandshakeMessage} of a client with the codec ids of all class names the client has sent.<br>
+	 * Class names that no id can be assigned to anymore are answered with {@link #CODEC_ID_BY_NAME}, see {@link #assignCodecIds(String[])}.<br>
+	 * If the client has offered compression algorithms, the first of the given algorithms that has been offered is chosen.
+	 * It is used for the payloads that are sent to the client from now on and the client uses it once it has received the answer.
+	 * @param message
+	 * @param compressionAlgorithms the algorithms of the server, see {@link NetworkConfig#getCompressionAlgorithms()}.
+	 */
+	public void answerCodecHandshake(CodecHandshakeMessage message, CompressionAlgorithm[] compressionAlgorithms) {
+		final String[] classNames = message.getClassNames();
+		final CodecHandshakeMessage answer = new CodecHandshakeMessage(classNames, assignCodecIds(classNames));
+		if (message.getCompressionAlgorithms().length > 0) {
+			final CompressionAlgorithm compression = CompressionAlgorithm.choose(compressionAlgorithms, message.getCompressionAlgorithms());
+			message.getFrom().getChannel().attr(CompressionAlgorithm.NEGOTIATED).set(compression);
+			answer.setCompressionAlgorithms(compression == null ? new String[0] : new String[] { compression.name() });
+		}
+		answer.addChannels(CodecHandshakeMessage.CHANNEL);
+		message.getFrom().sendAsync(answer);
+	}
+	
+	/**
+	 * The server uses the channel ids of the {@link SubscriptionManager}.
+	 */
+	@Override
+	public ChannelRegistry getChannelRegistry() {
+		return subscriptionManager.getChannelRegistry();
+	}
+	
+	/**
+	 * Sends the ids of the given channels to the session, unless it already knows them or they are being announced.<br>
+	 * Channels without id are not announced.
+	 * @param session
+	 * @param channels
+	 */
+	public void announceChannelIds(ISession session, String... channels) {
+		final ChannelRegistry channelRegistry = getChannelRegistry();
+		final int[] channelIds = new int[channels.length];
+		for (int i = 0; i < channels.length; i++) {
+			channelIds[i] = channelRegistry.getId(channels[i]);
 		}
-		Transport.getLogger().log(Level.INFO, "Registered session " + session);
+		announceChannelIds(session, channelIds);
+	}
+	
+	/**
+	 * Sends the given channel ids to the session, unless it already knows them or they are being announced.<br>
+	 * The session knows the ids once the {@link ChannelIdsMessage} has been written, see {@link KnownChannelIds}.
+	 * Ids that have been released in the meantime are not announced.
+	 * @param session
+	 * @param channelIds
+	 */
+	public void announceChannelIds(ISession session, int[] channelIds) {
+		final KnownChannelIds knownChannelIds = session.getChannel().attr(KnownChannelIds.KNOWN_CHANNEL_IDS).get();
+		if (knownChannelIds == null) {
+			return;
+		}
+		int[] announcedIds = knownChannelIds.announce(channelIds);
+		if (announcedIds.length == 0) {
+			return;
+		}
+		final ChannelRegistry channelRegistry = getChannelRegistry();
+		// The announcement is written while the lock is held, so it cannot arrive after the release of one of its ids
+		synchronized (channelIdLock) {
+			String[] channels = new String[announcedIds.length];
+			int count = 0;
+			for (int announcedId : announcedIds) {
+				final String channel = channelRegistry.getName(announcedId);
+				if (channel == null) {
+					knownChannelIds.forget(announcedId);
+					continue;
+				}
+				channels[count] = channel;
+				announcedIds[count++] = announcedId;
+			}
+			if (count == 0) {
+				return;
+			}
+			if (count < announcedIds.length) {
+				channels = Arrays.copyOf(channels, count);
+				announcedIds = Arrays.copyOf(announcedIds, count);
+			}
+			final int[] ids = announcedIds;
+			final ChannelIdsMessage message = new ChannelIdsMessage(channels, ids);
+			message.addChannels(ChannelIdsMessage.CHANNEL);
+			session.sendAsync(message).addListener(future -> knownChannelIds.onAnnounced(ids, future.isSuccess()));
+		}
+	}
+	
+	/**
+	 * Tells every session that knows one of the released channel ids to unbind it.
+	 * An id is freed once all of these sessions have answered, see {@link #onChannelIdsUnbound(ISession, int[])}, or disconnected.
+	 * @param channelIds the ids that have been released by the {@link SubscriptionManager}.
+	 */
+	public void releaseChannelIds(int[] channelIds) {
+		synchronized (channelIdLock) {
+			for (int channelId : channelIds) {
+				releasingChannelIds.put(channelId, new HashSet<>());
+			}
+			for (ISession session : sessions.values()) {
+				final KnownChannelIds knownChannelIds = session.getChannel().attr(KnownChannelIds.KNOWN_CHANNEL_IDS).get();
+				if (knownChannelIds == null) {
+					continue;
+				}
+				final int[] releasedIds = new int[channelIds.length];
+				int count = 0;
+				for (int channelId : channelIds) {
+					if (knownChannelIds.forget(channelId)) {
+						releasingChannelIds.get(channelId).add(session);
+						releasedIds[count++] = channelId;
+					}
+				}
+				if (count > 0) {
+					final ChannelIdsMessage message = new ChannelIdsMessage(new String[0], new int[0]);
+					message.setReleasedIds(Arrays.copyOf(releasedIds, count));
+					message.addChannels(ChannelIdsMessage.CHANNEL);
+					session.sendAsync(message);
+				}
+			}
+			for (int channelId : channelIds) {
+				if (releasingChannelIds.get(channelId).isEmpty()) {
+					releasingChannelIds.remove(channelId);
+					getChannelRegistry().free(channelId);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Called when a session has answered that it has unbound released channel ids.
+	 * @param session
+	 * @param channelIds
+	 */
+	public void onChannelIdsUnbound(ISession session, int[] channelIds) {
+		synchronized (channelIdLock) {
+			for (int channelId : channelIds) {
+				final Set<ISession> releasingSessions = releasingChannelIds.get(channelId);
+				if (releasingSessions != null && releasingSessions.remove(session) && releasingSessions.isEmpty()) {
+					releasingChannelIds.remove(channelId);
+					getChannelRegistry().free(channelId);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Registers the session by its id and tells the client the id, see {@link SessionIdMessage}.
+	 * @param session
+	 */
+	public void registerSession(ISession session) {
+		sessions.put(session.getId(), session);
+		Transport.getLogger().log(Level.INFO, "Registered session " + session.getId() + " of " + session.getClientAddress());
+		final SessionIdMessage message = new SessionIdMessage(session.getId());
+		message.addChannels(SessionIdMessage.CHANNEL);
+		session.sendAsync(message);
 	}
 
 	public void unregisterSession(ISession session) {
-		synchronized (sessions) {
-			sessions.remove(session.getChannel());
-		}
-		Transport.getLogger().log(Level.INFO, "Unregistered session " + session);
+		sessions.remove(session.getId(), session);
+		Transport.getLogger().log(Level.INFO, "Unregistered session " + session.getId() + " of " + session.getClientAddress());
 	}
 
 	public List<ISession> getSessions() {
-		synchronized (sessions) {
-			return new ArrayList<>(sessions.values());
-		}
+		return new ArrayList<>(sessions.values());
+	}
+	
+	/**
+	 * 
+	 * @param sessionId
+	 * @return the registered session with the given id, or null.
+	 */
+	public ISession getSession(int sessionId) {
+		return sessions.get(sessionId);
 	}
 	
 	public ISession getSession(Channel channel) {
-		ISession session = null;
-		synchronized (sessions) {
-			session = sessions.get(channel);
-		}
-		if (session == null) {
+		final Session session = Session.of(channel);
+		if (session == null || sessions.get(session.getId()) != session) {
 			Transport.getLogger().log(Level.WARNING, "No session is registered for channel " + channel.toString());
 			return null;
 		}
 		return session;
 	}
 	
+	/**
+	 * Removes the subscriptions of the session. The channel ids that wait for the session to unbind them are freed, if no other session has to unbind them.
+	 */
 	@Override
 	public void onSessionInactive(ISession session) {
-		subscriptionManager.removeSubscriptions(session);
+		synchronized (channelIdLock) {
+			final Iterator<Map.Entry<Integer, Set<ISession>>> iterator = releasingChannelIds.entrySet().iterator();
+			while (iterator.hasNext()) {
+				final Map.Entry<Integer, Set<ISession>> entry = iterator.next();
+				if (entry.getValue().remove(session) && entry.getValue().isEmpty()) {
+					iterator.remove();
+					getChannelRegistry().free(entry.getKey());
+				}
+			}
+		}
+		final Collection<String> channels = subscriptionManager.removeSubscriptions(session);
+		if (federation != null) {
+			federation.onSessionInactive(session, channels);
+		}
 	}
 }
@@ -2,81 +2,321 @@ package de.iltisauge.transport.server;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.logging.Level;
 
+import de.iltisauge.transport.Transport;
+import de.iltisauge.transport.network.ChannelPattern;
+import de.iltisauge.transport.network.ChannelRegistry;
 import de.iltisauge.transport.network.ISession;
-import io.netty.channel.Channel;
 import lombok.Getter;
+import lombok.Setter;
 
 /**
  * This class is used to handle channel subscriptions on the server-side.<br>
- * The subscription cache is accessed in a thread-safe manner.
- * 
+ * Besides the subscriptions of every session it keeps an inverted index from every channel to its subscribers,
+ * so routing a message only touches the sessions that have actually subscribed one of its channels.
+ * The index is an array that is indexed by the channel ids of the {@link ChannelRegistry}, so routing does not hash channel names.
+ * Channels that are subscribed while all channel ids are in use are indexed by their name instead, until they have no subscribers left.<br>
+ * The id of a channel that has lost its last subscriber is released and handed to the {@link #setReleasedChannelIdsHandler(Consumer) handler},
+ * which frees it once no client uses it anymore.<br>
+ * Subscriptions of channel patterns such as <code>match.*.score</code> are stored in a {@link SubscriptionTrie} instead, see {@link ChannelPattern}.
+ * Patterns do not get a channel id.<br>
+ * Changes are serialized by a lock, lookups read the index without locking.
+ *
  * @author Daniel Ziegler
  *
  */
 public class SubscriptionManager {
-	
+
+	/**
+	 * Assigns the ids of all channels that are subscribed on this server.
+	 */
+	@Getter
+	private final ChannelRegistry channelRegistry = new ChannelRegistry();
 	@Getter
-	private final Map<ISession, Set<String>> subscriptions = new HashMap<>();
-	
+	private final Map<ISession, Set<String>> subscriptions = new ConcurrentHashMap<>();
+	/*
+	 * The subscribers of every channel id. The array is replaced when it grows, the sets are concurrent.
+	 */
+	private volatile Set<ISession>[] subscribers = newSubscribers(64);
+	/*
+	 * The subscribers of the channels that have been subscribed while all channel ids were in use.
+	 */
+	private final Map<String, Set<ISession>> subscribersByName = new ConcurrentHashMap<>();
+	/**
+	 * Is called with the ids that have been released, because their channels have lost their last subscriber, or null to free the ids immediately.
+	 */
+	@Setter
+	private Consumer<int[]> releasedChannelIdsHandler;
+	private final SubscriptionTrie patterns = new SubscriptionTrie();
+	private final Object lock = new Object();
+
 	/**
-	 * Adds one or multiple channel subscription/s for the given session.
+	 * Adds one or multiple channel subscription/s for the given session.<br>
+	 * Channels that do not have an id yet get one, if there is a free id. Invalid patterns are ignored.
 	 * @param session
 	 * @param channels
+	 * @return the channels and patterns that the session had not subscribed yet.
 	 */
-	public void addSubscriptions(ISession session, String... channels) {
-		synchronized (subscriptions) {
-			if (subscriptions.containsKey(session)) {
-				subscriptions.get(session).addAll(Arrays.asList(channels));
-			} else {
-				subscriptions.put(session, new HashSet<>(Arrays.asList(channels)));
+	public List<String> addSubscriptions(ISession session, String... channels) {
+		final List<String> added = new ArrayList<>(channels.length);
+		synchronized (lock) {
+			Set<String> sessionSubscriptions = subscriptions.get(session);
+			if (sessionSubscriptions == null) {
+				sessionSubscriptions = ConcurrentHashMap.newKeySet();
+				subscriptions.put(session, sessionSubscriptions);
+			}
+			for (String channel : channels) {
+				if (ChannelPattern.isPattern(channel)) {
+					if (!ChannelPattern.isValid(channel)) {
+						Transport.getLogger().log(Level.WARNING, "Ignored the invalid channel pattern " + channel);
+					} else if (sessionSubscriptions.add(channel)) {
+						patterns.add(channel, session);
+						added.add(channel);
+					}
+					continue;
+				}
+				if (!sessionSubscriptions.add(channel)) {
+					continue;
+				}
+				getOrCreateSubscriberSet(channel).add(session);
+				added.add(channel);
+			}
+		}
+		return added;
+	}
+
+	/**
+	 * A channel that is indexed by its name stays there until it has no subscribers left, so all of its subscribers are found in the same place.
+	 */
+	private Set<ISession> getOrCreateSubscriberSet(String channel) {
+		Set<ISession> channelSubscribers = subscribersByName.get(channel);
+		if (channelSubscribers != null) {
+			return channelSubscribers;
+		}
+		final int channelId = channelRegistry.resolve(channel);
+		if (channelId == ChannelRegistry.NO_ID) {
+			channelSubscribers = ConcurrentHashMap.newKeySet();
+			subscribersByName.put(channel, channelSubscribers);
+			return channelSubscribers;
+		}
+		Set<ISession>[] subscribers = this.subscribers;
+		channelSubscribers = channelId < subscribers.length ? subscribers[channelId] : null;
+		if (channelSubscribers == null) {
+			channelSubscribers = ConcurrentHashMap.newKeySet();
+			if (channelId >= subscribers.length) {
+				subscribers = Arrays.copyOf(subscribers, Math.max(subscribers.length * 2, channelId + 1));
 			}
+			subscribers[channelId] = channelSubscribers;
+			this.subscribers = subscribers;
 		}
+		return channelSubscribers;
 	}
-	
+
 	/**
 	 * Removes one or multiple channel subscription/s for the given session.
 	 * @param session
 	 * @param channels
+	 * @return the channels and patterns that the session had subscribed.
 	 */
-	public void removeSubscriptions(ISession session, String... channels) {
-		synchronized (subscriptions) {
-			if (subscriptions.containsKey(session)) {
-				subscriptions.get(session).removeAll(Arrays.asList(channels));
+	public List<String> removeSubscriptions(ISession session, String... channels) {
+		final List<String> removed = new ArrayList<>(channels.length);
+		final List<Integer> releasedIds = new ArrayList<>();
+		synchronized (lock) {
+			final Set<String> sessionSubscriptions = subscriptions.get(session);
+			if (sessionSubscriptions == null) {
+				return removed;
+			}
+			for (String channel : channels) {
+				if (sessionSubscriptions.remove(channel)) {
+					removeSubscriber(channel, session, releasedIds);
+					removed.add(channel);
+				}
 			}
 		}
+		onChannelIdsReleased(releasedIds);
+		return removed;
 	}
-	
+
 	/**
 	 * Removes all subscriptions for the given session.
 	 * @param session
+	 * @return the channels and patterns that the session had subscribed.
 	 */
-	public void removeSubscriptions(ISession session) {
-		final Channel channel = session.getChannel();
-		synchronized (subscriptions) {
-			subscriptions.remove(channel);
+	public Collection<String> removeSubscriptions(ISession session) {
+		final List<Integer> releasedIds = new ArrayList<>();
+		final Set<String> sessionSubscriptions;
+		synchronized (lock) {
+			sessionSubscriptions = subscriptions.remove(session);
+			if (sessionSubscriptions == null) {
+				return Collections.emptySet();
+			}
+			for (String channel : sessionSubscriptions) {
+				removeSubscriber(channel, session, releasedIds);
+			}
+		}
+		onChannelIdsReleased(releasedIds);
+		return sessionSubscriptions;
+	}
+
+	private void removeSubscriber(String channel, ISession session, List<Integer> releasedIds) {
+		if (ChannelPattern.isPattern(channel)) {
+			patterns.remove(channel, session);
+			return;
+		}
+		final Set<ISession> subscribersOfName = subscribersByName.get(channel);
+		if (subscribersOfName != null) {
+			subscribersOfName.remove(session);
+			if (subscribersOfName.isEmpty()) {
+				subscribersByName.remove(channel);
+			}
+			return;
 		}
+		final int channelId = channelRegistry.getId(channel);
+		final Set<ISession> channelSubscribers = getSubscriberSet(channelId);
+		if (channelSubscribers == null) {
+			return;
+		}
+		channelSubscribers.remove(session);
+		if (channelSubscribers.isEmpty()) {
+			final Set<ISession>[] subscribers = this.subscribers;
+			subscribers[channelId] = null;
+			this.subscribers = subscribers;
+			channelRegistry.release(channel);
+			releasedIds.add(channelId);
+		}
+	}
+
+	private void onChannelIdsReleased(List<Integer> releasedIds) {
+		if (releasedIds.isEmpty()) {
+			return;
+		}
+		final int[] ids = releasedIds.stream().mapToInt(Integer::intValue).toArray();
+		final Consumer<int[]> releasedChannelIdsHandler = this.releasedChannelIdsHandler;
+		if (releasedChannelIdsHandler != null) {
+			releasedChannelIdsHandler.accept(ids);
+			return;
+		}
+		for (int id : ids) {
+			channelRegistry.free(id);
+		}
+	}
+
+	private Set<ISession> getSubscriberSet(int channelId) {
+		final Set<ISession>[] subscribers = this.subscribers;
+		return channelId <= ChannelRegistry.NO_ID || channelId >= subscribers.length ? null : subscribers[channelId];
 	}
-	
+
+	private Set<ISession> getSubscriberSet(String channel, int channelId) {
+		if (channelId != ChannelRegistry.NO_ID) {
+			return getSubscriberSet(channelId);
+		}
+		return channel == null || subscribersByName.isEmpty() ? null : subscribersByName.get(channel);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Set<ISession>[] newSubscribers(int length) {
+		return new Set[length];
+	}
+
 	/**
-	 * 
+	 *
 	 * @param session
 	 * @return a {@link ArrayList} containing all current subscriptions for the given session.
 	 */
 	public List<String> getSubscriptions(ISession session) {
-		final Channel channel = session.getChannel();
-		final List<String> out = new ArrayList<>();
-		synchronized (subscriptions) {
-			final Set<String> subscriptions = this.subscriptions.get(channel);
-			if (subscriptions != null) {
-				out.addAll(subscriptions);
-			}
+		final Set<String> subscriptions = this.subscriptions.get(session);
+		if (subscriptions == null) {
+			return new ArrayList<>();
+		}
+		return new ArrayList<>(subscriptions);
+	}
+
+	/**
+	 * This method does not lock. It only copies if a session has subscribed a pattern.
+	 * @param channelId
+	 * @return a read-only view of all sessions that have subscribed the channel with the given id or a pattern that matches it.
+	 */
+	public Set<ISession> getSubscribers(int channelId) {
+		return getSubscribers(channelRegistry.getName(channelId), channelId);
+	}
+
+	/**
+	 * This method does not lock. It only copies if a session has subscribed a pattern.
+	 * @param channel the name of the channel, or null if the channel is only known by its id.
+	 * @param channelId the id of the channel or {@link ChannelRegistry#NO_ID}.
+	 * @return a read-only view of all sessions that have subscribed the channel or a pattern that matches it.
+	 */
+	public Set<ISession> getSubscribers(String channel, int channelId) {
+		final Set<ISession> channelSubscribers = getSubscriberSet(channel, channelId);
+		if (!patterns.isEmpty() && channel != null) {
+			final Set<ISession> out = channelSubscribers == null ? new HashSet<>() : new HashSet<>(channelSubscribers);
+			patterns.match(channel, out);
 			return out;
 		}
+		if (channelSubscribers == null) {
+			return Collections.emptySet();
+		}
+		return Collections.unmodifiableSet(channelSubscribers);
+	}
+
+	/**
+	 * This method does not lock.
+	 * @param channels
+	 * @param channelIds the ids of the channels in the same order. A channel without id is looked up by its name.
+	 * @return all sessions that have subscribed at least one of the channels or a pattern that matches one of them.
+	 * Every session is contained only once.
+	 */
+	public Collection<ISession> getSubscribers(String[] channels, int[] channelIds) {
+		if (channels.length == 1) {
+			return getSubscribers(channels[0], channelIds[0]);
+		}
+		final Set<ISession> out = new HashSet<>();
+		final boolean matchPatterns = !patterns.isEmpty();
+		for (int i = 0; i < channels.length; i++) {
+			final Set<ISession> channelSubscribers = getSubscriberSet(channels[i], channelIds[i]);
+			if (channelSubscribers != null) {
+				out.addAll(channelSubscribers);
+			}
+			if (matchPatterns) {
+				patterns.match(channels[i], out);
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * This method does not lock. It only copies if a session has subscribed a pattern.
+	 * @param channel
+	 * @return a read-only view of all sessions that have subscribed the given channel or a pattern that matches it.
+	 */
+	public Set<ISession> getSubscribers(String channel) {
+		return getSubscribers(channel, channelRegistry.getId(channel));
+	}
+
+	/**
+	 * This method does not lock.
+	 * @param channels
+	 * @return all sessions that have subscribed at least one of the given channels or a pattern that matches one of them.
+	 * Every session is contained only once.
+	 */
+	public Collection<ISession> getSubscribers(String... channels) {
+		final Set<ISession> out = new HashSet<>();
+		for (String channel : channels) {
+			final Set<ISession> channelSubscribers = getSubscriberSet(channel, channelRegistry.getId(channel));
+			if (channelSubscribers != null) {
+				out.addAll(channelSubscribers);
+			}
+			patterns.match(channel, out);
+		}
+		return out;
 	}
 }
@@ -0,0 +1,144 @@
+package de.iltisauge.transport.server;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import de.iltisauge.transport.network.ChannelPattern;
+import de.iltisauge.transport.network.ISession;
+
+/**
+ * This class stores the pattern subscriptions of the {@link SubscriptionManager} in a tree of channel name segments, see {@link ChannelPattern}.<br>
+ * Every node has a child for each literal segment, one child for {@link ChannelPattern#ANY_SEGMENT}
+ * and the sessions whose pattern ends there or continues with {@link ChannelPattern#REMAINING_SEGMENTS}.
+ * Matching a channel therefore walks the tree once per segment of the channel,
+ * its cost depends on the depth of the channel and not on the amount of patterns.<br>
+ * Changes have to be serialized by the caller, lookups do not lock.
+ *
+ * @author Daniel Ziegler
+ *
+ */
+public class SubscriptionTrie {
+
+	private final Node root = new Node();
+	private volatile int size;
+
+	/**
+	 * Adds a session to the pattern.
+	 * @param pattern
+	 * @param session
+	 * @return true, if the session has not been added to the pattern before.
+	 */
+	public boolean add(String pattern, ISession session) {
+		final String[] segments = ChannelPattern.getSegments(pattern);
+		Node node = root;
+		for (int i = 0; i < segments.length; i++) {
+			final String segment = segments[i];
+			if (segment.equals(ChannelPattern.REMAINING_SEGMENTS) && i == segments.length - 1) {
+				return added(node.remaining.add(session));
+			}
+			if (segment.equals(ChannelPattern.ANY_SEGMENT)) {
+				if (node.any == null) {
+					node.any = new Node();
+				}
+				node = node.any;
+			} else {
+				node = node.children.computeIfAbsent(segment, key -> new Node());
+			}
+		}
+		return added(node.subscribers.add(session));
+	}
+
+	/**
+	 * Removes a session from the pattern and prunes the nodes that are no longer used.
+	 * @param pattern
+	 * @param session
+	 * @return true, if the session had been added to the pattern.
+	 */
+	public boolean remove(String pattern, ISession session) {
+		final boolean removed = remove(root, ChannelPattern.getSegments(pattern), 0, session);
+		if (removed) {
+			size--;
+		}
+		return removed;
+	}
+
+	private boolean remove(Node node, String[] segments, int index, ISession session) {
+		if (index == segments.length) {
+			return node.subscribers.remove(session);
+		}
+		final String segment = segments[index];
+		if (segment.equals(ChannelPattern.REMAINING_SEGMENTS) && index == segments.length - 1) {
+			return node.remaining.remove(session);
+		}
+		final Node child = segment.equals(ChannelPattern.ANY_SEGMENT) ? node.any : node.children.get(segment);
+		if (child == null || !remove(child, segments, index + 1, session)) {
+			return false;
+		}
+		if (child.isEmpty()) {
+			if (child == node.any) {
+				node.any = null;
+			} else {
+				node.children.remove(segment);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Adds all sessions whose patterns match the channel to the collection.
+	 * @param channel
+	 * @param out
+	 */
+	public void match(String channel, Collection<ISession> out) {
+		if (size == 0) {
+			return;
+		}
+		match(root, ChannelPattern.getSegments(channel), 0, out);
+	}
+
+	private static void match(Node node, String[] segments, int index, Collection<ISession> out) {
+		if (index == segments.length) {
+			out.addAll(node.subscribers);
+			return;
+		}
+		// There is at least one segment left, which is what REMAINING_SEGMENTS requires
+		out.addAll(node.remaining);
+		final Node child = node.children.get(segments[index]);
+		if (child != null) {
+			match(child, segments, index + 1, out);
+		}
+		final Node any = node.any;
+		if (any != null) {
+			match(any, segments, index + 1, out);
+		}
+	}
+
+	/**
+	 *
+	 * @return true, if no session has subscribed a pattern.
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	private boolean added(boolean added) {
+		if (added) {
+			size++;
+		}
+		return added;
+	}
+
+	private static final class Node {
+
+		private final Map<String, Node> children = new ConcurrentHashMap<>();
+		private volatile Node any;
+		private final Set<ISession> subscribers = ConcurrentHashMap.newKeySet();
+		private final Set<ISession> remaining = ConcurrentHashMap.newKeySet();
+
+		private boolean isEmpty() {
+			return children.isEmpty() && any == null && subscribers.isEmpty() && remaining.isEmpty();
+		}
+	}
+}
@@ -1,11 +1,149 @@
 package de.iltisauge.transport.utils;
 
-import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.CorruptedFrameException;
 
+/**
+ * This class contains the primitives that frames and codecs are written with.<br>
+ * Lengths and counts are written as variable-length integers with 7 bits per byte, so small values only take a single byte.
+ * Strings are written as their UTF-8 byte length followed by the UTF-8 bytes, which are encoded straight into the {@link ByteBuf}.<br>
+ * Every read checks the announced length against the readable bytes,
+ * so a broken length field can never cause a bigger allocation than the frame itself.
+ *
+ * @author Daniel Ziegler
+ *
+ */
 public class PacketUtil {
 	
+	/**
+	 * The maximum amount of bytes of a variable-length int.
+	 */
+	public static final int MAX_VAR_INT_SIZE = 5;
+	/**
+	 * The maximum amount of bytes of a variable-length long.
+	 */
+	public static final int MAX_VAR_LONG_SIZE = 10;
+
+	private static final int SCRATCH_SIZE = 1024;
+	/*
+	 * Strings in direct buffers are copied into this array before decoding, so short strings do not need a temporary array.
+	 */
+	private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[SCRATCH_SIZE]);
+
+	/**
+	 * Writes an unsigned variable-length int to the ByteBuf.
+	 * @param byteBuf
+	 * @param value
+	 */
+	public static void writeVarInt(ByteBuf byteBuf, int value) {
+		while ((value & ~0x7F) != 0) {
+			byteBuf.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		byteBuf.writeByte(value);
+	}
+
+	/**
+	 * Reads an unsigned variable-length int that was written by {@link #writeVarInt(ByteBuf, int)}.
+	 * @param byteBuf
+	 * @return
+	 * @throws CorruptedFrameException if the value is longer than {@link #MAX_VAR_INT_SIZE} bytes.
+	 */
+	public static int readVarInt(ByteBuf byteBuf) {
+		int value = 0;
+		for (int shift = 0; shift < 7 * MAX_VAR_INT_SIZE; shift += 7) {
+			final byte b = byteBuf.readByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new CorruptedFrameException("Variable-length int is longer than " + MAX_VAR_INT_SIZE + " bytes");
+	}
+
+	/**
+	 *
+	 * @param value
+	 * @return the amount of bytes that {@link #writeVarInt(ByteBuf, int)} writes for the value.
+	 */
+	public static int getVarIntSize(int value) {
+		return value == 0 ? 1 : (38 - Integer.numberOfLeadingZeros(value)) / 7;
+	}
+
+	/**
+	 * Writes an unsigned variable-length long to the ByteBuf.
+	 * @param byteBuf
+	 * @param value
+	 */
+	public static void writeVarLong(ByteBuf byteBuf, long value) {
+		while ((value & ~0x7FL) != 0) {
+			byteBuf.writeByte((int) (value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		byteBuf.writeByte((int) value);
+	}
+
+	/**
+	 * Reads an unsigned variable-length long that was written by {@link #writeVarLong(ByteBuf, long)}.
+	 * @param byteBuf
+	 * @return
+	 * @throws CorruptedFrameException if the value is longer than {@link #MAX_VAR_LONG_SIZE} bytes.
+	 */
+	public static long readVarLong(ByteBuf byteBuf) {
+		long value = 0;
+		for (int shift = 0; shift < 7 * MAX_VAR_LONG_SIZE; shift += 7) {
+			final byte b = byteBuf.readByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new CorruptedFrameException("Variable-length long is longer than " + MAX_VAR_LONG_SIZE + " bytes");
+	}
+
+	/**
+	 * Writes a signed variable-length int to the ByteBuf. The value is zigzag-encoded first, so small negative values take as few bytes as small positive ones.
+	 * @param byteBuf
+	 * @param value
+	 */
+	public static void writeSignedVarInt(ByteBuf byteBuf, int value) {
+		writeVarInt(byteBuf, (value << 1) ^ (value >> 31));
+	}
+
+	/**
+	 * Reads a signed variable-length int that was written by {@link #writeSignedVarInt(ByteBuf, int)}.
+	 * @param byteBuf
+	 * @return
+	 */
+	public static int readSignedVarInt(ByteBuf byteBuf) {
+		final int value = readVarInt(byteBuf);
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * Writes a signed variable-length long to the ByteBuf, see {@link #writeSignedVarInt(ByteBuf, int)}.
+	 * @param byteBuf
+	 * @param value
+	 */
+	public static void writeSignedVarLong(ByteBuf byteBuf, long value) {
+		writeVarLong(byteBuf, (value << 1) ^ (value >> 63));
+	}
+
+	/**
+	 * Reads a signed variable-length long that was written by {@link #writeSignedVarLong(ByteBuf, long)}.
+	 * @param byteBuf
+	 * @return
+	 */
+	public static long readSignedVarLong(ByteBuf byteBuf) {
+		final long value = readVarLong(byteBuf);
+		return (value >>> 1) ^ -(value & 1);
+	}
+
 	/**
 	 * Writes the String to the ByteBuf.<br>
 	 * Use {@link #readString(ByteBuf)} to read the String you want to write.
@@ -13,8 +151,102 @@ public class PacketUtil {
 	 * @param string
 	 */
 	public static void writeString(ByteBuf byteBuf, String string) {
-		byteBuf.writeInt(string.length());
-		byteBuf.writeBytes(string.getBytes());
+		final int utf8Length = getUtf8Length(string);
+		writeVarInt(byteBuf, utf8Length);
+		writeUtf8(byteBuf, string, utf8Length);
+	}
+
+	/**
+	 * Writes a String that may be null. Its UTF-8 byte length is written plus one and null is written as 0, so the String does not take an extra byte.<br>
+	 * Use {@link #readNullableString(ByteBuf, int)} to read the String you want to write.
+	 * @param byteBuf
+	 * @param string
+	 */
+	public static void writeNullableString(ByteBuf byteBuf, String string) {
+		if (string == null) {
+			writeVarInt(byteBuf, 0);
+			return;
+		}
+		final int utf8Length = getUtf8Length(string);
+		writeVarInt(byteBuf, utf8Length + 1);
+		writeUtf8(byteBuf, string, utf8Length);
+	}
+
+	/**
+	 *
+	 * @param string
+	 * @return the amount of bytes of the UTF-8 encoding of the String.
+	 */
+	public static int getUtf8Length(CharSequence string) {
+		final int length = string.length();
+		int i = 0;
+		while (i < length && string.charAt(i) < 0x80) {
+			i++;
+		}
+		int utf8Length = i;
+		for (; i < length; i++) {
+			final char c = string.charAt(i);
+			if (c < 0x80) {
+				utf8Length++;
+			} else if (c < 0x800) {
+				utf8Length += 2;
+			} else if (!Character.isSurrogate(c)) {
+				utf8Length += 3;
+			} else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(string.charAt(i + 1))) {
+				utf8Length += 4;
+				i++;
+			} else {
+				utf8Length++;
+			}
+		}
+		return utf8Length;
+	}
+
+	/**
+	 * Writes the UTF-8 encoding of the String to the ByteBuf without creating a byte array.<br>
+	 * Unpaired surrogates are written as '?', like {@link String#getBytes(java.nio.charset.Charset)} does.
+	 */
+	private static void writeUtf8(ByteBuf byteBuf, CharSequence string, int utf8Length) {
+		byteBuf.ensureWritable(utf8Length);
+		final int length = string.length();
+		int index = byteBuf.writerIndex();
+		int i = 0;
+		if (byteBuf.hasArray()) {
+			final byte[] array = byteBuf.array();
+			int offset = byteBuf.arrayOffset() + index;
+			for (char c; i < length && (c = string.charAt(i)) < 0x80; i++) {
+				array[offset++] = (byte) c;
+			}
+			index += i;
+		} else {
+			for (char c; i < length && (c = string.charAt(i)) < 0x80; i++) {
+				byteBuf.setByte(index++, c);
+			}
+		}
+		for (; i < length; i++) {
+			final char c = string.charAt(i);
+			if (c < 0x80) {
+				byteBuf.setByte(index++, c);
+			} else if (c < 0x800) {
+				byteBuf.setByte(index++, 0xC0 | (c >> 6));
+				byteBuf.setByte(index++, 0x80 | (c & 0x3F));
+			} else if (Character.isSurrogate(c)) {
+				if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(string.charAt(i + 1))) {
+					final int codePoint = Character.toCodePoint(c, string.charAt(++i));
+					byteBuf.setByte(index++, 0xF0 | (codePoint >> 18));
+					byteBuf.setByte(index++, 0x80 | ((codePoint >> 12) & 0x3F));
+					byteBuf.setByte(index++, 0x80 | ((codePoint >> 6) & 0x3F));
+					byteBuf.setByte(index++, 0x80 | (codePoint & 0x3F));
+				} else {
+					byteBuf.setByte(index++, '?');
+				}
+			} else {
+				byteBuf.setByte(index++, 0xE0 | (c >> 12));
+				byteBuf.setByte(index++, 0x80 | ((c >> 6) & 0x3F));
+				byteBuf.setByte(index++, 0x80 | (c & 0x3F));
+			}
+		}
+		byteBuf.writerIndex(index);
 	}
 	
 	/**
@@ -24,11 +256,240 @@ public class PacketUtil {
 	 * @return
 	 */
 	public static String readString(ByteBuf byteBuf) {
-		final int length = byteBuf.readInt();
-		final byte[] bytes = new byte[length];
-		for (int i = 0; i < bytes.length; i++) {
-			bytes[i] = byteBuf.readByte();
+		return readString(byteBuf, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Reads a String from the ByteBuf that is at most <code>maxLength</code> bytes long.<br>
+	 * Heap buffers are decoded in place. Direct buffers are copied in bulk into a per-thread array first.
+	 * Strings that only contain ASCII characters are decoded by a plain copy.
+	 * @param byteBuf
+	 * @param maxLength
+	 * @return
+	 * @throws CorruptedFrameException if the announced length is negative, exceeds <code>maxLength</code> or the readable bytes.
+	 */
+	public static String readString(ByteBuf byteBuf, int maxLength) {
+		return readUtf8(byteBuf, readLength(byteBuf, maxLength, 1, "string"));
+	}
+
+	/**
+	 * Reads a String that was written by {@link #writeNullableString(ByteBuf, String)} and is at most <code>maxLength</code> bytes long.
+	 * @param byteBuf
+	 * @param maxLength
+	 * @return the String or null.
+	 * @throws CorruptedFrameException if the announced length exceeds <code>maxLength</code> or the readable bytes.
+	 */
+	public static String readNullableString(ByteBuf byteBuf, int maxLength) {
+		final int length = readVarInt(byteBuf) - 1;
+		if (length == -1) {
+			return null;
+		}
+		if (length < 0 || length > maxLength || length > byteBuf.readableBytes()) {
+			throw new CorruptedFrameException("Invalid string length " + length + " (maximum is " + Math.min(maxLength, byteBuf.readableBytes()) + ")");
+		}
+		return readUtf8(byteBuf, length);
+	}
+
+	private static String readUtf8(ByteBuf byteBuf, int length) {
+		final int index = byteBuf.readerIndex();
+		final byte[] bytes;
+		final int offset;
+		if (byteBuf.hasArray()) {
+			bytes = byteBuf.array();
+			offset = byteBuf.arrayOffset() + index;
+		} else {
+			bytes = length <= SCRATCH_SIZE ? SCRATCH.get() : new byte[length];
+			offset = 0;
+			byteBuf.getBytes(index, bytes, 0, length);
+		}
+		byteBuf.skipBytes(length);
+		return new String(bytes, offset, length, isAscii(bytes, offset, length) ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8);
+	}
+
+	private static boolean isAscii(byte[] bytes, int offset, int length) {
+		for (int i = offset, end = offset + length; i < end; i++) {
+			if (bytes[i] < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Writes the String array to the ByteBuf.
+	 * @param byteBuf
+	 * @param strings
+	 */
+	public static void writeStringArray(ByteBuf byteBuf, String[] strings) {
+		writeVarInt(byteBuf, strings.length);
+		for (String string : strings) {
+			writeString(byteBuf, string);
+		}
+	}
+
+	/**
+	 * Reads a String array that was written by {@link #writeStringArray(ByteBuf, String[])}.
+	 * @param byteBuf
+	 * @param maxCount the maximum amount of Strings.
+	 * @param maxLength the maximum length in bytes of every String.
+	 * @return
+	 * @throws CorruptedFrameException if the announced count or a length is invalid.
+	 */
+	public static String[] readStringArray(ByteBuf byteBuf, int maxCount, int maxLength) {
+		final String[] strings = new String[readLength(byteBuf, maxCount, 1, "string array")];
+		for (int i = 0; i < strings.length; i++) {
+			strings[i] = readString(byteBuf, maxLength);
+		}
+		return strings;
+	}
+
+	/**
+	 * Writes the byte array to the ByteBuf.
+	 * @param byteBuf
+	 * @param bytes
+	 */
+	public static void writeByteArray(ByteBuf byteBuf, byte[] bytes) {
+		writeVarInt(byteBuf, bytes.length);
+		byteBuf.writeBytes(bytes);
+	}
+
+	/**
+	 * Reads a byte array that was written by {@link #writeByteArray(ByteBuf, byte[])}.
+	 * @param byteBuf
+	 * @param maxLength
+	 * @return
+	 * @throws CorruptedFrameException if the announced length is invalid.
+	 */
+	public static byte[] readByteArray(ByteBuf byteBuf, int maxLength) {
+		final byte[] bytes = new byte[readLength(byteBuf, maxLength, 1, "byte array")];
+		byteBuf.readBytes(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Writes the int array to the ByteBuf.
+	 * @param byteBuf
+	 * @param ints
+	 */
+	public static void writeIntArray(ByteBuf byteBuf, int[] ints) {
+		writeVarInt(byteBuf, ints.length);
+		byteBuf.ensureWritable(ints.length * 4);
+		for (int value : ints) {
+			byteBuf.writeInt(value);
+		}
+	}
+
+	/**
+	 * Reads an int array that was written by {@link #writeIntArray(ByteBuf, int[])}.
+	 * @param byteBuf
+	 * @param maxLength
+	 * @return
+	 * @throws CorruptedFrameException if the announced length is invalid.
+	 */
+	public static int[] readIntArray(ByteBuf byteBuf, int maxLength) {
+		final int[] ints = new int[readLength(byteBuf, maxLength, 4, "int array")];
+		for (int i = 0; i < ints.length; i++) {
+			ints[i] = byteBuf.readInt();
+		}
+		return ints;
+	}
+
+	/**
+	 * Writes the long array to the ByteBuf.
+	 * @param byteBuf
+	 * @param longs
+	 */
+	public static void writeLongArray(ByteBuf byteBuf, long[] longs) {
+		writeVarInt(byteBuf, longs.length);
+		byteBuf.ensureWritable(longs.length * 8);
+		for (long value : longs) {
+			byteBuf.writeLong(value);
+		}
+	}
+
+	/**
+	 * Reads a long array that was written by {@link #writeLongArray(ByteBuf, long[])}.
+	 * @param byteBuf
+	 * @param maxLength
+	 * @return
+	 * @throws CorruptedFrameException if the announced length is invalid.
+	 */
+	public static long[] readLongArray(ByteBuf byteBuf, int maxLength) {
+		final long[] longs = new long[readLength(byteBuf, maxLength, 8, "long array")];
+		for (int i = 0; i < longs.length; i++) {
+			longs[i] = byteBuf.readLong();
+		}
+		return longs;
+	}
+
+	/**
+	 * Writes the {@link UUID} to the ByteBuf as two longs.
+	 * @param byteBuf
+	 * @param uuid
+	 */
+	public static void writeUUID(ByteBuf byteBuf, UUID uuid) {
+		byteBuf.writeLong(uuid.getMostSignificantBits());
+		byteBuf.writeLong(uuid.getLeastSignificantBits());
+	}
+
+	/**
+	 * Reads a {@link UUID} that was written by {@link #writeUUID(ByteBuf, UUID)}.
+	 * @param byteBuf
+	 * @return
+	 */
+	public static UUID readUUID(ByteBuf byteBuf) {
+		return new UUID(byteBuf.readLong(), byteBuf.readLong());
+	}
+
+	/**
+	 * Writes a value that may be null. A boolean that tells whether the value is present is written first.<br>
+	 * Pass a method reference as <code>writer</code>, e.g. <code>PacketUtil::writeUUID</code>, so no object is created.
+	 * @param byteBuf
+	 * @param value
+	 * @param writer writes the value if it is not null.
+	 */
+	public static <T> void writeOptional(ByteBuf byteBuf, T value, BiConsumer<ByteBuf, T> writer) {
+		byteBuf.writeBoolean(value != null);
+		if (value != null) {
+			writer.accept(byteBuf, value);
+		}
+	}
+
+	/**
+	 * Reads a value that was written by {@link #writeOptional(ByteBuf, Object, BiConsumer)}.
+	 * @param byteBuf
+	 * @param reader reads the value if it is present.
+	 * @return the value or null.
+	 */
+	public static <T> T readOptional(ByteBuf byteBuf, Function<ByteBuf, T> reader) {
+		return byteBuf.readBoolean() ? reader.apply(byteBuf) : null;
+	}
+
+	/**
+	 * Writes a String that may be null.
+	 * @see #writeOptional(ByteBuf, Object, BiConsumer)
+	 */
+	public static void writeOptionalString(ByteBuf byteBuf, String string) {
+		writeOptional(byteBuf, string, PacketUtil::writeString);
+	}
+
+	/**
+	 * Reads a String that was written by {@link #writeOptionalString(ByteBuf, String)}.
+	 * @param byteBuf
+	 * @return the String or null.
+	 */
+	public static String readOptionalString(ByteBuf byteBuf) {
+		return readOptional(byteBuf, PacketUtil::readString);
+	}
+
+	/**
+	 * Reads a variable-length length and checks it against <code>maxLength</code> and the readable bytes.
+	 */
+	private static int readLength(ByteBuf byteBuf, int maxLength, int elementSize, String type) {
+		final int length = readVarInt(byteBuf);
+		if (length < 0 || length > maxLength || length > byteBuf.readableBytes() / elementSize) {
+			throw new CorruptedFrameException("Invalid " + type + " length " + length + " (maximum is " + Math.min(maxLength, byteBuf.readableBytes() / elementSize) + ")");
 		}
-		return new String(bytes, Charset.forName("UTF-8"));
+		return length;
 	}
 }
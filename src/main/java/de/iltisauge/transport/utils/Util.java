@@ -21,6 +21,7 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 
 import de.iltisauge.transport.client.NetworkClient;
+import de.iltisauge.transport.network.NetworkDevice;
 import de.iltisauge.transport.network.Session;
 import de.iltisauge.transport.server.NetworkServer;
 import io.netty.channel.Channel;
@@ -275,8 +276,19 @@ public final class Util {
 		}
 	}
 	
-	public static Session getSession(ChannelHandlerContext ctx, Object networkDevice) {
+	/**
+	 * Returns the session of the channel. It is created and stored in the {@link Session#SESSION} attribute of the channel on the first call,
+	 * so every event of the channel gets the same session.
+	 * @param ctx
+	 * @param networkDevice the device that owns the channel, which assigns the id of a new session.
+	 * @return the session of the channel.
+	 */
+	public static Session getSession(ChannelHandlerContext ctx, NetworkDevice networkDevice) {
 		final Channel channel = ctx.channel();
+		final Session session = Session.of(channel);
+		if (session != null) {
+			return session;
+		}
 		SocketAddress clientAddress = null;
 		SocketAddress serverAddress = null;
 		if (networkDevice instanceof NetworkServer) {
@@ -286,6 +298,8 @@ public final class Util {
 			clientAddress = channel.localAddress();
 			serverAddress = channel.remoteAddress();
 		}
-		return new Session(channel, clientAddress, serverAddress);
+		final Session newSession = new Session(channel, clientAddress, serverAddress, networkDevice.nextSessionId());
+		final Session existingSession = channel.attr(Session.SESSION).setIfAbsent(newSession);
+		return existingSession == null ? newSession : existingSession;
 	}
 }